@@ -0,0 +1,398 @@
+package UoASCNU.benchmarks;
+
+import UoASCNU.images.ImageFile;
+import UoASCNU.images.RasterPool;
+import UoASCNU.metrics.ConversionMetrics;
+import UoASCNU.metrics.LatencyHistogram;
+import UoASCNU.metrics.Stage;
+import UoASCNU.processing.AdmissionScheduler;
+import UoASCNU.processing.BatchResult;
+import UoASCNU.processing.GrayscaleConverter;
+import UoASCNU.processing.GrayscaleMode;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The <code>EndToEndBenchmark</code> class measures whole batches, the way
+ * <code>TestProcessing --pipeline</code> converts them, rather than single
+ * operations as the JMH benchmarks do. It writes a synthetic corpus of
+ * JPEGs (see <code>SyntheticCorpus</code>), then converts it once for every
+ * thread count asked for, each time in a fresh JVM with a fixed heap, so
+ * that the peak memory and garbage collection of one run do not leak into
+ * the next. Every run converts the corpus a few times to warm up, then
+ * several times more to be measured.
+ * <p>
+ * The report is a JSON object, printed and written to a file, giving the
+ * corpus and its checksum, the JVM and machine, and for every run: the
+ * images, megabytes of JPEG (10<sup>6</sup> bytes) and megapixels
+ * converted per second, as the median of the measured batches along with
+ * the slowest and fastest; the count and mean, p50, p90, p99 and maximum
+ * latency in milliseconds of every stage; the peak resident set size of
+ * the JVM (VmHWM, which includes the warm-up); the peak heap, as the sum
+ * of the peaks of the heap pools; and the collections and time of every
+ * garbage collector. Reports of the same corpus, options and machine can
+ * be compared figure by figure.
+ * <p>
+ * It is run from the project directory with
+ * <pre>
+ * mvn -Pbenchmark test-compile exec:exec@end-to-end -De2e.args="--threads=1,4"
+ * </pre>
+ * and takes these options: <code>--threads=1,4</code>,
+ * <code>--mix=</code> (see <code>SyntheticCorpus.DEFAULT_MIX</code>),
+ * <code>--seed=2002</code>, <code>--corpus=target/e2e-corpus</code>,
+ * <code>--warmup=1</code>, <code>--iterations=3</code>,
+ * <code>--heap=2g</code>, <code>--mode=average</code>,
+ * <code>--raster-pool-mb=</code> (256, or a quarter of the heap if less,
+ * by default), <code>--memory-budget-mb=</code> (3/4 of the heap left
+ * beside the pool, and at least 1/4 of the heap, by default, 0 for none)
+ * and
+ * <code>--output=target/e2e-benchmark.json</code>.
+ *
+ * @author Marco A. Palomino
+ */
+public class EndToEndBenchmark {
+
+    private String threads = "1," + Runtime.getRuntime().availableProcessors();
+    private String mix = SyntheticCorpus.DEFAULT_MIX;
+    private long seed = 2002;
+    private String corpusDirectory = "target/e2e-corpus";
+    private int warmup = 1;
+    private int iterations = 3;
+    private String heap = "2g";
+    private String mode = "average";
+    private long rasterPoolBytes = -1;
+    private long memoryBudget = -1;
+    private String output = "target/e2e-benchmark.json";
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        EndToEndBenchmark benchmark = new EndToEndBenchmark();
+        boolean child = false;
+        for (String argument : args) {
+            if (argument.equals("--child")) {
+                child = true;
+            } else if (argument.startsWith("--threads=")) {
+                benchmark.threads = argument.substring("--threads=".length());
+            } else if (argument.startsWith("--mix=")) {
+                benchmark.mix = argument.substring("--mix=".length());
+            } else if (argument.startsWith("--seed=")) {
+                benchmark.seed = Long.parseLong(
+                        argument.substring("--seed=".length()));
+            } else if (argument.startsWith("--corpus=")) {
+                benchmark.corpusDirectory =
+                        argument.substring("--corpus=".length());
+            } else if (argument.startsWith("--warmup=")) {
+                benchmark.warmup = Integer.parseInt(
+                        argument.substring("--warmup=".length()));
+            } else if (argument.startsWith("--iterations=")) {
+                benchmark.iterations = Integer.parseInt(
+                        argument.substring("--iterations=".length()));
+            } else if (argument.startsWith("--heap=")) {
+                benchmark.heap = argument.substring("--heap=".length());
+            } else if (argument.startsWith("--mode=")) {
+                benchmark.mode = argument.substring("--mode=".length());
+            } else if (argument.startsWith("--raster-pool-mb=")) {
+                benchmark.rasterPoolBytes = Long.parseLong(argument.substring(
+                        "--raster-pool-mb=".length())) << 20;
+            } else if (argument.startsWith("--memory-budget-mb=")) {
+                benchmark.memoryBudget = Long.parseLong(argument.substring(
+                        "--memory-budget-mb=".length())) << 20;
+            } else if (argument.startsWith("--output=")) {
+                benchmark.output = argument.substring("--output=".length());
+            } else {
+                throw new IllegalArgumentException(
+                        "EndToEndBenchmark: Unknown option " + argument);
+            }
+        }
+        if (benchmark.iterations <= 0 || benchmark.warmup < 0) {
+            throw new IllegalArgumentException(
+                    "EndToEndBenchmark: Iterations must be positive");
+        }
+
+        SyntheticCorpus corpus = new SyntheticCorpus(
+                Paths.get(benchmark.corpusDirectory).toAbsolutePath(),
+                benchmark.mix, benchmark.seed);
+        if (child) {
+            System.out.println(benchmark.measure(corpus,
+                    Integer.parseInt(benchmark.threads)));
+        } else {
+            benchmark.report(corpus);
+        }
+    } // End of main
+
+
+    /**
+     * Runs a child JVM for every thread count and writes the report.
+     *
+     * @param corpus The corpus to convert.
+     * @throws IOException          If a child cannot be run or the report
+     *                              cannot be written.
+     * @throws InterruptedException If interrupted waiting for a child.
+     */
+    private void report(SyntheticCorpus corpus)
+            throws IOException, InterruptedException {
+        List<String> runs = new ArrayList<>();
+        for (String count : threads.split(",")) {
+            System.err.println("Converting " + corpus.getFiles().size()
+                    + " images with " + count.strip() + " thread(s)");
+            runs.add(runChild(Integer.parseInt(count.strip())));
+        }
+
+        Runtime runtime = Runtime.getRuntime();
+        String report = String.format(Locale.ROOT,
+                "{\"benchmark\":\"end-to-end\",\"corpus\":%s,"
+                        + "\"environment\":{\"java\":\"%s\",\"vm\":\"%s\","
+                        + "\"os\":\"%s %s %s\",\"processors\":%d,"
+                        + "\"heap\":\"%s\"},"
+                        + "\"options\":{\"warmup\":%d,\"iterations\":%d,"
+                        + "\"mode\":\"%s\",\"rasterPoolBytes\":%d,"
+                        + "\"memoryBudgetBytes\":%d},"
+                        + "\"runs\":[%s]}",
+                corpus.toJson(), System.getProperty("java.version"),
+                System.getProperty("java.vm.name"),
+                System.getProperty("os.name"), System.getProperty("os.version"),
+                System.getProperty("os.arch"), runtime.availableProcessors(),
+                heap, warmup, iterations, mode, rasterPoolBytes, memoryBudget,
+                String.join(",", runs));
+        Path file = Paths.get(output);
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        Files.writeString(file, report + "\n");
+        System.out.println(report);
+        System.err.println("Written to " + file.toAbsolutePath());
+    } // End of report(corpus)
+
+
+    /**
+     * Measures one thread count in a child JVM, whose working directory
+     * is a temporary directory receiving the grayscale images.
+     *
+     * @param threadCount The number of reading and of saving threads.
+     * @return The JSON object the child printed.
+     * @throws IOException          If the child cannot be run or fails.
+     * @throws InterruptedException If interrupted waiting for the child.
+     */
+    private String runChild(int threadCount)
+            throws IOException, InterruptedException {
+        Path outputs = Files.createTempDirectory("e2e-output");
+        List<String> command = new ArrayList<>(Arrays.asList(
+                ProcessHandle.current().info().command().orElse("java"),
+                "-Xms" + heap, "-Xmx" + heap,
+                "--add-modules=jdk.incubator.vector,jdk.incubator.foreign",
+                "-cp", System.getProperty("java.class.path"),
+                EndToEndBenchmark.class.getName(), "--child",
+                "--threads=" + threadCount, "--mix=" + mix, "--seed=" + seed,
+                "--corpus=" + Paths.get(corpusDirectory).toAbsolutePath(),
+                "--warmup=" + warmup, "--iterations=" + iterations,
+                "--mode=" + mode));
+        if (rasterPoolBytes >= 0) {
+            command.add("--raster-pool-mb=" + (rasterPoolBytes >> 20));
+        }
+        if (memoryBudget >= 0) {
+            command.add("--memory-budget-mb=" + (memoryBudget >> 20));
+        }
+        Process process = new ProcessBuilder(command)
+                .directory(outputs.toFile())
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        String json = null;
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(
+                process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.startsWith("{")) {
+                    json = line;
+                }
+            }
+        }
+        int status = process.waitFor();
+        SyntheticImages.delete(outputs);
+        if (status != 0 || json == null) {
+            throw new IOException("EndToEndBenchmark: Run with "
+                    + threadCount + " thread(s) failed with status " + status);
+        }
+        return json;
+    } // End of runChild(threadCount)
+
+
+    /**
+     * Converts the corpus in this JVM and measures it.
+     *
+     * @param corpus      The corpus to convert.
+     * @param threadCount The number of reading and of saving threads.
+     * @return The figures of the run as a JSON object.
+     */
+    private String measure(SyntheticCorpus corpus, int threadCount) {
+        long maxMemory = Runtime.getRuntime().maxMemory();
+        if (rasterPoolBytes < 0) {
+            rasterPoolBytes = RasterPool.defaultMaxBytes(maxMemory);
+        }
+        if (rasterPoolBytes > 0) {
+            ImageFile.setRasterPool(new RasterPool(rasterPoolBytes));
+        }
+        if (memoryBudget < 0) {
+            memoryBudget = AdmissionScheduler.defaultBudget(maxMemory,
+                    rasterPoolBytes);
+        }
+        AdmissionScheduler scheduler = memoryBudget >= 1024
+                ? new AdmissionScheduler(memoryBudget) : null;
+        if (scheduler == null && memoryBudget != 0) {
+            System.err.println("Memory budget of " + memoryBudget
+                    + " bytes is too small, images are not admitted"
+                    + " against a budget");
+        }
+        GrayscaleMode grayscaleMode = GrayscaleMode.forName(mode);
+        List<File> files = corpus.getFiles();
+
+        for (int i = 0; i < warmup; i++) {
+            GrayscaleConverter.convertAndSave(files, threadCount,
+                    grayscaleMode, scheduler);
+        }
+        ConversionMetrics.global().reset();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            pool.resetPeakUsage();
+        }
+        List<GarbageCollectorMXBean> collectors =
+                ManagementFactory.getGarbageCollectorMXBeans();
+        long[] collections = new long[collectors.size()];
+        long[] collectionMillis = new long[collectors.size()];
+        for (int i = 0; i < collectors.size(); i++) {
+            collections[i] = collectors.get(i).getCollectionCount();
+            collectionMillis[i] = collectors.get(i).getCollectionTime();
+        }
+
+        double[] seconds = new double[iterations];
+        int failed = 0;
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            BatchResult result = GrayscaleConverter.convertAndSave(files,
+                    threadCount, grayscaleMode, scheduler);
+            seconds[i] = (System.nanoTime() - start) / 1e9;
+            failed += result.getFailed().size();
+        }
+
+        StringBuilder gc = new StringBuilder();
+        long totalCollections = 0;
+        long totalCollectionMillis = 0;
+        for (int i = 0; i < collectors.size(); i++) {
+            long count = collectors.get(i).getCollectionCount() - collections[i];
+            long millis = collectors.get(i).getCollectionTime() - collectionMillis[i];
+            totalCollections += count;
+            totalCollectionMillis += millis;
+            gc.append(i == 0 ? "" : ",").append(String.format(
+                    "{\"name\":\"%s\",\"count\":%d,\"timeMs\":%d}",
+                    collectors.get(i).getName(), count, millis));
+        }
+        long peakHeap = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) {
+                peakHeap += pool.getPeakUsage().getUsed();
+            }
+        }
+
+        double[] sorted = seconds.clone();
+        Arrays.sort(sorted);
+        double median = (sorted[(sorted.length - 1) / 2]
+                + sorted[sorted.length / 2]) / 2;
+        double slowest = sorted[sorted.length - 1];
+        double fastest = sorted[0];
+        int images = files.size();
+        double megabytes = corpus.getBytes() / 1e6;
+        double megapixels = corpus.getPixels() / 1e6;
+        return String.format(Locale.ROOT,
+                "{\"threads\":%d,\"images\":%d,\"failed\":%d,"
+                        + "\"rasterPoolBytes\":%d,\"memoryBudgetBytes\":%d,"
+                        + "\"seconds\":%s,"
+                        + "\"imagesPerSecond\":{\"median\":%.3f,\"min\":%.3f,\"max\":%.3f},"
+                        + "\"megabytesPerSecond\":{\"median\":%.3f,\"min\":%.3f,\"max\":%.3f},"
+                        + "\"megapixelsPerSecond\":{\"median\":%.3f,\"min\":%.3f,\"max\":%.3f},"
+                        + "\"stages\":{%s},\"peakRssBytes\":%d,\"peakHeapBytes\":%d,"
+                        + "\"gc\":{\"count\":%d,\"timeMs\":%d,\"collectors\":[%s]}}",
+                threadCount, images, failed, rasterPoolBytes, memoryBudget,
+                secondsJson(seconds),
+                images / median, images / slowest, images / fastest,
+                megabytes / median, megabytes / slowest, megabytes / fastest,
+                megapixels / median, megapixels / slowest, megapixels / fastest,
+                stagesJson(), peakRss(), peakHeap,
+                totalCollections, totalCollectionMillis, gc);
+    } // End of measure(corpus, threadCount)
+
+
+    /**
+     * @return The latency figures of every stage used, as JSON members.
+     */
+    private static String stagesJson() {
+        ConversionMetrics metrics = ConversionMetrics.global();
+        StringBuilder json = new StringBuilder();
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram latency = metrics.getLatency(stage);
+            long count = latency.getCount();
+            if (count == 0 && metrics.getFailures(stage) == 0) {
+                continue;
+            }
+            json.append(json.length() == 0 ? "" : ",").append(String.format(
+                    Locale.ROOT,
+                    "\"%s\":{\"count\":%d,\"failures\":%d,\"meanMs\":%.3f,"
+                            + "\"p50Ms\":%.3f,\"p90Ms\":%.3f,\"p99Ms\":%.3f,"
+                            + "\"maxMs\":%.3f}",
+                    stage.name().toLowerCase(Locale.ROOT), count,
+                    metrics.getFailures(stage),
+                    count == 0 ? 0 : latency.getTotalNanos() / 1e6 / count,
+                    latency.percentileNanos(0.50) / 1e6,
+                    latency.percentileNanos(0.90) / 1e6,
+                    latency.percentileNanos(0.99) / 1e6,
+                    latency.getMaxNanos() / 1e6));
+        }
+        return json.toString();
+    } // End of stagesJson()
+
+
+    /**
+     * @return The durations of the measured batches as a JSON array.
+     */
+    private static String secondsJson(double[] seconds) {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < seconds.length; i++) {
+            json.append(i == 0 ? "" : ",")
+                    .append(String.format(Locale.ROOT, "%.3f", seconds[i]));
+        }
+        return json.append(']').toString();
+    } // End of secondsJson(seconds)
+
+
+    /**
+     * Reads the peak resident set size of this process from
+     * /proc/self/status.
+     *
+     * @return The peak in bytes, or -1 where there is no /proc.
+     */
+    private static long peakRss() {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/self/status"))) {
+                if (line.startsWith("VmHWM:")) {
+                    String kilobytes = line.substring("VmHWM:".length())
+                            .replace("kB", "").strip();
+                    return Long.parseLong(kilobytes) << 10;
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            // Not Linux
+        }
+        return -1;
+    } // End of peakRss()
+} // End of class EndToEndBenchmark
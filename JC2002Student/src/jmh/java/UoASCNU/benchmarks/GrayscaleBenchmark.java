@@ -0,0 +1,88 @@
+package UoASCNU.benchmarks;
+
+import UoASCNU.images.ImageFile;
+import UoASCNU.processing.GrayscaleConverter;
+import UoASCNU.processing.PixelPipeline;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of allocating blank images and converting synthetic images
+ * of growing size to grayscale, on one thread and on the common pool.
+ *
+ * @author Marco A. Palomino
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g", "--add-modules=jdk.incubator.vector,jdk.incubator.foreign"})
+public class GrayscaleBenchmark {
+
+    @Param({"640x480", "1920x1080", "4000x3000", "8000x6000"})
+    public String size;
+
+    private int width;
+    private int height;
+    private ImageFile image;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        image = SyntheticImages.create(size);
+        width = image.getWidth();
+        height = image.getHeight();
+    } // End of setup()
+
+
+    /**
+     * Allocates a blank image, as <code>makeGray</code> does for its result.
+     */
+    @Benchmark
+    public ImageFile blank() {
+        return new ImageFile(width, height, BufferedImage.TYPE_BYTE_GRAY);
+    } // End of blank()
+
+
+    /**
+     * Converts the image on the calling thread.
+     */
+    @Benchmark
+    public ImageFile makeGray() {
+        return GrayscaleConverter.makeGray(image);
+    } // End of makeGray()
+
+
+    /**
+     * Converts the image on the common fork/join pool.
+     */
+    @Benchmark
+    public ImageFile makeGrayParallel() {
+        return GrayscaleConverter.makeGrayParallel(image);
+    } // End of makeGrayParallel()
+
+
+    /**
+     * Converts the image and adjusts it with a chain of operators fused
+     * into a single pass.
+     */
+    @Benchmark
+    public ImageFile fusedPipeline() {
+        return new PixelPipeline(image).gray().contrast(1.5).brightness(10)
+                .threshold(128).toImage();
+    } // End of fusedPipeline()
+} // End of class GrayscaleBenchmark
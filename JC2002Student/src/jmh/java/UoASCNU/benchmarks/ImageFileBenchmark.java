@@ -0,0 +1,116 @@
+package UoASCNU.benchmarks;
+
+import UoASCNU.images.ImageFile;
+import UoASCNU.images.Pixel;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the <code>ImageFile</code> hot paths: loading a JPEG or
+ * only its header, iterating over the pixels and saving. Each runs on the
+ * three bundled test images and on synthetic JPEGs of growing size.
+ *
+ * @author Marco A. Palomino
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g", "--add-modules=jdk.incubator.vector,jdk.incubator.foreign"})
+public class ImageFileBenchmark {
+
+    @Param({"bald_eagle.jpg", "cacatua_moluccensis.jpg",
+            "orange_tabby_cat.jpg", "640x480", "1920x1080", "4000x3000"})
+    public String source;
+
+    private Path directory;
+    private File jpeg;
+    private ImageFile image;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("jmh-imagefile");
+        jpeg = SyntheticImages.jpegFor(source, directory);
+        image = new ImageFile(jpeg);
+    } // End of setup()
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        SyntheticImages.delete(directory);
+    } // End of tearDown()
+
+
+    /**
+     * Decodes the JPEG into a new <code>ImageFile</code>.
+     */
+    @Benchmark
+    public ImageFile load() {
+        ImageFile loaded = new ImageFile(jpeg);
+        loaded.load();
+        return loaded;
+    } // End of load()
+
+
+    /**
+     * Reads the width and height of the JPEG from its header, without
+     * decoding its pixels.
+     */
+    @Benchmark
+    public int readHeader() {
+        ImageFile header = new ImageFile(jpeg);
+        return header.getWidth() * header.getHeight();
+    } // End of readHeader()
+
+
+    /**
+     * Visits every pixel through <code>pixels()</code>.
+     */
+    @Benchmark
+    public long iteratePixels() {
+        long sum = 0;
+        for (Pixel pixel : image.pixels()) {
+            sum += pixel.getRed() + pixel.getGreen() + pixel.getBlue();
+        }
+        return sum;
+    } // End of iteratePixels()
+
+
+    /**
+     * Visits every pixel through <code>forEachPixel</code>.
+     */
+    @Benchmark
+    public long forEachPixel() {
+        long[] sum = new long[1];
+        image.forEachPixel(value -> sum[0] += ((value >> 16) & 0xff)
+                + ((value >> 8) & 0xff) + (value & 0xff));
+        return sum[0];
+    } // End of forEachPixel()
+
+
+    /**
+     * Encodes the image back to its JPEG file.
+     */
+    @Benchmark
+    public void save() {
+        image.save();
+    } // End of save()
+} // End of class ImageFileBenchmark
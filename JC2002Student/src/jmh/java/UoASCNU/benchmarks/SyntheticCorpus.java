@@ -0,0 +1,141 @@
+package UoASCNU.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * The <code>SyntheticCorpus</code> class creates the batch of JPEGs the
+ * end-to-end benchmark converts: a given number of images of each size,
+ * their content going round photo-like, gradient and noise. The corpus is
+ * described by its mix and seed, such as
+ * "160x120:24,1920x1080:8,8160x6120:1" and 2002, and the same
+ * description always gives the same files, byte for byte.
+ * <p>
+ * A corpus is written once into its directory, along with a manifest
+ * naming its description, and used again by later runs with the same
+ * description. Its checksum lets two reports show they were measured on
+ * the same files.
+ *
+ * @author Marco A. Palomino
+ */
+final class SyntheticCorpus {
+
+    /**
+     * The mix used when none is given: from thumbnails to one image of
+     * 50 megapixels.
+     */
+    static final String DEFAULT_MIX =
+            "160x120:24,640x480:16,1920x1080:8,4000x3000:4,8160x6120:1";
+
+    private static final String MANIFEST = "corpus.txt";
+
+    private final String mix;
+    private final long seed;
+    private final List<File> files = new ArrayList<>();
+    private long bytes;
+    private long pixels;
+    private long checksum;
+
+    /**
+     * Constructor: Opens the corpus of the given description in a
+     * directory, writing it first if the directory holds another corpus
+     * or none.
+     *
+     * @param directory The directory of the corpus.
+     * @param mix       The sizes and number of images of each, such as
+     *                  "640x480:16,4000x3000:4".
+     * @param seed      The seed of the noise.
+     * @throws IOException If the corpus cannot be written or read.
+     */
+    SyntheticCorpus(Path directory, String mix, long seed) throws IOException {
+        this.mix = mix;
+        this.seed = seed;
+        String description = "mix=" + mix + " seed=" + seed;
+        Path manifest = directory.resolve(MANIFEST);
+        boolean written = Files.exists(manifest)
+                && Files.readString(manifest).strip().equals(description);
+
+        Files.createDirectories(directory);
+        if (!written) {
+            Files.deleteIfExists(manifest);
+        }
+        int index = 0;
+        for (String entry : mix.split(",")) {
+            int colon = entry.indexOf(':');
+            String size = entry.substring(0, colon).strip();
+            int count = Integer.parseInt(entry.substring(colon + 1).strip());
+            int[] dimensions = SyntheticImages.parseSize(size);
+            for (int i = 0; i < count; i++, index++) {
+                String content = SyntheticImages.CONTENTS[
+                        index % SyntheticImages.CONTENTS.length];
+                File file = directory.resolve(String.format(
+                        "%04d-%s-%s.jpg", index, size, content)).toFile();
+                if (!written) {
+                    SyntheticImages.writeJpeg(file, dimensions[0],
+                            dimensions[1], content, seed + index);
+                }
+                files.add(file.getAbsoluteFile());
+                pixels += (long) dimensions[0] * dimensions[1];
+            }
+        }
+        if (!written) {
+            Files.writeString(manifest, description + "\n");
+        }
+
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[1 << 16];
+        for (File file : files) {
+            bytes += file.length();
+            try (InputStream in = Files.newInputStream(file.toPath())) {
+                int read;
+                while ((read = in.read(buffer)) > 0) {
+                    crc.update(buffer, 0, read);
+                }
+            }
+        }
+        checksum = crc.getValue();
+    } // End of constructor
+
+
+    /**
+     * @return The images of the corpus, as absolute paths.
+     */
+    List<File> getFiles() {
+        return files;
+    } // End of getFiles()
+
+
+    /**
+     * @return The size of all the JPEGs of the corpus, in bytes.
+     */
+    long getBytes() {
+        return bytes;
+    } // End of getBytes()
+
+
+    /**
+     * @return The number of pixels of all the images of the corpus.
+     */
+    long getPixels() {
+        return pixels;
+    } // End of getPixels()
+
+
+    /**
+     * Returns the corpus as a JSON object: its description, number of
+     * images, bytes, pixels and the CRC-32 of all its files.
+     *
+     * @return The description as JSON.
+     */
+    String toJson() {
+        return String.format("{\"mix\":\"%s\",\"seed\":%d,\"images\":%d,"
+                        + "\"bytes\":%d,\"pixels\":%d,\"crc32\":\"%08x\"}",
+                mix, seed, files.size(), bytes, pixels, checksum);
+    } // End of toJson()
+} // End of class SyntheticCorpus
@@ -0,0 +1,184 @@
+package UoASCNU.benchmarks;
+
+import UoASCNU.images.ImageFile;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * The <code>SyntheticImages</code> class creates the inputs of the
+ * benchmarks: images of a given size with photo-like content (smooth
+ * gradients plus a little noise, so they compress like photographs), or
+ * copies of the images bundled with the tests. The same seed always gives
+ * the same pixels, so runs can be compared. The end-to-end benchmark also
+ * uses pure gradients, which compress far better than photographs, and
+ * pure noise, which compresses hardly at all.
+ *
+ * @author Marco A. Palomino
+ */
+final class SyntheticImages {
+
+    /**
+     * Where the images bundled with the tests live, relative to the
+     * project directory the benchmarks are run from.
+     */
+    static final Path TEST_IMAGES = Paths.get("src/test/resources/images");
+
+    /**
+     * The kinds of content <code>writeJpeg</code> can fill an image with.
+     */
+    static final String[] CONTENTS = {"photo", "gradient", "noise"};
+
+    private SyntheticImages() {
+    } // End of constructor
+
+
+    /**
+     * Creates an image of the given size with deterministic content.
+     *
+     * @param width  The width of the image.
+     * @param height The height of the image.
+     * @param seed   The seed of the noise.
+     * @return A new image.
+     */
+    static ImageFile create(int width, int height, long seed) {
+        ImageFile image = new ImageFile(width, height);
+        fill(image.getRasterData(), width, height, seed);
+        return image;
+    } // End of create(width, height, seed)
+
+
+    /**
+     * Creates an image from a size written as "WIDTHxHEIGHT".
+     *
+     * @param size The size of the image, for example "1920x1080".
+     * @return A new image.
+     */
+    static ImageFile create(String size) {
+        int[] dimensions = parseSize(size);
+        return create(dimensions[0], dimensions[1], 2002);
+    } // End of create(size)
+
+
+    /**
+     * Returns a JPEG file in the given directory for a benchmark source,
+     * which is either the name of a bundled test image or a size written
+     * as "WIDTHxHEIGHT".
+     *
+     * @param source    The name of the source.
+     * @param directory The directory the file is created in.
+     * @return A JPEG file that can be loaded and overwritten.
+     * @throws IOException If the file cannot be written.
+     */
+    static File jpegFor(String source, Path directory) throws IOException {
+        Path target = directory.resolve(
+                source.endsWith(".jpg") ? source : source + ".jpg");
+        if (source.endsWith(".jpg")) {
+            Files.copy(TEST_IMAGES.resolve(source), target);
+        } else {
+            int[] dimensions = parseSize(source);
+            BufferedImage image = new BufferedImage(dimensions[0],
+                    dimensions[1], BufferedImage.TYPE_INT_RGB);
+            fill(((DataBufferInt) image.getRaster().getDataBuffer()).getData(),
+                    dimensions[0], dimensions[1], 2002);
+            ImageIO.write(image, "jpg", target.toFile());
+        }
+        return target.toFile();
+    } // End of jpegFor(source, directory)
+
+
+    /**
+     * Writes a JPEG of the given size and content, at the default quality
+     * of ImageIO, so the same arguments always give the same file.
+     *
+     * @param file    The file to write.
+     * @param width   The width of the image.
+     * @param height  The height of the image.
+     * @param content One of <code>CONTENTS</code>.
+     * @param seed    The seed of the noise.
+     * @throws IOException If the file cannot be written.
+     */
+    static void writeJpeg(File file, int width, int height, String content,
+                          long seed) throws IOException {
+        BufferedImage image = new BufferedImage(width, height,
+                BufferedImage.TYPE_INT_RGB);
+        int[] raster = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        switch (content) {
+            case "photo":
+                fill(raster, width, height, seed);
+                break;
+            case "gradient":
+                for (int y = 0; y < height; y++) {
+                    for (int x = 0; x < width; x++) {
+                        raster[y * width + x] = ((x * 255 / width) << 16)
+                                | ((y * 255 / height) << 8)
+                                | ((x + y) * 255 / (width + height));
+                    }
+                }
+                break;
+            case "noise":
+                Random random = new Random(seed);
+                for (int i = 0; i < raster.length; i++) {
+                    raster[i] = random.nextInt() & 0xffffff;
+                }
+                break;
+            default:
+                throw new IllegalArgumentException(
+                        "SyntheticImages: Unknown content " + content);
+        }
+        if (!ImageIO.write(image, "jpg", file)) {
+            throw new IOException("SyntheticImages: No JPEG writer");
+        }
+    } // End of writeJpeg(file, width, height, content, seed)
+
+
+    /**
+     * Deletes a directory created for a benchmark and everything in it.
+     *
+     * @param directory The directory to delete.
+     * @throws IOException If it cannot be deleted.
+     */
+    static void delete(Path directory) throws IOException {
+        try (var files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    } // End of delete(directory)
+
+
+    /**
+     * Fills a raster with diagonal gradients and noise.
+     */
+    private static void fill(int[] raster, int width, int height, long seed) {
+        Random random = new Random(seed);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int noise = random.nextInt(16);
+                int red = (x * 255 / width + noise) & 0xff;
+                int green = (y * 255 / height + noise) & 0xff;
+                int blue = ((x + y) * 127 / (width + height) + noise) & 0xff;
+                raster[y * width + x] = (red << 16) | (green << 8) | blue;
+            }
+        }
+    } // End of fill(raster, width, height, seed)
+
+
+    /**
+     * Splits "WIDTHxHEIGHT" into its two numbers.
+     */
+    static int[] parseSize(String size) {
+        int separator = size.indexOf('x');
+        return new int[]{
+                Integer.parseInt(size.substring(0, separator)),
+                Integer.parseInt(size.substring(separator + 1))};
+    } // End of parseSize(size)
+} // End of class SyntheticImages
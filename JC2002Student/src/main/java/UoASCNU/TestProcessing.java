@@ -1,24 +1,313 @@
 package UoASCNU;
 
+import UoASCNU.images.ImageFile;
+import UoASCNU.metrics.ConversionMetrics;
+import UoASCNU.images.RasterCache;
+import UoASCNU.images.RasterPool;
+import UoASCNU.processing.AdmissionScheduler;
+import UoASCNU.processing.BatchResult;
+import UoASCNU.processing.ConversionClient;
+import UoASCNU.processing.ConversionServer;
 import UoASCNU.processing.GrayscaleConverter;
+import UoASCNU.processing.GrayscaleMode;
+import UoASCNU.processing.HotFolderWatcher;
+import UoASCNU.processing.InputDiscovery;
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 
 public class TestProcessing {
     public static void main(String[] args) {
-        if (args.length > 0) {
-            File[] imageFiles = new File[args.length];
-            int counter = 0;
+        List<String> inputs = new ArrayList<>();
+        List<String> lists = new ArrayList<>();
+        String include = null;
+        int window = InputDiscovery.DEFAULT_WINDOW;
+        boolean pipeline = false;
+        boolean metrics = false;
+        String metricsJson = null;
+        String manifest = null;
+        GrayscaleMode mode = GrayscaleMode.AVERAGE;
+        String rasterCache = null;
+        long rasterCacheBytes = RasterCache.DEFAULT_MAX_BYTES;
+        long rasterPoolBytes = -1;
+        int threads = Runtime.getRuntime().availableProcessors();
+        List<File> watchDirectories = new ArrayList<>();
+        String output = ".";
+        String serve = null;
+        String client = null;
+        int maxQueued = 64;
+        long memoryBudget = -1;
 
-            // Iterating over the args array using a for
-            // each loop.
-            for (String argument : args) {
-                imageFiles[counter++] = new File(argument);
+        // Iterating over the args array using a for
+        // each loop. Arguments starting with "--" are options,
+        // everything else is an image file, a directory to walk,
+        // or "-" for a list of images on standard input.
+        for (String argument : args) {
+            if (argument.equals("--pipeline")) {
+                pipeline = true;
+            } else if (argument.equals("--verbose")) {
+                ImageFile.setVerbose(true);
+            } else if (argument.equals("--metrics")) {
+                metrics = true;
+            } else if (argument.startsWith("--metrics-json=")) {
+                metricsJson = argument.substring("--metrics-json=".length());
+            } else if (argument.startsWith("--incremental=")) {
+                manifest = argument.substring("--incremental=".length());
+            } else if (argument.startsWith("--mode=")) {
+                mode = GrayscaleMode.forName(
+                        argument.substring("--mode=".length()));
+            } else if (argument.startsWith("--raster-cache=")) {
+                rasterCache = argument.substring("--raster-cache=".length());
+            } else if (argument.startsWith("--raster-cache-mb=")) {
+                rasterCacheBytes = Long.parseLong(argument.substring(
+                        "--raster-cache-mb=".length())) << 20;
+            } else if (argument.startsWith("--raster-pool-mb=")) {
+                rasterPoolBytes = Long.parseLong(argument.substring(
+                        "--raster-pool-mb=".length())) << 20;
+            } else if (argument.startsWith("--threads=")) {
+                threads = Integer.parseInt(
+                        argument.substring("--threads=".length()));
+            } else if (argument.startsWith("--watch=")) {
+                watchDirectories.add(new File(
+                        argument.substring("--watch=".length())));
+            } else if (argument.startsWith("--output=")) {
+                output = argument.substring("--output=".length());
+            } else if (argument.startsWith("--serve=")) {
+                serve = argument.substring("--serve=".length());
+            } else if (argument.startsWith("--max-queued=")) {
+                maxQueued = Integer.parseInt(
+                        argument.substring("--max-queued=".length()));
+            } else if (argument.startsWith("--client=")) {
+                client = argument.substring("--client=".length());
+            } else if (argument.startsWith("--memory-budget-mb=")) {
+                memoryBudget = Long.parseLong(argument.substring(
+                        "--memory-budget-mb=".length())) << 20;
+            } else if (argument.startsWith("--list=")) {
+                lists.add(argument.substring("--list=".length()));
+            } else if (argument.startsWith("--include=")) {
+                include = argument.substring("--include=".length());
+            } else if (argument.startsWith("--window=")) {
+                window = Integer.parseInt(
+                        argument.substring("--window=".length()));
+            } else if (argument.equals("-")) {
+                lists.add(argument);
+            } else {
+                inputs.add(argument);
             }
+        }
 
-            GrayscaleConverter.convertAndSave(imageFiles);
-        } else
+        // The images are found while the first ones are converted
+        InputDiscovery imageFiles = new InputDiscovery(window);
+        imageFiles.setInclude(include);
+        for (String input : inputs) {
+            File file = new File(input);
+            if (file.isDirectory()) {
+                imageFiles.addDirectory(file);
+            } else {
+                imageFiles.addFile(file);
+            }
+        }
+        for (String list : lists) {
+            try {
+                imageFiles.addList(new File(list));
+            } catch (IOException e) {
+                System.err.println("Unable to read list " + list);
+            }
+        }
+
+        if (rasterCache != null) {
+            try {
+                ImageFile.setRasterCache(
+                        new RasterCache(new File(rasterCache), rasterCacheBytes));
+            } catch (IOException e) {
+                System.err.println("Unable to use raster cache " + rasterCache);
+            }
+        }
+
+        // Images of the same size reuse each other's pixel arrays, unless
+        // turned off with --raster-pool-mb=0. By default the pool takes no
+        // more than a quarter of the heap
+        if (rasterPoolBytes < 0) {
+            rasterPoolBytes = RasterPool.defaultMaxBytes(
+                    Runtime.getRuntime().maxMemory());
+        }
+        if (rasterPoolBytes > 0) {
+            ImageFile.setRasterPool(new RasterPool(rasterPoolBytes));
+        }
+
+        if (client != null) {
+            if (!send(client, imageFiles, new File(output), mode)) {
+                System.exit(1);
+            }
+            return;
+        }
+
+        if (serve != null) {
+            serve(serve, threads, maxQueued, metrics);
+            return;
+        }
+
+        if (!watchDirectories.isEmpty()) {
+            watch(watchDirectories, new File(output), threads, mode, metrics);
+            return;
+        }
+
+        if (!imageFiles.hasSources()) {
             // Print statements
             System.out.println(
                     "No command line arguments found.");
+        } else if (manifest != null) {
+            BatchResult result = GrayscaleConverter.convertAndSaveIncremental(
+                    imageFiles, new File(manifest), mode);
+            System.out.println(result);
+        } else if (pipeline) {
+            // Images are admitted against three quarters of the heap left
+            // beside the raster pool, and at least a quarter of the heap,
+            // unless set with --memory-budget-mb, or turned off with
+            // --memory-budget-mb=0
+            if (memoryBudget < 0) {
+                memoryBudget = AdmissionScheduler.defaultBudget(
+                        Runtime.getRuntime().maxMemory(), rasterPoolBytes);
+            }
+            AdmissionScheduler scheduler = memoryBudget >= 1024
+                    ? new AdmissionScheduler(memoryBudget) : null;
+            if (scheduler == null && memoryBudget != 0) {
+                System.err.println("Memory budget of " + memoryBudget
+                        + " bytes is too small, images are not admitted"
+                        + " against a budget");
+            }
+            BatchResult result = GrayscaleConverter.convertAndSave(
+                    imageFiles, threads, mode, scheduler);
+            System.out.println(result);
+        } else {
+            GrayscaleConverter.convertAndSave(imageFiles, mode);
+        }
+        for (String error : imageFiles.getErrors()) {
+            System.err.println(error);
+        }
+
+        if (metrics) {
+            System.out.println(ConversionMetrics.global().summary());
+        }
+        if (metricsJson != null) {
+            try {
+                Files.writeString(Paths.get(metricsJson),
+                        ConversionMetrics.global().toJson());
+            } catch (IOException e) {
+                System.err.println("Unable to write metrics to " + metricsJson);
+            }
+        }
     } // End of main
+
+
+    /**
+     * Converts images as they arrive in the given directories until the
+     * program is stopped, for example by SIGTERM or Ctrl-C, then waits for
+     * the images being converted to be saved.
+     *
+     * @param directories The directories to watch.
+     * @param output      The directory the grayscale images are saved to.
+     * @param threads     The number of images converted at a time.
+     * @param mode        How colours are turned into gray levels.
+     * @param metrics     Whether to print the stage metrics when stopped.
+     */
+    private static void watch(List<File> directories, File output,
+                              int threads, GrayscaleMode mode,
+                              boolean metrics) {
+        HotFolderWatcher watcher;
+        try {
+            watcher = new HotFolderWatcher(directories, output, threads);
+        } catch (IOException e) {
+            System.err.println("Unable to watch " + directories + ": "
+                    + e.getMessage());
+            return;
+        }
+        watcher.setMode(mode);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            watcher.close();
+            System.out.println(watcher.getResult());
+            if (metrics) {
+                System.out.println(ConversionMetrics.global().summary());
+            }
+        }));
+        watcher.start();
+        System.out.println("Watching " + directories + ", saving to "
+                + output.getAbsolutePath());
+        try {
+            watcher.awaitClose();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    } // End of watch(directories, output, threads, mode, metrics)
+
+
+    /**
+     * Converts images for other programs, which send requests to the given
+     * Unix domain socket, until the program is stopped, for example by
+     * SIGTERM or Ctrl-C, then waits for the requests already accepted to
+     * be replied to.
+     *
+     * @param socket    The file of the socket.
+     * @param threads   The number of images converted at a time.
+     * @param maxQueued The number of requests that may wait for a thread.
+     * @param metrics   Whether to print the stage metrics when stopped.
+     */
+    private static void serve(String socket, int threads, int maxQueued,
+                              boolean metrics) {
+        ConversionServer server =
+                new ConversionServer(Paths.get(socket), threads, maxQueued);
+        try {
+            server.start();
+        } catch (IOException e) {
+            System.err.println("Unable to listen on " + socket + ": "
+                    + e.getMessage());
+            return;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.close();
+            System.out.println(server.summary());
+            if (metrics) {
+                System.out.println(ConversionMetrics.global().summary());
+            }
+        }));
+        System.out.println("Listening on " + server.getSocketPath());
+        try {
+            server.awaitClose();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    } // End of serve(socket, threads, maxQueued, metrics)
+
+
+    /**
+     * Asks the server listening on the given socket to convert images,
+     * printing its reply for each.
+     *
+     * @param socket The file of the socket.
+     * @param files  The images to convert.
+     * @param output The directory the grayscale images are saved to.
+     * @param mode   How colours are turned into gray levels.
+     * @return Whether every image was converted.
+     */
+    private static boolean send(String socket, Iterable<File> files, File output,
+                                GrayscaleMode mode) {
+        boolean allConverted = true;
+        try (ConversionClient client = new ConversionClient(Paths.get(socket))) {
+            for (File file : files) {
+                String reply = client.convert(file,
+                        new File(output, "gray-" + file.getName()),
+                        "mode=" + mode.getModeName());
+                System.out.println(file + "\t" + reply);
+                allConverted &= reply.startsWith("OK");
+            }
+        } catch (IOException e) {
+            System.err.println("Unable to reach the server on " + socket
+                    + ": " + e.getMessage());
+            return false;
+        }
+        return allConverted;
+    } // End of send(socket, files, output, mode)
 } // End of class TestProcessing
@@ -0,0 +1,128 @@
+package UoASCNU.images;
+
+import javax.imageio.stream.ImageOutputStreamImpl;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The <code>ChannelImageOutputStream</code> class is an ImageIO output
+ * stream that writes straight to a <code>FileChannel</code> through a
+ * buffer of its own. Unlike the streams <code>ImageIO</code> creates, it
+ * needs no service registry lookup, no cache file and no in-memory copy of
+ * the whole output. Seeking back, which some writers do to patch headers,
+ * is done with positional writes.
+ *
+ * @author Marco A. Palomino
+ */
+final class ChannelImageOutputStream extends ImageOutputStreamImpl {
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+
+    // The position in the file of the first byte in the buffer
+    private long bufferStart = 0;
+
+    /**
+     * Constructor: Creates a stream writing to the given channel from its
+     * start. The channel is closed with the stream.
+     *
+     * @param channel    The channel written to.
+     * @param bufferSize The size of the buffer in bytes.
+     */
+    ChannelImageOutputStream(FileChannel channel, int bufferSize) {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocate(bufferSize);
+    } // End of constructor
+
+
+    @Override
+    public void write(int b) throws IOException {
+        checkClosed();
+        flushBits();
+        prepareWrite();
+        buffer.put((byte) b);
+        streamPos++;
+    } // End of write(b)
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        checkClosed();
+        flushBits();
+        while (len > 0) {
+            prepareWrite();
+            int count = Math.min(len, buffer.remaining());
+            buffer.put(b, off, count);
+            off += count;
+            len -= count;
+            streamPos += count;
+        }
+    } // End of write(b, off, len)
+
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+    } // End of read()
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        checkClosed();
+        bitOffset = 0;
+        drain();
+        int read = channel.read(ByteBuffer.wrap(b, off, len), streamPos);
+        if (read > 0) {
+            streamPos += read;
+        }
+        return read;
+    } // End of read(b, off, len)
+
+
+    @Override
+    public long length() {
+        try {
+            return Math.max(channel.size(), bufferStart + buffer.position());
+        } catch (IOException e) {
+            return -1;
+        }
+    } // End of length()
+
+
+    @Override
+    public void close() throws IOException {
+        try {
+            drain();
+        } finally {
+            super.close();
+            channel.close();
+        }
+    } // End of close()
+
+
+    /**
+     * Makes sure the buffer continues at the stream position and has room
+     * for at least one more byte.
+     */
+    private void prepareWrite() throws IOException {
+        if (streamPos != bufferStart + buffer.position()) {
+            drain();
+            bufferStart = streamPos;
+        }
+        if (!buffer.hasRemaining()) {
+            drain();
+        }
+    } // End of prepareWrite()
+
+
+    /**
+     * Writes out whatever is in the buffer.
+     */
+    private void drain() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            bufferStart += channel.write(buffer, bufferStart);
+        }
+        buffer.clear();
+    } // End of drain()
+} // End of class ChannelImageOutputStream
@@ -0,0 +1,81 @@
+package UoASCNU.images;
+
+import java.util.function.IntConsumer;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * The <code>GrayPixelBuffer</code> class holds pixels as an array of 8-bit
+ * gray levels, one byte per pixel. It is the storage of grayscale images.
+ * <p>
+ * A gray level reads as a colour whose red, green and blue components are
+ * all that level. A colour written to the buffer is stored as the integer
+ * average of its red, green and blue components, which is how
+ * <code>GrayscaleConverter.makeGray</code> turns colours to gray.
+ *
+ * @author Marco A. Palomino
+ */
+final class GrayPixelBuffer extends PixelBuffer {
+
+    private final byte[] data;
+
+    /**
+     * Constructor: Creates a buffer over the given array.
+     *
+     * @param data The gray levels of the pixels.
+     */
+    GrayPixelBuffer(byte[] data) {
+        this.data = data;
+    } // End of constructor
+
+
+    /**
+     * Returns the array holding the pixels.
+     *
+     * @return The gray levels of the pixels.
+     */
+    byte[] getData() {
+        return data;
+    } // End of getData()
+
+
+    @Override
+    long size() {
+        return data.length;
+    } // End of size()
+
+
+    @Override
+    boolean isGray() {
+        return true;
+    } // End of isGray()
+
+
+    @Override
+    int get(long index) {
+        return (data[(int) index] & 0xff) * 0x010101;
+    } // End of get(index)
+
+
+    @Override
+    void set(long index, int value) {
+        int sum = ((value >> 16) & 0xff) + ((value >> 8) & 0xff)
+                + (value & 0xff);
+        data[(int) index] = (byte) (sum / 3);
+    } // End of set(index, value)
+
+
+    @Override
+    void forEach(IntConsumer action) {
+        for (byte level : data) {
+            action.accept((level & 0xff) * 0x010101);
+        }
+    } // End of forEach(action)
+
+
+    @Override
+    void map(IntUnaryOperator operator) {
+        for (int i = 0; i < data.length; i++) {
+            set(i, operator.applyAsInt((data[i] & 0xff) * 0x010101));
+        }
+    } // End of map(operator)
+} // End of class GrayPixelBuffer
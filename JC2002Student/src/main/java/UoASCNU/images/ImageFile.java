@@ -1,12 +1,37 @@
 package UoASCNU.images;
 
+import UoASCNU.metrics.ConversionMetrics;
+import UoASCNU.metrics.Stage;
+import UoASCNU.metrics.StageTimer;
+
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageInputStream;
+import org.w3c.dom.NodeList;
 import java.awt.*;
+import java.awt.color.ColorSpace;
 import java.awt.image.BufferedImage;
-import java.awt.image.ImageObserver;
-import java.awt.image.PixelGrabber;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
 import java.io.File;
+import java.io.IOException;
 import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.IntConsumer;
+import java.util.function.IntUnaryOperator;
 
 
 /**
@@ -14,6 +39,56 @@ import java.util.Arrays;
  * <code>Pixel</code> objects which allows access to all of them, using
  * the method <code>pixels</code>. These pixels can then be iterated over
  * using a <code>for</code> loop.
+ * <p>
+ * The pixels are stored as a single array of packed ARGB integers, one per
+ * pixel in row-major order. The <code>Pixel</code> objects handed out by
+ * <code>getPixel</code> and <code>pixels</code> are views over that array,
+ * created on demand, so an image costs four bytes per pixel.
+ * <p>
+ * That array is the <code>DataBufferInt</code> of a
+ * <code>TYPE_INT_RGB</code> BufferedImage. A decoded image of any other
+ * type is redrawn into one once, when it is loaded; after that the pixels
+ * are read and written in place and the same BufferedImage is encoded by
+ * <code>save</code>, so an image never holds more than one copy of its
+ * pixels.
+ * <p>
+ * A grayscale image, created with the <code>TYPE_BYTE_GRAY</code> image
+ * type, holds one byte per pixel instead, in the
+ * <code>DataBufferByte</code> of a <code>TYPE_BYTE_GRAY</code>
+ * BufferedImage, and is saved as a single-channel image. Its pixels are
+ * read and written through the same <code>Pixel</code> views.
+ * <p>
+ * When a <code>RasterCache</code> is set with <code>setRasterCache</code>,
+ * images loaded from files are kept in it once decoded, and an image found
+ * there is mapped from the cache rather than decoded again. The pixels of
+ * such an image stay in the mapped file instead of a Java array, so
+ * <code>getRasterData</code> returns null for it; they are read and
+ * written through <code>getPixel</code>, <code>pixels</code>,
+ * <code>getRow</code> and <code>setRow</code> as usual.
+ * <p>
+ * An image created with <code>offHeap</code> holds its pixels in native
+ * memory outside the Java heap instead, so it can be larger than the heap
+ * and, as its pixels are indexed with <code>long</code> positions, have
+ * more pixels than a Java array can hold. Its memory is freed when
+ * <code>close</code> is called; the memory of other images is left to the
+ * garbage collector and <code>close</code> does nothing for them. Off-heap
+ * images need the <code>jdk.incubator.foreign</code> module (with
+ * <code>--add-modules jdk.incubator.foreign</code>).
+ * <p>
+ * When a <code>RasterPool</code> is set with <code>setRasterPool</code>,
+ * images decoded from files and blank images take their pixel arrays from
+ * it, and <code>close</code> gives them back, so a batch of images of the
+ * same size reuses the same few arrays instead of allocating new ones.
+ * The decoder writes into pooled arrays as well, where it allows it.
+ * <p>
+ * An image created from a file only reads the header of the file at
+ * first, which gives its width, height and format. Its pixels are decoded
+ * when they are first needed, by <code>getPixel</code>, <code>pixels</code>,
+ * <code>getRow</code>, <code>save</code> and the like, or when
+ * <code>load</code> is called. Planning a batch or turning away images
+ * that are too large therefore costs a few reads of each file rather than
+ * a decode. A file that is not an image is reported straight away, but
+ * one whose pixel data is damaged only when its pixels are decoded.
  *
  * @author Marco Palomino
  *
@@ -23,10 +98,38 @@ import java.util.Arrays;
  * The ImageFile class represents an image file with its pixel data, file details, 
  * and dimensions. It uses a BufferedImage to manage image data.
  */
-public class ImageFile {
-    private Pixel[] myPixels;
+public class ImageFile implements AutoCloseable {
+    // Whether to print the size of every image created
+    private static volatile boolean verbose = false;
+
+    // Where decoded images are kept, or null to always decode
+    private static volatile RasterCache rasterCache;
+
+    // Where pixel arrays are taken from and given back to, or null to
+    // allocate new ones for every image
+    private static volatile RasterPool rasterPool;
+
+    // Whether the Foreign Memory API can be used in this JVM
+    private static final boolean OFF_HEAP_AVAILABLE = ModuleLayer.boot()
+            .findModule("jdk.incubator.foreign").isPresent();
+
+    // Null until the pixels of an image read from a file are decoded
+    private volatile PixelBuffer myRaster;
     private BufferedImage myImage;
 
+    // Where the pixels are decoded from when they are first needed
+    private File mySource;
+    private int mySubsampling;
+    private int myMaxWidth;
+    private int myMaxHeight;
+    private String myFormatName;
+
+    // The pool the pixel array came from and goes back to on close, if any
+    private RasterPool myPool;
+
+    // How the image is encoded when it is saved
+    private SaveOptions mySaveOptions = new SaveOptions();
+
     // The file name info or empty if no file yet
     private String myFileName;
     private String myPath;
@@ -36,7 +139,8 @@ public class ImageFile {
 
     /**
      * Constructor: Creates an <code>ImageFile</code> object from a file
-     * given as a parameter.
+     * given as a parameter. Only the header of the file is read here; the
+     * pixels are decoded when they are first needed.
      *
      * @param file A file which we will use to create a new image.
      */
@@ -44,29 +148,420 @@ public class ImageFile {
         init(file);
     } // End of Constructor
 
+    /**
+     * Constructor: Creates a reduced <code>ImageFile</code> from a file,
+     * keeping one pixel out of every <code>subsampling</code> in each
+     * direction. The decoder skips the other pixels, so the memory used
+     * grows with the size of the reduced image, not of the original.
+     *
+     * @param file        A file which we will use to create a new image.
+     * @param subsampling How many pixels of the original, across and down,
+     *                    make up one pixel of the image; 1 keeps them all.
+     */
+    public ImageFile(File file, int subsampling) {
+        if (subsampling <= 0) {
+            throw new RuntimeException(
+                    "ImageFile: Subsampling must be positive ["
+                            + subsampling + "]");
+        }
+        init(file, subsampling, 0, 0);
+    } // End of Constructor
+
     public ImageFile(int width, int height) {
+        this(width, height, BufferedImage.TYPE_INT_RGB);
+    } // End of Constructor
+
+    /**
+     * Constructor: Creates a black image of the given size and type.
+     * <code>TYPE_INT_RGB</code> images hold four bytes per pixel, while
+     * <code>TYPE_BYTE_GRAY</code> images hold a single gray level of one
+     * byte per pixel and are saved as single-channel images.
+     *
+     * @param width     The width of the image.
+     * @param height    The height of the image.
+     * @param imageType Either <code>BufferedImage.TYPE_INT_RGB</code> or
+     *                  <code>BufferedImage.TYPE_BYTE_GRAY</code>.
+     */
+    public ImageFile(int width, int height, int imageType) {
         if (width <= 0 || height <= 0) {
             throw new RuntimeException(
                     "ImageFile: Width and height values must be positive ["
                             + width + "x" + height + "]");
+        } else if (imageType != BufferedImage.TYPE_INT_RGB
+                && imageType != BufferedImage.TYPE_BYTE_GRAY) {
+            throw new RuntimeException(
+                    "ImageFile: Unsupported image type " + imageType);
         } else {
             this.width = width;
             this.height = height;
-            init("", getBlankImage(width, height));
+            init("", getBlankImage(width, height, imageType));
         }
     } // End of Constructor
 
 
+    /**
+     * Creates a reduced <code>ImageFile</code> from a file, no wider and no
+     * taller than the given size. The image is subsampled by the smallest
+     * whole factor that makes it fit, so it may come out smaller still;
+     * an image that already fits is loaded in full.
+     *
+     * @param file      A file which we will use to create a new image.
+     * @param maxWidth  The largest width wanted.
+     * @param maxHeight The largest height wanted.
+     * @return A new image that fits within the given size.
+     */
+    public static ImageFile fitWithin(File file, int maxWidth, int maxHeight) {
+        if (maxWidth <= 0 || maxHeight <= 0) {
+            throw new RuntimeException(
+                    "ImageFile: Width and height values must be positive ["
+                            + maxWidth + "x" + maxHeight + "]");
+        }
+        ImageFile image = new ImageFile();
+        image.init(file, 0, maxWidth, maxHeight);
+        return image;
+    } // End of fitWithin(file, maxWidth, maxHeight)
+
+
+    /**
+     * Creates a black image of the given size and type whose pixels are
+     * held in native memory outside the Java heap. The memory is freed by
+     * <code>close</code>, which must be called once the image is no longer
+     * needed, for example with try-with-resources.
+     *
+     * @param width     The width of the image.
+     * @param height    The height of the image.
+     * @param imageType Either <code>BufferedImage.TYPE_INT_RGB</code> or
+     *                  <code>BufferedImage.TYPE_BYTE_GRAY</code>.
+     * @return A new off-heap image.
+     */
+    public static ImageFile offHeap(int width, int height, int imageType) {
+        if (width <= 0 || height <= 0) {
+            throw new RuntimeException(
+                    "ImageFile: Width and height values must be positive ["
+                            + width + "x" + height + "]");
+        } else if (imageType != BufferedImage.TYPE_INT_RGB
+                && imageType != BufferedImage.TYPE_BYTE_GRAY) {
+            throw new RuntimeException(
+                    "ImageFile: Unsupported image type " + imageType);
+        }
+        ImageFile image = new ImageFile();
+        image.initOffHeap("", newOffHeapBuffer((long) width * height,
+                imageType == BufferedImage.TYPE_BYTE_GRAY), width, height);
+        return image;
+    } // End of offHeap(width, height, imageType)
+
+
+    /**
+     * Creates an image from a file whose pixels are held in native memory
+     * outside the Java heap, like <code>offHeap(width, height,
+     * imageType)</code>. Where the decoder allows it, as the JPEG decoder
+     * does, the file is decoded straight into that memory, so the image
+     * never takes room on the heap; otherwise it is decoded as usual and
+     * then moved off the heap.
+     *
+     * @param file A file which we will use to create a new image.
+     * @return A new off-heap colour image.
+     */
+    public static ImageFile offHeap(File file) {
+        ImageFile image = new ImageFile();
+        PixelBuffer buffer = null;
+        StageTimer timer = ConversionMetrics.start(Stage.DECODE);
+        try {
+            String path = file.getCanonicalPath();
+            try (ImageInputStream input = ImageIO.createImageInputStream(
+                    new File(path))) {
+                ImageReader reader = readerFor(input, path);
+                try {
+                    int w = reader.getWidth(0);
+                    int h = reader.getHeight(0);
+                    buffer = newOffHeapBuffer((long) w * h, false);
+                    ImageReadParam param = reader.getDefaultReadParam();
+                    param.setDestination(imageOver(buffer, w, h));
+                    try {
+                        reader.read(0, param);
+                    } catch (IllegalArgumentException e) {
+                        // The decoder cannot write into this kind of image,
+                        // for example because the file has a palette
+                        BufferedImage decoded = toIntRgb(ImageIO.read(
+                                new File(path)));
+                        buffer.setRow(0, rasterOf(decoded), 0, w * h);
+                    }
+                    image.initOffHeap(path, buffer, w, h);
+                    timer.stop(path, w, h, file.length());
+                    return image;
+                } finally {
+                    reader.dispose();
+                }
+            }
+        } catch (Exception e) {
+            timer.fail();
+            if (buffer != null) {
+                buffer.close();
+            }
+            throw new RuntimeException(
+                    "ImageFile: Unable to find " + file, e);
+        }
+    } // End of offHeap(file)
+
+
+    /**
+     * Creates a grayscale image from the luma of a JPEG file, without
+     * converting its pixels to colour. A JPEG stores the luma of every
+     * pixel, its Y component, beside two chroma components; the Y
+     * component is taken as it is, and the chroma is neither upsampled nor
+     * converted to RGB. The result is a <code>TYPE_BYTE_GRAY</code> image,
+     * over an array from the raster pool if one is set.
+     * <p>
+     * Y is 0.299 r + 0.587 g + 0.114 b, so the result is the
+     * <code>BT601</code> gray level of the colours the file holds. It can
+     * differ by a few levels from the <code>BT601</code> gray level of the
+     * decoded colours, which have been through chroma upsampling and
+     * clipping to the RGB range; more where the colours are saturated or
+     * change sharply.
+     * <p>
+     * Only baseline or progressive 8-bit JPEGs in YCbCr, or in gray, whose
+     * colours are sRGB are read this way. For any other file, such as a
+     * PNG, a JPEG stored as RGB or CMYK, or one with a colour profile other
+     * than sRGB, null is returned and the file can be read as usual.
+     *
+     * @param file A file which we will use to create a new image.
+     * @return A new grayscale image, or null if the luma of the file
+     * cannot be read directly.
+     * @throws RuntimeException If the file is not an image, or is a
+     *                          damaged JPEG.
+     */
+    public static ImageFile lumaOf(File file) {
+        StageTimer timer = null;
+        BufferedImage gray = null;
+        RasterPool pool = rasterPool;
+        try {
+            String path = file.getCanonicalPath();
+            try (ImageInputStream input = ImageIO.createImageInputStream(
+                    new File(path))) {
+                ImageReader reader = readerFor(input, path);
+                try {
+                    if (!hasLuma(reader)) {
+                        return null;
+                    }
+                    timer = ConversionMetrics.start(Stage.DECODE);
+                    // The components as stored: Y, Cb, Cr, or Y alone
+                    Raster raw = reader.readRaster(0, null);
+                    int w = raw.getWidth();
+                    int h = raw.getHeight();
+                    gray = pool != null
+                            ? pooledImage(pool, w, h, BufferedImage.TYPE_BYTE_GRAY)
+                            : new BufferedImage(w, h, BufferedImage.TYPE_BYTE_GRAY);
+                    copyBand(raw, ((DataBufferByte) gray.getRaster()
+                            .getDataBuffer()).getData());
+                    ImageFile image = new ImageFile();
+                    image.init("", gray);
+                    image.myPool = pool;
+                    image.myFormatName = reader.getFormatName();
+                    timer.stop(path, w, h, file.length());
+                    return image;
+                } finally {
+                    reader.dispose();
+                }
+            }
+        } catch (Exception e) {
+            if (timer != null) {
+                timer.fail();
+            }
+            if (gray != null && pool != null) {
+                pool.release(((DataBufferByte) gray.getRaster()
+                        .getDataBuffer()).getData());
+            }
+            throw new RuntimeException(
+                    "ImageFile: Unable to read the luma of " + file, e);
+        }
+    } // End of lumaOf(file)
+
+
+    /**
+     * Tells whether the first band of the raw raster of an image is its
+     * luma: the image must be an 8-bit sRGB JPEG in YCbCr, as stated by a
+     * JFIF marker, an Adobe marker with transform 1, or by having neither
+     * and components not named R, G and B, the way the decoder itself
+     * decides; or a gray JPEG.
+     *
+     * @param reader A reader pointed at the file.
+     * @return True if the file can be read by <code>lumaOf</code>.
+     * @throws IOException If the header of the file cannot be read.
+     */
+    private static boolean hasLuma(ImageReader reader) throws IOException {
+        if (!reader.getFormatName().equalsIgnoreCase("jpeg")
+                || !reader.canReadRaster()) {
+            return false;
+        }
+        ImageTypeSpecifier type = reader.getRawImageType(0);
+        if (type == null
+                || type.getSampleModel().getDataType() != DataBuffer.TYPE_BYTE) {
+            return false;
+        }
+        ColorSpace space = type.getColorModel().getColorSpace();
+        if (type.getNumBands() == 1) {
+            return space.getType() == ColorSpace.TYPE_GRAY;
+        }
+        if (type.getNumBands() != 3 || !space.isCS_sRGB()) {
+            return false;
+        }
+        IIOMetadataNode tree = (IIOMetadataNode) reader.getImageMetadata(0)
+                .getAsTree("javax_imageio_jpeg_image_1.0");
+        if (tree.getElementsByTagName("app0JFIF").getLength() > 0) {
+            return true;
+        }
+        NodeList adobe = tree.getElementsByTagName("app14Adobe");
+        if (adobe.getLength() > 0) {
+            return "1".equals(((IIOMetadataNode) adobe.item(0))
+                    .getAttribute("transform"));
+        }
+        NodeList components =
+                tree.getElementsByTagName("componentSpec");
+        StringBuilder names = new StringBuilder();
+        for (int i = 0; i < components.getLength(); i++) {
+            names.append((char) Integer.parseInt(((IIOMetadataNode)
+                    components.item(i)).getAttribute("componentId")));
+        }
+        return !names.toString().equals("RGB");
+    } // End of hasLuma(reader)
+
+
+    /**
+     * Copies the first band of an 8-bit raster into an array, a row after
+     * another.
+     *
+     * @param raster The raster.
+     * @param band   The array, holding a byte per pixel of the raster.
+     */
+    private static void copyBand(Raster raster, byte[] band) {
+        int w = raster.getWidth();
+        int h = raster.getHeight();
+        SampleModel model = raster.getSampleModel();
+        DataBuffer data = raster.getDataBuffer();
+        if (model instanceof ComponentSampleModel
+                && data instanceof DataBufferByte) {
+            ComponentSampleModel components = (ComponentSampleModel) model;
+            byte[] samples = ((DataBufferByte) data).getData();
+            int stride = components.getPixelStride();
+            for (int y = 0; y < h; y++) {
+                int from = data.getOffset() + components.getOffset(
+                        raster.getMinX() - raster.getSampleModelTranslateX(),
+                        raster.getMinY() - raster.getSampleModelTranslateY() + y,
+                        0);
+                int to = y * w;
+                for (int x = 0; x < w; x++) {
+                    band[to + x] = samples[from + x * stride];
+                }
+            }
+            return;
+        }
+        int[] row = new int[w];
+        for (int y = 0; y < h; y++) {
+            raster.getSamples(raster.getMinX(), raster.getMinY() + y, w, 1,
+                    0, row);
+            for (int x = 0; x < w; x++) {
+                band[y * w + x] = (byte) row[x];
+            }
+        }
+    } // End of copyBand(raster, band)
+
+
+    /**
+     * Allocates off-heap storage, checking first that the Foreign Memory
+     * API can be used.
+     *
+     * @param size The number of pixels.
+     * @param gray Whether to hold one gray byte per pixel.
+     * @return The new storage.
+     */
+    private static PixelBuffer newOffHeapBuffer(long size, boolean gray) {
+        if (!OFF_HEAP_AVAILABLE) {
+            throw new RuntimeException(
+                    "ImageFile: Off-heap images need"
+                            + " --add-modules jdk.incubator.foreign");
+        }
+        return new OffHeapPixelBuffer(size, gray);
+    } // End of newOffHeapBuffer(size, gray)
+
+
+    /**
+     * Constructor: Creates an empty <code>ImageFile</code> for a factory
+     * method to initialise.
+     */
+    private ImageFile() {
+    } // End of Constructor
+
+
     /**
      * Creates an image of width w and height h with black pixels.
      *
-     * @param width  The width of the image
-     * @param height The height of the image
+     * @param width     The width of the image
+     * @param height    The height of the image
+     * @param imageType The type of the BufferedImage
      * @return An image of width w and height h with black pixels.
      */
-    private BufferedImage getBlankImage(int width, int height) {
-        return new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-    } // End of getBlankImage(width, height)
+    private BufferedImage getBlankImage(int width, int height, int imageType) {
+        RasterPool pool = rasterPool;
+        if (pool == null) {
+            return new BufferedImage(width, height, imageType);
+        }
+        BufferedImage image = pooledImage(pool, width, height, imageType);
+        DataBuffer data = image.getRaster().getDataBuffer();
+        if (data instanceof DataBufferByte) {
+            Arrays.fill(((DataBufferByte) data).getData(), (byte) 0);
+        } else {
+            Arrays.fill(((DataBufferInt) data).getData(), 0);
+        }
+        myPool = pool;
+        return image;
+    } // End of getBlankImage(width, height, imageType)
+
+
+    /**
+     * Creates an image over an array taken from a pool. The array still
+     * holds whatever its last image left in it.
+     *
+     * @param pool      The pool the array is taken from.
+     * @param width     The width of the image.
+     * @param height    The height of the image.
+     * @param imageType <code>BufferedImage.TYPE_INT_RGB</code>,
+     *                  <code>BufferedImage.TYPE_BYTE_GRAY</code> or
+     *                  <code>BufferedImage.TYPE_3BYTE_BGR</code>.
+     * @return An image of the given type over the pooled array.
+     */
+    private static BufferedImage pooledImage(RasterPool pool, int width,
+                                             int height, int imageType) {
+        int size = Math.multiplyExact(width, height);
+        if (imageType == BufferedImage.TYPE_3BYTE_BGR) {
+            int length = Math.multiplyExact(size, 3);
+            ColorModel colorModel = new ComponentColorModel(
+                    ColorSpace.getInstance(ColorSpace.CS_sRGB), false, false,
+                    ColorModel.OPAQUE, DataBuffer.TYPE_BYTE);
+            return new BufferedImage(colorModel,
+                    Raster.createInterleavedRaster(
+                            new DataBufferByte(pool.borrowBytes(length), length),
+                            width, height, 3 * width, 3, new int[] {2, 1, 0},
+                            null),
+                    false, null);
+        }
+        if (imageType == BufferedImage.TYPE_BYTE_GRAY) {
+            ColorModel colorModel = new ComponentColorModel(
+                    ColorSpace.getInstance(ColorSpace.CS_GRAY), false, false,
+                    ColorModel.OPAQUE, DataBuffer.TYPE_BYTE);
+            return new BufferedImage(colorModel,
+                    Raster.createInterleavedRaster(
+                            new DataBufferByte(pool.borrowBytes(size), size),
+                            width, height, width, 1, new int[] {0}, null),
+                    false, null);
+        }
+        int[] masks = {0xff0000, 0xff00, 0xff};
+        return new BufferedImage(
+                new DirectColorModel(24, masks[0], masks[1], masks[2]),
+                Raster.createPackedRaster(
+                        new DataBufferInt(pool.borrowInts(size), size),
+                        width, height, width, masks, null),
+                false, null);
+    } // End of pooledImage(pool, width, height, imageType)
 
 
     /**
@@ -86,31 +581,113 @@ public class ImageFile {
      * @return The image's height in pixels.
      */
     public int getHeight() {
-        return myImage.getHeight();
+        return height;
     } // End of getHeight()
 
     /**
      * Reads an image from a file and updates the pixels array.
      *
-     * @param fileName The name of the file containing the image that will
-     *                 be read to update the pixels array.
-     * @return A BufferedImage
+     * @param fileName    The name of the file containing the image that
+     *                    will be read to update the pixels array.
+     * @param subsampling How many pixels of the file, across and down, make
+     *                    up one pixel of the image, or 0 to work it out
+     *                    from the largest width and height.
+     * @param maxWidth    The largest width wanted when subsampling is 0.
+     * @param maxHeight   The largest height wanted when subsampling is 0.
+     * @param destination A <code>TYPE_3BYTE_BGR</code> image of the size
+     *                    of the result to decode into if the pixels of
+     *                    the file fit it, or null to let the decoder
+     *                    create the image.
+     * @return A BufferedImage, which is the destination if the file was
+     * decoded into it
      * @throws RuntimeException If anything goes wrong, an exception will
      *                          be thrown.
      */
-    private BufferedImage getImageFromFile(String fileName)
+    private BufferedImage getImageFromFile(String fileName, int subsampling,
+                                           int maxWidth, int maxHeight,
+                                           BufferedImage destination)
             throws RuntimeException {
-        try {
-            File file = new File(fileName);
-            BufferedImage image = ImageIO.read(file);
-            while (image.getWidth(null) < 0) {
-                // wait for size to be known
+        StageTimer timer = ConversionMetrics.start(Stage.DECODE);
+        File file = new File(fileName);
+        try (ImageInputStream input = ImageIO.createImageInputStream(file)) {
+            ImageReader reader = readerFor(input, fileName);
+            try {
+                ImageReadParam param = reader.getDefaultReadParam();
+                if (subsampling == 0) {
+                    subsampling = Math.max(
+                            ceilDiv(reader.getWidth(0), maxWidth),
+                            ceilDiv(reader.getHeight(0), maxHeight));
+                }
+                if (subsampling > 1) {
+                    param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                }
+                boolean direct = destination != null
+                        && isPlainRgb(reader.getRawImageType(0));
+                if (direct) {
+                    param.setDestination(destination);
+                }
+                BufferedImage image = reader.read(0, param);
+                timer.stop(fileName, image.getWidth(), image.getHeight(),
+                        file.length());
+                return image;
+            } finally {
+                reader.dispose();
             }
-            return image;
         } catch (Exception e) {
+            timer.fail();
             throw new RuntimeException(e);
         }
-    } // End of getImageFromFile(fileName)
+    } // End of getImageFromFile(fileName, ..., destination)
+
+
+    /**
+     * Tells whether a decoder can write an image straight into a
+     * <code>TYPE_3BYTE_BGR</code> image: it must have three 8-bit sRGB
+     * bands and no alpha. Gray, palette and translucent images, and images with
+     * colour profiles of their own, are decoded as they are and converted
+     * afterwards instead.
+     *
+     * @param type The type of the image as stored in its file, or null if
+     *             the decoder does not know it.
+     * @return True if the image can be decoded into an RGB image.
+     */
+    private static boolean isPlainRgb(ImageTypeSpecifier type) {
+        if (type == null) {
+            return false;
+        }
+        ColorModel model = type.getColorModel();
+        return type.getNumBands() == 3 && !model.hasAlpha()
+                && model.getColorSpace().isCS_sRGB()
+                && type.getSampleModel().getDataType() == DataBuffer.TYPE_BYTE;
+    } // End of isPlainRgb(type)
+
+
+    /**
+     * Finds a reader for an image file and points it at the file.
+     *
+     * @param input    The open file.
+     * @param fileName The name of the file, for the error message.
+     * @return A reader ready to read the header and pixels of the file,
+     * which the caller must dispose of.
+     * @throws RuntimeException If no reader can read the file.
+     */
+    private static ImageReader readerFor(ImageInputStream input,
+                                         String fileName) {
+        Iterator<ImageReader> readers = input == null
+                ? null : ImageIO.getImageReaders(input);
+        if (readers == null || !readers.hasNext()) {
+            throw new RuntimeException(
+                    "ImageFile: No reader for " + fileName);
+        }
+        ImageReader reader = readers.next();
+        reader.setInput(input, true, true);
+        return reader;
+    } // End of readerFor(input, fileName)
+
+
+    private static int ceilDiv(int dividend, int divisor) {
+        return (dividend + divisor - 1) / divisor;
+    } // End of ceilDiv(dividend, divisor)
 
     /**
      * Returns the pixel at the (x, y) coordinates passed as a parameter.
@@ -120,43 +697,244 @@ public class ImageFile {
      * @return The Pixel at the given (x, y) coordinates
      */
     public Pixel getPixel(int x, int y) {
-        // System.out.printf("get %d %d\n",x,y);
-        return myPixels[y * myImage.getWidth() + x];
+        return new Pixel(raster(), (long) y * width + x, x, y);
     } // End of getPixel(x, y)
 
+    /**
+     * Returns the packed ARGB values of this image, one per pixel in
+     * row-major order. This is the array the pixels of this image read
+     * from and write to, so changes to it are visible through
+     * <code>getPixel</code> and <code>pixels</code>.
+     *
+     * @return The array holding the pixels of this image, or null if this
+     * is a grayscale image.
+     */
+    public int[] getRasterData() {
+        PixelBuffer raster = raster();
+        if (raster instanceof IntPixelBuffer) {
+            return ((IntPixelBuffer) raster).getData();
+        }
+        return null;
+    } // End of getRasterData()
+
+    /**
+     * Returns the gray levels of this grayscale image, one byte per pixel
+     * in row-major order. This is the array the pixels of this image read
+     * from and write to, so changes to it are visible through
+     * <code>getPixel</code> and <code>pixels</code>.
+     *
+     * @return The array holding the pixels of this image, or null if this
+     * is a colour image.
+     */
+    public byte[] getGrayData() {
+        PixelBuffer raster = raster();
+        if (raster instanceof GrayPixelBuffer) {
+            return ((GrayPixelBuffer) raster).getData();
+        }
+        return null;
+    } // End of getGrayData()
+
+    /**
+     * Returns whether this is a grayscale image holding one byte per pixel.
+     *
+     * @return True if the image was created as <code>TYPE_BYTE_GRAY</code>.
+     */
+    public boolean isGray() {
+        // Images read from files are decoded in colour, except by lumaOf
+        PixelBuffer raster = myRaster;
+        return raster != null && raster.isGray();
+    } // End of isGray()
+
+    /**
+     * Returns whether the pixels of this image are held outside the Java
+     * heap, in memory that <code>close</code> frees.
+     *
+     * @return True if the image was created by <code>offHeap</code>.
+     */
+    public boolean isOffHeap() {
+        PixelBuffer raster = myRaster;
+        return raster != null && raster.isOffHeap();
+    } // End of isOffHeap()
+
+    /**
+     * Copies a row of this image, as packed ARGB values, into an array.
+     *
+     * @param y   The row to copy.
+     * @param dst The array receiving the row, at least as long as the
+     *            width of the image.
+     */
+    public void getRow(int y, int[] dst) {
+        raster().getRow((long) y * width, dst, 0, width);
+    } // End of getRow(y, dst)
+
+    /**
+     * Replaces a row of this image with packed ARGB values from an array.
+     * A grayscale image stores the average of each colour.
+     *
+     * @param y   The row to replace.
+     * @param src The array holding the row, at least as long as the width
+     *            of the image.
+     */
+    public void setRow(int y, int[] src) {
+        raster().setRow((long) y * width, src, 0, width);
+    } // End of setRow(y, src)
+
+    /**
+     * Passes every pixel of this image, as a packed ARGB value, to an
+     * action, in row-major order. Unlike <code>pixels</code>, no object is
+     * created per pixel, so the loop runs as fast as one over an array.
+     * The pixels of a grayscale image read as colours whose red, green and
+     * blue are their gray level.
+     *
+     * @param action The action taking the value of each pixel.
+     */
+    public void forEachPixel(IntConsumer action) {
+        raster().forEach(action);
+    } // End of forEachPixel(action)
+
+    /**
+     * Replaces every pixel of this image with the result of an operator
+     * applied to its packed ARGB value, in row-major order, without
+     * creating an object per pixel. A grayscale image stores the average
+     * of each result.
+     *
+     * @param operator The operator giving the new value of each pixel.
+     */
+    public void mapPixels(IntUnaryOperator operator) {
+        raster().map(operator);
+    } // End of mapPixels(operator)
+
     /**
      * Returns the width of the image in pixels.
      *
      * @return The image's width in pixels
      */
     public int getWidth() {
-        return myImage.getWidth();
+        return width;
     } // End of getWidth()
 
     /**
-     * Maps the image into the array of pixels
+     * Returns the given image if it is a <code>TYPE_INT_RGB</code> image,
+     * or a copy of it that is one otherwise. Alpha is dropped, as it is
+     * when an image is saved as a JPEG.
      *
-     * @param image The image that will be mapped.
-     * @return A Pixel array
+     * @param image The image that will be normalised.
+     * @return A <code>TYPE_INT_RGB</code> image with the same pixels.
      */
-    private Pixel[] imageToPixels(Image image) {
-        int w = myImage.getWidth();
-        int h = myImage.getHeight();
-        int[] pixels = new int[w * h];
-        PixelGrabber pg = new PixelGrabber(image, 0, 0, w, h, pixels, 0, w);
-        try {
-            pg.grabPixels();
-        } catch (InterruptedException e) {
-            System.err.println("Interrupted waiting for pixels!");
-            return null;
+    private static BufferedImage toIntRgb(BufferedImage image) {
+        return toIntRgb(image, null);
+    } // End of toIntRgb(image)
+
+    /**
+     * Copies an image into a <code>TYPE_INT_RGB</code> image, like
+     * <code>toIntRgb(image)</code>.
+     *
+     * @param image  The image that will be normalised.
+     * @param target A <code>TYPE_INT_RGB</code> image of the same size to
+     *               copy into, or null to return the image itself if it
+     *               is already <code>TYPE_INT_RGB</code> and a new copy
+     *               otherwise.
+     * @return A <code>TYPE_INT_RGB</code> image with the same pixels.
+     */
+    private static BufferedImage toIntRgb(BufferedImage image,
+                                          BufferedImage target) {
+        if (image.getType() == BufferedImage.TYPE_INT_RGB) {
+            if (target == null) {
+                return image;
+            }
+            int[] pixels = rasterOf(image);
+            System.arraycopy(pixels, 0, rasterOf(target), 0, pixels.length);
+            return target;
         }
-        if ((pg.getStatus() & ImageObserver.ABORT) != 0) {
-            System.err.println("Image fetch wrong or aborted.");
-            return null;
+        StageTimer timer = ConversionMetrics.start(Stage.NORMALIZE);
+        int w = image.getWidth();
+        int h = image.getHeight();
+        BufferedImage rgb = target != null ? target
+                : new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        ColorModel model = image.getColorModel();
+        if (!model.hasAlpha() && (model.getColorSpace().isCS_sRGB()
+                || image.getType() == BufferedImage.TYPE_BYTE_GRAY)) {
+            // A plain blit, which runs on the native loops of Java2D. It
+            // also keeps the samples of gray images as they are, where
+            // getRGB would treat them as linear and brighten them
+            Graphics2D graphics = rgb.createGraphics();
+            graphics.drawImage(image, 0, 0, null);
+            graphics.dispose();
+        } else {
+            // Blending with the black background would change the colours
+            // of translucent pixels, so their ARGB values are copied instead
+            image.getRGB(0, 0, w, h, rasterOf(rgb), 0, w);
         }
-        // System.out.printf("creating pixels %d\n", pixels.length);
-        return integersToPixels(pixels, w, h);
-    }
+        timer.stop(null, w, h, 4L * w * h);
+        return rgb;
+    } // End of toIntRgb(image, target)
+
+    /**
+     * Returns the array holding the pixels of a <code>TYPE_INT_RGB</code>
+     * image.
+     *
+     * @param image The image whose pixels are wanted.
+     * @return The array behind the image's <code>DataBufferInt</code>.
+     */
+    private static int[] rasterOf(BufferedImage image) {
+        return ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+    } // End of rasterOf(image)
+
+    /**
+     * Returns the storage for the pixels of a <code>TYPE_INT_RGB</code> or
+     * <code>TYPE_BYTE_GRAY</code> image.
+     *
+     * @param image The image whose pixels are wanted.
+     * @return A buffer over the array behind the image's data buffer.
+     */
+    private static PixelBuffer bufferOf(BufferedImage image) {
+        DataBuffer data = image.getRaster().getDataBuffer();
+        if (data instanceof PixelDataBuffer) {
+            return ((PixelDataBuffer) data).getPixels();
+        }
+        if (data instanceof DataBufferByte) {
+            return new GrayPixelBuffer(((DataBufferByte) data).getData());
+        }
+        return new IntPixelBuffer(rasterOf(image));
+    } // End of bufferOf(image)
+
+    /**
+     * Wraps pixels that are not held in a Java array in a BufferedImage, so
+     * that the image can be decoded into and saved like any other. Gray
+     * pixels make a single-channel gray image.
+     *
+     * @param pixels The pixels of the image, no more than
+     *               <code>Integer.MAX_VALUE</code>.
+     * @param width  The width of the image.
+     * @param height The height of the image.
+     * @return An image reading and writing the given pixels.
+     */
+    private static BufferedImage imageOver(PixelBuffer pixels, int width,
+                                           int height) {
+        if (pixels.size() > Integer.MAX_VALUE) {
+            throw new RuntimeException(
+                    "ImageFile: Images of more than " + Integer.MAX_VALUE
+                            + " pixels cannot be encoded or decoded by ImageIO");
+        }
+        ColorModel colorModel;
+        SampleModel sampleModel;
+        if (pixels.isGray()) {
+            colorModel = new ComponentColorModel(
+                    ColorSpace.getInstance(ColorSpace.CS_GRAY), false, false,
+                    ColorModel.OPAQUE, DataBuffer.TYPE_BYTE);
+            sampleModel = new PixelInterleavedSampleModel(DataBuffer.TYPE_BYTE,
+                    width, height, 1, width, new int[] {0});
+        } else {
+            int[] masks = {0xff0000, 0xff00, 0xff};
+            colorModel = new DirectColorModel(24, masks[0], masks[1], masks[2]);
+            sampleModel = new SinglePixelPackedSampleModel(DataBuffer.TYPE_INT,
+                    width, height, masks);
+        }
+        return new BufferedImage(colorModel,
+                Raster.createWritableRaster(sampleModel,
+                        new PixelDataBuffer(pixels, pixels.isGray()), null),
+                false, null);
+    } // End of imageOver(pixels, width, height)
 
     /**
      * Creates an image from the given file
@@ -164,92 +942,272 @@ public class ImageFile {
      * @param f The file containing the image
      */
     private void init(File f) {
+        init(f, 1, 0, 0);
+    } // End of init(f)
+
+    /**
+     * Creates a possibly subsampled image from the given file, reading only
+     * its header. The pixels are decoded by <code>raster</code> when they
+     * are first needed.
+     *
+     * @param f           The file containing the image
+     * @param subsampling The subsampling factor, or 0 to fit the image
+     *                    within the largest width and height
+     * @param maxWidth    The largest width wanted when subsampling is 0
+     * @param maxHeight   The largest height wanted when subsampling is 0
+     */
+    private void init(File f, int subsampling, int maxWidth, int maxHeight) {
         try {
             String path = f.getCanonicalPath();
-            init(path, getImageFromFile(path));
+            try (ImageInputStream input = ImageIO.createImageInputStream(
+                    new File(path))) {
+                ImageReader reader = readerFor(input, path);
+                try {
+                    int w = reader.getWidth(0);
+                    int h = reader.getHeight(0);
+                    int factor = subsampling != 0 ? subsampling : Math.max(
+                            ceilDiv(w, maxWidth), ceilDiv(h, maxHeight));
+                    this.width = ceilDiv(w, factor);
+                    this.height = ceilDiv(h, factor);
+                    myFormatName = reader.getFormatName();
+                } finally {
+                    reader.dispose();
+                }
+            }
+            setPath(path);
+            mySource = new File(path);
+            mySubsampling = subsampling;
+            myMaxWidth = maxWidth;
+            myMaxHeight = maxHeight;
         } catch (Exception e) {
             throw new RuntimeException(
-                    "ImageFile: Unable to find " + f);
+                    "ImageFile: Unable to find " + f, e);
         }
-    } // End of init(f)
+    } // End of init(f, subsampling, maxWidth, maxHeight)
+
+    /**
+     * Returns the pixels of this image, decoding them first if this image
+     * was read from a file and they have not been decoded yet. From the
+     * raster cache, if one is set, rather than from the file when the
+     * cache holds them.
+     *
+     * @return The pixels of this image.
+     */
+    private PixelBuffer raster() {
+        PixelBuffer raster = myRaster;
+        if (raster != null) {
+            return raster;
+        }
+        synchronized (this) {
+            if (myRaster == null) {
+                decode();
+            }
+            return myRaster;
+        }
+    } // End of raster()
+
+    /**
+     * Decodes the pixels of this image from its file. Must be called
+     * holding the lock on this image.
+     */
+    private void decode() {
+        String path = mySource.getPath();
+        try {
+            RasterCache cache = rasterCache;
+            if (cache == null) {
+                setImage(readImage(path));
+                return;
+            }
+            String variant = mySubsampling + ":" + myMaxWidth + "x"
+                    + myMaxHeight;
+            StageTimer timer = ConversionMetrics.start(Stage.CACHE_LOAD);
+            MappedPixelBuffer cached = cache.get(mySource, variant);
+            if (cached != null) {
+                setImage(imageOver(cached, cached.getWidth(),
+                        cached.getHeight()));
+                timer.stop(path, cached.getWidth(), cached.getHeight(),
+                        4L * cached.size());
+                return;
+            }
+            // A miss is not recorded; it shows as a decode instead
+            BufferedImage image = readImage(path);
+            setImage(image);
+            cache.put(mySource, variant, image.getWidth(), image.getHeight(),
+                    rasterOf(image));
+        } catch (Exception e) {
+            throw new RuntimeException(
+                    "ImageFile: Unable to decode " + path, e);
+        }
+    } // End of decode()
+
+    /**
+     * Decodes the file of this image into a <code>TYPE_INT_RGB</code>
+     * image, over an array from the raster pool if one is set.
+     * <p>
+     * With a pool, a colour file is decoded into a pooled
+     * <code>TYPE_3BYTE_BGR</code> image, the layout decoders produce
+     * themselves, and then copied into the pooled RGB image by the native
+     * loops of Java2D. Decoding straight into the RGB image would make the
+     * decoder convert every row through temporary arrays.
+     *
+     * @param path The canonical path of the file.
+     * @return The decoded image.
+     */
+    private BufferedImage readImage(String path) {
+        RasterPool pool = rasterPool;
+        if (pool == null) {
+            return toIntRgb(getImageFromFile(path, mySubsampling,
+                    myMaxWidth, myMaxHeight, null));
+        }
+        BufferedImage pooled = pooledImage(pool, width, height,
+                BufferedImage.TYPE_INT_RGB);
+        BufferedImage staging = pooledImage(pool, width, height,
+                BufferedImage.TYPE_3BYTE_BGR);
+        try {
+            toIntRgb(getImageFromFile(path, mySubsampling, myMaxWidth,
+                    myMaxHeight, staging), pooled);
+            myPool = pool;
+            return pooled;
+        } catch (RuntimeException e) {
+            pool.release(rasterOf(pooled));
+            throw e;
+        } finally {
+            pool.release(((DataBufferByte) staging.getRaster()
+                    .getDataBuffer()).getData());
+        }
+    } // End of readImage(path)
+
+    /**
+     * Decodes the pixels of this image now, if it was read from a file and
+     * they have not been decoded yet, rather than when they are first
+     * needed. This lets a program decode images on threads of its own, or
+     * find out straight away whether their pixel data is damaged.
+     *
+     * @throws RuntimeException If the pixels cannot be decoded.
+     */
+    public void load() {
+        raster();
+    } // End of load()
+
+    /**
+     * Returns whether the pixels of this image have been decoded, or did
+     * not need to be, as for images not read from a file.
+     *
+     * @return False if only the header of the file has been read so far.
+     */
+    public boolean isLoaded() {
+        return myRaster != null;
+    } // End of isLoaded()
+
+    /**
+     * Returns the format of the file this image was read from, as given by
+     * its header.
+     *
+     * @return The informal name of the format, such as "JPEG" or "png", or
+     * null if this image was not read from a file.
+     */
+    public String getFormatName() {
+        return myFormatName;
+    } // End of getFormatName()
 
     /**
      * Associates the given image with the given file name
      *
      * @param fileName The file name for the image
-     * @param image    The image whihc will be associated with the file name
+     * @param image    The image whihc will be associated with the file name,
+     *                 either <code>TYPE_INT_RGB</code> or
+     *                 <code>TYPE_BYTE_GRAY</code>
      */
     private void init(String fileName, BufferedImage image) {
         try {
             setPath(fileName);
-            myImage = image;
             //myDisplay = new ImageFrame(fileName);
-            myPixels = imageToPixels(myImage);
-
-            this.width = image.getWidth();
-            this.height = image.getHeight();
-
-            System.out.println("width = " + this.width);
-            System.out.println("height = " + this.height);
+            setImage(image);
         } catch (Exception e) {
             throw new RuntimeException(
                     "ImageFile: This is not an image file " + fileName);
         }
     } // End of init(fileName, image)
 
-
     /**
-     * Maps an array of integers to an array of pixels.
+     * Makes the given image hold the pixels of this image.
      *
-     * @param pixels An array of pixels.
-     * @param width  The width of the image.
-     * @param height The height of the image.
-     * @return The final array of pixels.
+     * @param image The image, either <code>TYPE_INT_RGB</code> or
+     *              <code>TYPE_BYTE_GRAY</code>
      */
-    private Pixel[] integersToPixels(int[] pixels, int width, int height) {
-        if (pixels == null) {
-            throw new RuntimeException(String.format(
-                    "ImageFile: No pixels for %d %d\n", width, height));
+    private void setImage(BufferedImage image) {
+        this.width = image.getWidth();
+        this.height = image.getHeight();
+        myImage = image;
+        // Written last, so a thread that sees it also sees the rest
+        myRaster = bufferOf(image);
+
+        if (verbose) {
+            System.out.println("width = " + this.width);
+            System.out.println("height = " + this.height);
         }
-        Pixel[] pix = new Pixel[pixels.length];
-        // System.out.printf("creating %d pixels on %d
-        // %d\n",pix.length,width,height);
-        for (int i = 0; i < pixels.length; i++) {
-            // System.out.printf("pix at %d %d %d\n", i/width,i%width,i);
-            pix[i] = new Pixel(pixels[i], i % width, i / width);
+    } // End of setImage(image)
+
+    /**
+     * Associates off-heap pixels with the given file name. The BufferedImage
+     * used to save them is only created if the image is saved.
+     *
+     * @param fileName The file name for the image
+     * @param buffer   The off-heap pixels of the image
+     * @param width    The width of the image
+     * @param height   The height of the image
+     */
+    private void initOffHeap(String fileName, PixelBuffer buffer, int width,
+                             int height) {
+        setPath(fileName);
+        myRaster = buffer;
+        myImage = null;
+        this.width = width;
+        this.height = height;
+        if (verbose) {
+            System.out.println("width = " + this.width);
+            System.out.println("height = " + this.height);
         }
-        // System.out.printf("returning %d\n", pix.length);
-        return pix;
-    } // End of intsToPixels(pixels,width,height)
+    } // End of initOffHeap(fileName, buffer, width, height)
 
 
     /**
-     * Provides access to this image one pixel at a time.
+     * Provides access to this image one pixel at a time. A
+     * <code>Pixel</code> view is created for every pixel visited; loops
+     * over large images run faster with <code>forEachPixel</code>,
+     * <code>mapPixels</code> or <code>getRow</code> and <code>setRow</code>.
      *
      * @return An <code>Iterable</code> that will allow access to each pixel
      * in this image
      */
     public Iterable<Pixel> pixels() {
-        if (myPixels == null) {
-            throw new RuntimeException(
-                    "ImageFile: File is not ready to iterate over pixels");
-        }
-        return Arrays.asList(myPixels);
-    } // End of pixels()
+        final PixelBuffer raster = raster();
+        final long size = raster.size();
+        final int w = width;
+        return () -> new Iterator<Pixel>() {
+            private long index = 0;
+            private int x = 0;
+            private int y = 0;
 
+            @Override
+            public boolean hasNext() {
+                return index < size;
+            }
 
-    /**
-     * Maps an array of pixels to an array of integers.
-     *
-     * @param pixels The array of pixels received as an argument.
-     * @return An array of integers.
-     */
-    private int[] pixelsToIntegers(Pixel[] pixels) {
-        int[] pix = new int[pixels.length];
-        for (int i = 0; i < pixels.length; i++)
-            pix[i] = pixels[i].getValue();
-        return pix;
-    } // End of pixelsToIntegers(pixels)
+            @Override
+            public Pixel next() {
+                if (index >= size) {
+                    throw new NoSuchElementException();
+                }
+                Pixel pixel = new Pixel(raster, index++, x, y);
+                if (++x == w) {
+                    x = 0;
+                    y++;
+                }
+                return pixel;
+            }
+        };
+    } // End of pixels()
 
 
     /**
@@ -257,6 +1215,9 @@ public class ImageFile {
      * file selection dialog box to allow the user to choose a name if no
      * file name set (for example, if this image was created as a blank
      * sized image).
+     * <p>
+     * The image is encoded as described by <code>getSaveOptions</code>, by
+     * a writer borrowed from the shared <code>ImageWriterPool</code>.
      *
      * @throws RuntimeException Throws an exception if the current file name
      *                          cannot be accessed.
@@ -265,11 +1226,17 @@ public class ImageFile {
         if (myFileName.isEmpty()) {
             saveAs();
         }
+        PixelBuffer raster = raster();
+        StageTimer timer = ConversionMetrics.start(Stage.ENCODE);
         try {
-            updateImage();
             File file = new File(myPath + myFileName);
-            ImageIO.write(myImage, "jpg", file);
+            if (myImage == null) {
+                myImage = imageOver(raster, width, height);
+            }
+            ImageWriterPool.shared().write(myImage, file, mySaveOptions);
+            timer.stop(file.getPath(), getWidth(), getHeight(), file.length());
         } catch (Exception e) {
+            timer.fail();
             throw new RuntimeException(
                     "ImageFile: Unable to save image to a file.", e);
         }
@@ -304,6 +1271,98 @@ public class ImageFile {
     } // End of saveAs()
 
 
+    /**
+     * Frees the off-heap memory of an image created by <code>offHeap</code>,
+     * or gives the pixel array of an image back to the raster pool it was
+     * taken from. The image cannot be used afterwards. For other images,
+     * whose memory is managed by the garbage collector, this does nothing.
+     */
+    @Override
+    public void close() {
+        PixelBuffer raster;
+        RasterPool pool;
+        synchronized (this) {
+            raster = myRaster;
+            pool = myPool;
+            // Given back only once, however many times it is closed
+            myPool = null;
+        }
+        if (raster == null) {
+            return;
+        }
+        raster.close();
+        if (pool != null) {
+            int[] pixels = getRasterData();
+            pool.release(pixels != null ? pixels : getGrayData());
+        }
+    } // End of close()
+
+
+    /**
+     * Returns how this image is encoded when it is saved.
+     *
+     * @return The options used by <code>save</code>.
+     */
+    public SaveOptions getSaveOptions() {
+        return mySaveOptions;
+    } // End of getSaveOptions()
+
+
+    /**
+     * Sets how this image is encoded when it is saved, for example as a
+     * PNG or as a JPEG of a given quality. The file name is not changed,
+     * so it should be given a matching extension with
+     * <code>setFileName</code>.
+     *
+     * @param options The options used by <code>save</code>.
+     */
+    public void setSaveOptions(SaveOptions options) {
+        if (options == null) {
+            throw new RuntimeException(
+                    "ImageFile: Save options must not be null");
+        }
+        mySaveOptions = options;
+    } // End of setSaveOptions(options)
+
+
+    /**
+     * Sets the cache decoded images are kept in and loaded from, for every
+     * image loaded from a file from then on. Images already loaded are not
+     * affected.
+     *
+     * @param cache The cache, or null to decode every image.
+     */
+    public static void setRasterCache(RasterCache cache) {
+        rasterCache = cache;
+    } // End of setRasterCache(cache)
+
+
+    /**
+     * Sets the pool pixel arrays are taken from, for every image decoded
+     * from a file or created blank from then on. Closing such an image
+     * gives its array back to the pool. Images already created are not
+     * affected.
+     *
+     * @param pool The pool, or null to allocate a new array for every
+     *             image.
+     */
+    public static void setRasterPool(RasterPool pool) {
+        rasterPool = pool;
+    } // End of setRasterPool(pool)
+
+
+    /**
+     * Turns on or off printing the width and height of every image as it
+     * is created. It is off by default, since it floods the output of
+     * large batches.
+     *
+     * @param on Whether to print the size of every image.
+     */
+    public static void setVerbose(boolean on) {
+        verbose = on;
+    } // End of setVerbose(on)
+
+
     /**
      * Sets the file name associated with this image. This is useful, for
      * example, when saving the results of changes to this image in a
@@ -334,15 +1393,4 @@ public class ImageFile {
             myPath = fileName.substring(0, index + 1);
         }
     } // End of setPath(fileName)
-
-
-    /**
-     * Updates the image to reflect the new pixel values.
-     */
-    private void updateImage() {
-        int width = myImage.getWidth();
-        int height = myImage.getHeight();
-        myImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-        myImage.setRGB(0, 0, width, height, pixelsToIntegers(myPixels), 0, width);
-    }  // End of updateImage()
 } // End of public ImageFile()
@@ -0,0 +1,157 @@
+package UoASCNU.images;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import java.awt.image.RenderedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * The <code>ImageWriterPool</code> class keeps encoders for each
+ * <code>OutputFormat</code> so that they can be used again and again.
+ * Looking a writer up in the ImageIO service registry and setting it up
+ * costs about as much as encoding a small image, so batch saves borrow a
+ * writer, reset it afterwards and give it back.
+ * <p>
+ * A writer is only ever used by the thread that borrowed it, which makes
+ * the pool safe to share between threads. When every pooled writer is
+ * busy a new one is created; writers returned to a full pool are
+ * disposed of.
+ *
+ * @author Marco A. Palomino
+ */
+public class ImageWriterPool {
+
+    /**
+     * The size of the buffer between an encoder and its file.
+     */
+    static final int OUTPUT_BUFFER_SIZE = 1 << 16;
+
+    private static final ImageWriterPool SHARED = new ImageWriterPool(
+            Runtime.getRuntime().availableProcessors());
+
+    private final Map<OutputFormat, BlockingQueue<ImageWriter>> idle =
+            new EnumMap<>(OutputFormat.class);
+
+    /**
+     * Constructor: Creates an empty pool.
+     *
+     * @param maxIdle The number of idle writers kept per format.
+     */
+    public ImageWriterPool(int maxIdle) {
+        for (OutputFormat format : OutputFormat.values()) {
+            idle.put(format, new ArrayBlockingQueue<>(maxIdle));
+        }
+    } // End of constructor
+
+
+    /**
+     * @return The pool shared by every <code>ImageFile</code>, keeping as
+     * many idle writers per format as there are processors.
+     */
+    public static ImageWriterPool shared() {
+        return SHARED;
+    } // End of shared()
+
+
+    /**
+     * Encodes an image into a file, replacing whatever the file held.
+     *
+     * @param image   The image to encode.
+     * @param file    The file written to.
+     * @param options How to encode the image.
+     * @throws IOException If the image cannot be encoded or written.
+     */
+    public void write(RenderedImage image, File file, SaveOptions options)
+            throws IOException {
+        ImageWriter writer = borrow(options.getFormat());
+        boolean reusable = false;
+        try (ChannelImageOutputStream output = new ChannelImageOutputStream(
+                FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING),
+                OUTPUT_BUFFER_SIZE)) {
+            writer.setOutput(output);
+            writer.write(null, new IIOImage(image, null, null),
+                    paramFor(writer, options));
+            reusable = true;
+        } finally {
+            if (reusable) {
+                release(options.getFormat(), writer);
+            } else {
+                // A writer that failed half way is not trusted again
+                writer.dispose();
+            }
+        }
+    } // End of write(image, file, options)
+
+
+    /**
+     * Takes an idle writer for a format, or creates one.
+     */
+    private ImageWriter borrow(OutputFormat format) throws IOException {
+        ImageWriter writer = idle.get(format).poll();
+        if (writer != null) {
+            return writer;
+        }
+        Iterator<ImageWriter> writers =
+                ImageIO.getImageWritersByFormatName(format.getFormatName());
+        if (!writers.hasNext()) {
+            throw new IOException("ImageWriterPool: No writer for " + format);
+        }
+        return writers.next();
+    } // End of borrow(format)
+
+
+    /**
+     * Resets a writer and returns it to the pool.
+     */
+    private void release(OutputFormat format, ImageWriter writer) {
+        writer.reset();
+        if (!idle.get(format).offer(writer)) {
+            writer.dispose();
+        }
+    } // End of release(format, writer)
+
+
+    /**
+     * Translates the options into parameters for a writer, or returns null
+     * if the writer's defaults are wanted.
+     */
+    private static ImageWriteParam paramFor(ImageWriter writer,
+                                            SaveOptions options) {
+        if (options.isEncoderDefault()) {
+            return null;
+        }
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        switch (options.getFormat()) {
+            case JPEG:
+                if (options.getJpegQuality() != SaveOptions.DEFAULT) {
+                    param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                    param.setCompressionQuality(options.getJpegQuality());
+                }
+                if (options.isProgressive()) {
+                    param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+                }
+                break;
+            case PNG:
+                // The PNG writer maps a quality q to deflate level 9 - 9q
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(
+                        (9 - options.getPngCompressionLevel()) / 9f);
+                break;
+            default:
+                break;
+        }
+        return param;
+    } // End of paramFor(writer, options)
+} // End of class ImageWriterPool
@@ -0,0 +1,80 @@
+package UoASCNU.images;
+
+import java.util.function.IntConsumer;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * The <code>IntPixelBuffer</code> class holds pixels as an array of packed
+ * ARGB integers, four bytes per pixel. It is the storage of colour images.
+ *
+ * @author Marco A. Palomino
+ */
+final class IntPixelBuffer extends PixelBuffer {
+
+    private final int[] data;
+
+    /**
+     * Constructor: Creates a buffer over the given array.
+     *
+     * @param data The packed ARGB values of the pixels.
+     */
+    IntPixelBuffer(int[] data) {
+        this.data = data;
+    } // End of constructor
+
+
+    /**
+     * Returns the array holding the pixels.
+     *
+     * @return The packed ARGB values of the pixels.
+     */
+    int[] getData() {
+        return data;
+    } // End of getData()
+
+
+    @Override
+    long size() {
+        return data.length;
+    } // End of size()
+
+
+    @Override
+    int get(long index) {
+        return data[(int) index];
+    } // End of get(index)
+
+
+    @Override
+    void set(long index, int value) {
+        data[(int) index] = value;
+    } // End of set(index, value)
+
+
+    @Override
+    void getRow(long index, int[] dst, int dstOffset, int length) {
+        System.arraycopy(data, (int) index, dst, dstOffset, length);
+    } // End of getRow(index, dst, dstOffset, length)
+
+
+    @Override
+    void setRow(long index, int[] src, int srcOffset, int length) {
+        System.arraycopy(src, srcOffset, data, (int) index, length);
+    } // End of setRow(index, src, srcOffset, length)
+
+
+    @Override
+    void forEach(IntConsumer action) {
+        for (int value : data) {
+            action.accept(value);
+        }
+    } // End of forEach(action)
+
+
+    @Override
+    void map(IntUnaryOperator operator) {
+        for (int i = 0; i < data.length; i++) {
+            data[i] = operator.applyAsInt(data[i]);
+        }
+    } // End of map(operator)
+} // End of class IntPixelBuffer
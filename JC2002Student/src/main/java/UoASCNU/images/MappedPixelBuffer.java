@@ -0,0 +1,81 @@
+package UoASCNU.images;
+
+import java.nio.IntBuffer;
+
+/**
+ * The <code>MappedPixelBuffer</code> class holds pixels as packed ARGB
+ * integers in a memory-mapped file of the <code>RasterCache</code>. The
+ * pixels are paged in from the file as they are read, without being copied
+ * onto the heap first.
+ * <p>
+ * The file is mapped privately: changes to the pixels are seen by this
+ * image alone and never reach the file, so the cache entry stays intact
+ * for other readers.
+ *
+ * @author Marco A. Palomino
+ */
+final class MappedPixelBuffer extends PixelBuffer {
+
+    private final IntBuffer data;
+    private final int width;
+    private final int height;
+
+    /**
+     * Constructor: Creates a buffer over mapped pixels.
+     *
+     * @param data   The packed ARGB values of the pixels.
+     * @param width  The width of the image.
+     * @param height The height of the image.
+     */
+    MappedPixelBuffer(IntBuffer data, int width, int height) {
+        this.data = data;
+        this.width = width;
+        this.height = height;
+    } // End of constructor
+
+
+    /**
+     * @return The width of the image.
+     */
+    int getWidth() {
+        return width;
+    } // End of getWidth()
+
+
+    /**
+     * @return The height of the image.
+     */
+    int getHeight() {
+        return height;
+    } // End of getHeight()
+
+
+    @Override
+    long size() {
+        return data.capacity();
+    } // End of size()
+
+
+    @Override
+    int get(long index) {
+        return data.get((int) index);
+    } // End of get(index)
+
+
+    @Override
+    void set(long index, int value) {
+        data.put((int) index, value);
+    } // End of set(index, value)
+
+
+    @Override
+    void getRow(long index, int[] dst, int dstOffset, int length) {
+        data.get((int) index, dst, dstOffset, length);
+    } // End of getRow(index, dst, dstOffset, length)
+
+
+    @Override
+    void setRow(long index, int[] src, int srcOffset, int length) {
+        data.put((int) index, src, srcOffset, length);
+    } // End of setRow(index, src, srcOffset, length)
+} // End of class MappedPixelBuffer
@@ -0,0 +1,124 @@
+package UoASCNU.images;
+
+import jdk.incubator.foreign.MemoryAccess;
+import jdk.incubator.foreign.MemorySegment;
+import jdk.incubator.foreign.ResourceScope;
+
+/**
+ * The <code>OffHeapPixelBuffer</code> class holds pixels in native memory
+ * outside the Java heap, allocated through the Foreign Memory API. Colour
+ * images take four bytes per pixel, as packed ARGB integers, and gray
+ * images one byte per pixel, read and written like a
+ * <code>GrayPixelBuffer</code>.
+ * <p>
+ * The memory is not counted against the heap and is not moved or scanned by
+ * the garbage collector. It is limited instead by
+ * <code>-XX:MaxDirectMemorySize</code>, which is the size of the heap unless
+ * it is given. It is freed as soon as <code>close</code> is
+ * called, rather than when the buffer becomes unreachable; any use of the
+ * buffer after that throws an <code>IllegalStateException</code>. The
+ * memory is shared, so the pixels can be read and written by any thread.
+ * <p>
+ * This class must only be loaded when the <code>jdk.incubator.foreign</code>
+ * module is enabled (with <code>--add-modules jdk.incubator.foreign</code>),
+ * which <code>ImageFile</code> checks for.
+ *
+ * @author Marco A. Palomino
+ */
+final class OffHeapPixelBuffer extends PixelBuffer {
+
+    private final ResourceScope scope;
+    private final MemorySegment segment;
+    private final long size;
+    private final boolean gray;
+
+    /**
+     * Constructor: Allocates zeroed native memory for the given number of
+     * pixels.
+     *
+     * @param size The number of pixels.
+     * @param gray Whether to hold one gray byte per pixel rather than a
+     *             packed ARGB integer.
+     */
+    OffHeapPixelBuffer(long size, boolean gray) {
+        this.size = size;
+        this.gray = gray;
+        this.scope = ResourceScope.newSharedScope();
+        this.segment = MemorySegment.allocateNative(
+                gray ? size : size * Integer.BYTES, Integer.BYTES, scope);
+    } // End of constructor
+
+
+    @Override
+    boolean isGray() {
+        return gray;
+    } // End of isGray()
+
+
+    @Override
+    long size() {
+        return size;
+    } // End of size()
+
+
+    @Override
+    int get(long index) {
+        if (gray) {
+            return (MemoryAccess.getByteAtOffset(segment, index) & 0xff)
+                    * 0x010101;
+        }
+        return MemoryAccess.getIntAtIndex(segment, index);
+    } // End of get(index)
+
+
+    @Override
+    void set(long index, int value) {
+        if (gray) {
+            int sum = ((value >> 16) & 0xff) + ((value >> 8) & 0xff)
+                    + (value & 0xff);
+            MemoryAccess.setByteAtOffset(segment, index, (byte) (sum / 3));
+        } else {
+            MemoryAccess.setIntAtIndex(segment, index, value);
+        }
+    } // End of set(index, value)
+
+
+    @Override
+    void getRow(long index, int[] dst, int dstOffset, int length) {
+        if (gray) {
+            super.getRow(index, dst, dstOffset, length);
+            return;
+        }
+        MemorySegment.ofArray(dst)
+                .asSlice((long) dstOffset * Integer.BYTES, (long) length * Integer.BYTES)
+                .copyFrom(segment.asSlice(index * Integer.BYTES,
+                        (long) length * Integer.BYTES));
+    } // End of getRow(index, dst, dstOffset, length)
+
+
+    @Override
+    void setRow(long index, int[] src, int srcOffset, int length) {
+        if (gray) {
+            super.setRow(index, src, srcOffset, length);
+            return;
+        }
+        segment.asSlice(index * Integer.BYTES, (long) length * Integer.BYTES)
+                .copyFrom(MemorySegment.ofArray(src).asSlice(
+                        (long) srcOffset * Integer.BYTES,
+                        (long) length * Integer.BYTES));
+    } // End of setRow(index, src, srcOffset, length)
+
+
+    @Override
+    boolean isOffHeap() {
+        return true;
+    } // End of isOffHeap()
+
+
+    @Override
+    void close() {
+        if (scope.isAlive()) {
+            scope.close();
+        }
+    } // End of close()
+} // End of class OffHeapPixelBuffer
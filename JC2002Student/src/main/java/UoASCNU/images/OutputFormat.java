@@ -0,0 +1,25 @@
+package UoASCNU.images;
+
+/**
+ * The file formats an <code>ImageFile</code> can be saved in.
+ *
+ * @author Marco A. Palomino
+ */
+public enum OutputFormat {
+    JPEG("jpg"),
+    PNG("png"),
+    BMP("bmp");
+
+    private final String formatName;
+
+    OutputFormat(String formatName) {
+        this.formatName = formatName;
+    } // End of constructor
+
+    /**
+     * @return The name ImageIO knows the format by.
+     */
+    public String getFormatName() {
+        return formatName;
+    } // End of getFormatName()
+} // End of enum OutputFormat
@@ -8,13 +8,32 @@ package UoASCNU.images;
  * 255. If a value is given outside that range, it is changed to be within
  * that range. As such, a negative value would be set to 0 and a value greater
  * than 255 would be set to 255.
+ * <p>
+ * A pixel does not hold its components in fields of its own. It is a
+ * lightweight view over one pixel of an image's storage, so the pixels
+ * handed out by <code>ImageFile</code> read and write straight through to
+ * the image data. A pixel created with the public constructor owns a
+ * one-element raster of its own.
+ * <p>
+ * A pixel of a grayscale image reads as a colour whose red, green and blue
+ * components are its gray level. Setting one of its components stores the
+ * average of the resulting colour as the new gray level.
  *
  * @author Marco Palomino
  */
 
 public class Pixel {
     static final int MAX_VALUE = 255;
-    private int alpha = MAX_VALUE, red = 0, green = 0, blue = 0;
+
+    /**
+     * The storage this pixel reads from and writes to.
+     */
+    private final PixelBuffer raster;
+
+    /**
+     * The position of this pixel's value within the raster.
+     */
+    private final long index;
 
     /**
      * The x-coordinate of this pixel in the image.
@@ -34,9 +53,23 @@ public class Pixel {
      * @param y The y-coordinate of this pixel in the image.
      */
     public Pixel(int i, int x, int y) {
+        this(new IntPixelBuffer(new int[1]), 0, x, y);
+        setValue(i);
+    } // End of constructor
+
+    /**
+     * Constructor: Creates a Pixel that views one value of a raster.
+     *
+     * @param raster The storage of the image.
+     * @param index  The position of this pixel's value within the raster.
+     * @param x      The x-coordinate of this pixel in the image.
+     * @param y      The y-coordinate of this pixel in the image.
+     */
+    Pixel(PixelBuffer raster, long index, int x, int y) {
+        this.raster = raster;
+        this.index = index;
         pixelX = x;
         pixelY = y;
-        setValue(i);
     } // End of constructor
 
 
@@ -46,7 +79,7 @@ public class Pixel {
      * @return The pixel's blue value within the range [0, 255].
      */
     public int getBlue() {
-        return blue;
+        return raster.get(index) & 0xff;
     } // End of getBlue()
 
 
@@ -55,8 +88,8 @@ public class Pixel {
      *
      * @return The pixel's green value within the range [0, 255].
      */
-    public int getGreen() {  
-        return green;
+    public int getGreen() {
+        return (raster.get(index) >> 8) & 0xff;
     } // End of getGreen()
 
 
@@ -66,7 +99,7 @@ public class Pixel {
      * @return The pixel's red value within the range [0, 255].
      */
     public int getRed() {
-        return red;
+        return (raster.get(index) >> 16) & 0xff;
     } // End of getRed()
 
 
@@ -76,7 +109,7 @@ public class Pixel {
      * @return the integer value of the pixel.
      */
     int getValue() {
-        return (alpha << 24) | (red << 16) | (green << 8) | blue;
+        return raster.get(index);
     } // End of getValue ()
 
     /**
@@ -87,7 +120,7 @@ public class Pixel {
      * @param b The blue value
      */
     public void setBlue(int b) {
-        blue = guard(b);
+        raster.set(index, (raster.get(index) & 0xffffff00) | guard(b));
     } // End of setBlue(g)
 
     /**
@@ -98,7 +131,7 @@ public class Pixel {
      * @param g The green value
      */
     public void setGreen(int g) {
-       green = guard(g);
+        raster.set(index, (raster.get(index) & 0xffff00ff) | (guard(g) << 8));
     } // End of setGreen(g)
 
     /**
@@ -109,7 +142,7 @@ public class Pixel {
      * @param r The red value
      */
     public void setRed(int r) {
-        red = guard(r);
+        raster.set(index, (raster.get(index) & 0xff00ffff) | (guard(r) << 16));
     } // End of setRed(int r)
 
     /**
@@ -118,10 +151,7 @@ public class Pixel {
      * @param pixel The integer value representing all the color components.
      */
     public void setValue(int pixel) {
-        alpha = (pixel >> 24) & 0xff;
-        red = (pixel >> 16) & 0xff;
-        green = (pixel >> 8) & 0xff;
-        blue = (pixel) & 0xff;
+        raster.set(index, pixel);
     } // End of setValue (int pixel)
 
     /**
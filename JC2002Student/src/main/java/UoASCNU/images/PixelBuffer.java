@@ -0,0 +1,139 @@
+package UoASCNU.images;
+
+import java.util.function.IntConsumer;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * The <code>PixelBuffer</code> class is the storage behind the pixels of an
+ * <code>ImageFile</code>. Whatever it holds, it reads and writes pixels as
+ * packed ARGB integers, one per pixel in row-major order, so that
+ * <code>Pixel</code> views work the same way over every kind of storage.
+ * <p>
+ * Positions are <code>long</code>, so that storage outside the Java heap
+ * can hold more pixels than an array can.
+ *
+ * @author Marco A. Palomino
+ */
+abstract class PixelBuffer {
+
+    // The number of pixels copied at a time by forEach and map
+    private static final int CHUNK = 4096;
+
+    /**
+     * Returns the number of pixels in this buffer.
+     *
+     * @return The number of pixels.
+     */
+    abstract long size();
+
+    /**
+     * Returns the pixel at the given position as a packed ARGB value.
+     *
+     * @param index The position of the pixel.
+     * @return The packed ARGB value of the pixel.
+     */
+    abstract int get(long index);
+
+    /**
+     * Stores a packed ARGB value at the given position. Buffers that cannot
+     * hold every colour store the nearest one they can.
+     *
+     * @param index The position of the pixel.
+     * @param value The packed ARGB value of the pixel.
+     */
+    abstract void set(long index, int value);
+
+    /**
+     * Copies a run of pixels, as packed ARGB values, into an array.
+     *
+     * @param index     The position of the first pixel.
+     * @param dst       The array receiving the values.
+     * @param dstOffset The position in the array of the first value.
+     * @param length    The number of pixels copied.
+     */
+    void getRow(long index, int[] dst, int dstOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            dst[dstOffset + i] = get(index + i);
+        }
+    } // End of getRow(index, dst, dstOffset, length)
+
+    /**
+     * Stores a run of packed ARGB values from an array.
+     *
+     * @param index     The position of the first pixel.
+     * @param src       The array holding the values.
+     * @param srcOffset The position in the array of the first value.
+     * @param length    The number of pixels stored.
+     */
+    void setRow(long index, int[] src, int srcOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            set(index + i, src[srcOffset + i]);
+        }
+    } // End of setRow(index, src, srcOffset, length)
+
+    /**
+     * Passes every pixel, as a packed ARGB value, to an action, in order.
+     * Pixels are copied a chunk at a time into a single array, so nothing
+     * is allocated per pixel.
+     *
+     * @param action The action taking each value.
+     */
+    void forEach(IntConsumer action) {
+        long size = size();
+        int[] chunk = new int[(int) Math.min(CHUNK, size)];
+        for (long index = 0; index < size; index += chunk.length) {
+            int length = (int) Math.min(chunk.length, size - index);
+            getRow(index, chunk, 0, length);
+            for (int i = 0; i < length; i++) {
+                action.accept(chunk[i]);
+            }
+        }
+    } // End of forEach(action)
+
+    /**
+     * Replaces every pixel, in order, with the result of an operator
+     * applied to its packed ARGB value, a chunk at a time like
+     * <code>forEach</code>.
+     *
+     * @param operator The operator giving the new value of each pixel.
+     */
+    void map(IntUnaryOperator operator) {
+        long size = size();
+        int[] chunk = new int[(int) Math.min(CHUNK, size)];
+        for (long index = 0; index < size; index += chunk.length) {
+            int length = (int) Math.min(chunk.length, size - index);
+            getRow(index, chunk, 0, length);
+            for (int i = 0; i < length; i++) {
+                chunk[i] = operator.applyAsInt(chunk[i]);
+            }
+            setRow(index, chunk, 0, length);
+        }
+    } // End of map(operator)
+
+    /**
+     * Returns whether this buffer holds a gray level per pixel, in which
+     * case a colour written to it is stored as its average.
+     *
+     * @return True for gray storage.
+     */
+    boolean isGray() {
+        return false;
+    } // End of isGray()
+
+    /**
+     * Returns whether the pixels are held outside the Java heap, in memory
+     * that <code>close</code> frees.
+     *
+     * @return True for off-heap storage.
+     */
+    boolean isOffHeap() {
+        return false;
+    } // End of isOffHeap()
+
+    /**
+     * Frees the memory holding the pixels, if it is not managed by the
+     * garbage collector. The pixels cannot be used afterwards.
+     */
+    void close() {
+    } // End of close()
+} // End of class PixelBuffer
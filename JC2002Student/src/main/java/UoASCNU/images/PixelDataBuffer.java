@@ -0,0 +1,59 @@
+package UoASCNU.images;
+
+import java.awt.image.DataBuffer;
+
+/**
+ * The <code>PixelDataBuffer</code> class lets a BufferedImage read and
+ * write the pixels of a <code>PixelBuffer</code> that is not backed by a
+ * Java array, such as a <code>MappedPixelBuffer</code> or an
+ * <code>OffHeapPixelBuffer</code>, so that images held that way can still
+ * be decoded into and saved by ImageIO.
+ * <p>
+ * Its elements are either the packed RGB values of the pixels or, for a
+ * gray buffer, their gray levels.
+ *
+ * @author Marco A. Palomino
+ */
+final class PixelDataBuffer extends DataBuffer {
+
+    private final PixelBuffer pixels;
+
+    /**
+     * Constructor: Creates a data buffer over the given pixels.
+     *
+     * @param pixels The pixels, no more than <code>Integer.MAX_VALUE</code>.
+     * @param gray   Whether the elements are gray levels, one byte each,
+     *               rather than packed RGB values.
+     */
+    PixelDataBuffer(PixelBuffer pixels, boolean gray) {
+        super(gray ? TYPE_BYTE : TYPE_INT, Math.toIntExact(pixels.size()));
+        this.pixels = pixels;
+    } // End of constructor
+
+
+    /**
+     * @return The pixels behind this data buffer.
+     */
+    PixelBuffer getPixels() {
+        return pixels;
+    } // End of getPixels()
+
+
+    @Override
+    public int getElem(int bank, int i) {
+        if (dataType == TYPE_BYTE) {
+            return pixels.get(i) & 0xff;
+        }
+        return pixels.get(i);
+    } // End of getElem(bank, i)
+
+
+    @Override
+    public void setElem(int bank, int i, int val) {
+        if (dataType == TYPE_BYTE) {
+            pixels.set(i, (val & 0xff) * 0x010101);
+        } else {
+            pixels.set(i, val);
+        }
+    } // End of setElem(bank, i, val)
+} // End of class PixelDataBuffer
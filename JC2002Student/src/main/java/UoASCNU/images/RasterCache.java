@@ -0,0 +1,366 @@
+package UoASCNU.images;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The <code>RasterCache</code> class keeps decoded images in a directory,
+ * so that an image read again does not have to be decoded again. When a
+ * cache is given to <code>ImageFile.setRasterCache</code>, every image
+ * decoded from a file is stored in it, and an image found in it is mapped
+ * into memory with <code>FileChannel.map</code> instead of being decoded:
+ * loading it is a page-in from the file, with no decoding and no copying
+ * onto the heap.
+ * <p>
+ * An entry is a raw file: a header of five integers (a magic number, the
+ * format version, the width, the height and the image type) followed by
+ * one packed ARGB integer per pixel in row-major order, all little-endian.
+ * Entries are named after a hash of the canonical path, size and
+ * modification time of the source file, so a source file that changes
+ * gets a new entry and its old one ages out.
+ * <p>
+ * The cache holds at most a given number of bytes. When an entry would take
+ * it over that size, the entries used least recently are deleted until it
+ * fits. Entries are written to a temporary file that is atomically renamed
+ * into place, and are mapped privately, so any number of threads or
+ * processes can read the same cache while others add to it: a reader sees
+ * a whole entry or none, and changes made to a mapped image never reach
+ * the file. An entry deleted while mapped stays readable by the images
+ * already using it.
+ *
+ * @author Marco A. Palomino
+ */
+public class RasterCache {
+
+    /**
+     * The size of the cache when none is given: 1 GiB.
+     */
+    public static final long DEFAULT_MAX_BYTES = 1L << 30;
+
+    static final int MAGIC = 0x52414f55; // "UOAR" in little-endian order
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 5 * Integer.BYTES;
+    private static final String SUFFIX = ".raster";
+    private static final int WRITE_BUFFER_BYTES = 1 << 16;
+
+    private final Path directory;
+    private final long maxBytes;
+
+    // The size of every entry, least recently used first
+    private final LinkedHashMap<String, Long> entries =
+            new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+
+    /**
+     * Constructor: Creates a cache in the given directory, taking over the
+     * entries already in it, oldest first.
+     *
+     * @param directory The directory holding the entries. It is created if
+     *                  it does not exist.
+     * @param maxBytes  The largest number of bytes the entries may take.
+     * @throws IOException If the directory cannot be created or read.
+     */
+    public RasterCache(File directory, long maxBytes) throws IOException {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException(
+                    "RasterCache: Size must be positive [" + maxBytes + "]");
+        }
+        this.directory = directory.toPath();
+        this.maxBytes = maxBytes;
+        Files.createDirectories(this.directory);
+
+        List<Path> found = new ArrayList<>();
+        try (DirectoryStream<Path> files =
+                     Files.newDirectoryStream(this.directory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(SUFFIX)) {
+                    found.add(file);
+                } else if (name.endsWith(".tmp")) {
+                    // Left behind by a writer that did not finish
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+        found.sort((a, b) -> Long.compare(a.toFile().lastModified(),
+                b.toFile().lastModified()));
+        synchronized (entries) {
+            for (Path file : found) {
+                long size = file.toFile().length();
+                entries.put(file.getFileName().toString(), size);
+                totalBytes += size;
+            }
+            evict(0);
+        }
+    } // End of constructor
+
+
+    /**
+     * Returns the largest number of bytes the entries may take.
+     *
+     * @return The size limit of the cache.
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    } // End of getMaxBytes()
+
+
+    /**
+     * Returns the number of bytes the entries take now.
+     *
+     * @return The size of the cache.
+     */
+    public long getTotalBytes() {
+        synchronized (entries) {
+            return totalBytes;
+        }
+    } // End of getTotalBytes()
+
+
+    /**
+     * Returns the number of entries in the cache.
+     *
+     * @return The number of decoded images held.
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    } // End of size()
+
+
+    /**
+     * Maps the decoded image of a source file, if the cache holds it.
+     *
+     * @param source  The file the image was decoded from.
+     * @param variant What else the decoded image depends on, such as its
+     *                subsampling.
+     * @return The mapped pixels, or null if the cache does not hold them.
+     * @throws IOException If the source file cannot be resolved.
+     */
+    MappedPixelBuffer get(File source, String variant) throws IOException {
+        String name = nameOf(source, variant);
+        Path file = directory.resolve(name);
+        MappedPixelBuffer pixels;
+        // A private mapping needs a channel open for writing, although
+        // nothing is written to the file
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            pixels = map(channel);
+        } catch (NoSuchFileException e) {
+            synchronized (entries) {
+                forget(name);
+            }
+            return null;
+        }
+        synchronized (entries) {
+            if (pixels == null) {
+                // Not an entry this version can read
+                forget(name);
+                Files.deleteIfExists(file);
+            } else if (!entries.containsKey(name)) {
+                // Added by another process
+                entries.put(name, file.toFile().length());
+                totalBytes += file.toFile().length();
+                evict(0);
+            } else {
+                // Marks the entry as the one used most recently
+                entries.get(name);
+            }
+        }
+        return pixels;
+    } // End of get(source, variant)
+
+
+    /**
+     * Stores the decoded image of a source file, deleting the entries used
+     * least recently if there is not room for it. An image larger than the
+     * whole cache is not stored.
+     *
+     * @param source  The file the image was decoded from.
+     * @param variant What else the decoded image depends on.
+     * @param width   The width of the image.
+     * @param height  The height of the image.
+     * @param pixels  The packed ARGB values of the image.
+     * @throws IOException If the entry cannot be written.
+     */
+    void put(File source, String variant, int width, int height,
+             int[] pixels) throws IOException {
+        long size = HEADER_BYTES + 4L * pixels.length;
+        if (size > maxBytes) {
+            return;
+        }
+        String name = nameOf(source, variant);
+        Path file = directory.resolve(name);
+        Path temporary = Files.createTempFile(directory, name, ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temporary,
+                    StandardOpenOption.WRITE)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES)
+                        .order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(MAGIC).putInt(VERSION).putInt(width)
+                        .putInt(height).putInt(BufferedImage.TYPE_INT_RGB);
+                writeFully(channel, header.flip());
+
+                ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_BYTES)
+                        .order(ByteOrder.LITTLE_ENDIAN);
+                IntBuffer ints = buffer.asIntBuffer();
+                int written = 0;
+                while (written < pixels.length) {
+                    int count = Math.min(ints.capacity(),
+                            pixels.length - written);
+                    ints.put(0, pixels, written, count);
+                    buffer.clear().limit(count * Integer.BYTES);
+                    writeFully(channel, buffer);
+                    written += count;
+                }
+            }
+            Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+        synchronized (entries) {
+            forget(name);
+            evict(size);
+            entries.put(name, size);
+            totalBytes += size;
+        }
+    } // End of put(source, variant, width, height, pixels)
+
+
+    /**
+     * Deletes every entry.
+     *
+     * @throws IOException If an entry cannot be deleted.
+     */
+    public void clear() throws IOException {
+        synchronized (entries) {
+            evict(maxBytes + 1);
+        }
+    } // End of clear()
+
+
+    /**
+     * Writes all the remaining bytes of a buffer.
+     *
+     * @param channel The channel written to.
+     * @param buffer  The bytes to write.
+     * @throws IOException If the bytes cannot be written.
+     */
+    private static void writeFully(FileChannel channel, ByteBuffer buffer)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    } // End of writeFully(channel, buffer)
+
+
+    /**
+     * Maps an entry, checking its header.
+     *
+     * @param channel The open entry.
+     * @return The pixels of the entry, or null if it is not a valid entry.
+     * @throws IOException If the entry cannot be read.
+     */
+    private static MappedPixelBuffer map(FileChannel channel)
+            throws IOException {
+        long size = channel.size();
+        if (size < HEADER_BYTES) {
+            return null;
+        }
+        MappedByteBuffer mapped = channel.map(FileChannel.MapMode.PRIVATE,
+                0, size);
+        mapped.order(ByteOrder.LITTLE_ENDIAN);
+        int width = mapped.getInt(8);
+        int height = mapped.getInt(12);
+        if (mapped.getInt(0) != MAGIC || mapped.getInt(4) != VERSION
+                || mapped.getInt(16) != BufferedImage.TYPE_INT_RGB
+                || width <= 0 || height <= 0
+                || size != HEADER_BYTES + 4L * width * height) {
+            return null;
+        }
+        IntBuffer pixels = mapped.position(HEADER_BYTES).slice()
+                .order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+        return new MappedPixelBuffer(pixels, width, height);
+    } // End of map(channel)
+
+
+    /**
+     * Deletes the entries used least recently until the given number of
+     * bytes fits. Must be called holding the lock on the entries.
+     *
+     * @param needed The number of bytes to make room for.
+     * @throws IOException If an entry cannot be deleted.
+     */
+    private void evict(long needed) throws IOException {
+        Iterator<Map.Entry<String, Long>> oldest = entries.entrySet().iterator();
+        while (totalBytes + needed > maxBytes && oldest.hasNext()) {
+            Map.Entry<String, Long> entry = oldest.next();
+            Files.deleteIfExists(directory.resolve(entry.getKey()));
+            totalBytes -= entry.getValue();
+            oldest.remove();
+        }
+    } // End of evict(needed)
+
+
+    /**
+     * Drops an entry from the bookkeeping. Must be called holding the lock
+     * on the entries.
+     *
+     * @param name The file name of the entry.
+     */
+    private void forget(String name) {
+        Long size = entries.remove(name);
+        if (size != null) {
+            totalBytes -= size;
+        }
+    } // End of forget(name)
+
+
+    /**
+     * Works out the file name of the entry for a source file.
+     *
+     * @param source  The file the image was decoded from.
+     * @param variant What else the decoded image depends on.
+     * @return A name made of the SHA-256 hash of the identity of the file.
+     * @throws IOException If the source file cannot be resolved.
+     */
+    private static String nameOf(File source, String variant)
+            throws IOException {
+        String identity = source.getCanonicalPath() + '\0' + source.length()
+                + '\0' + source.lastModified() + '\0' + variant;
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256")
+                    .digest(identity.getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder();
+            for (int i = 0; i < 16; i++) {
+                name.append(String.format("%02x", hash[i]));
+            }
+            return name.append(SUFFIX).toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(
+                    "RasterCache: SHA-256 is not available", e);
+        }
+    } // End of nameOf(source, variant)
+} // End of class RasterCache
@@ -0,0 +1,224 @@
+package UoASCNU.images;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The <code>RasterPool</code> class keeps the pixel arrays of images that
+ * are no longer needed, so that the next image of the same number of
+ * pixels can use them again instead of allocating new ones. In a batch of
+ * images of the same size, such as the photos of one camera, every image
+ * after the first is decoded and converted into arrays taken from the
+ * pool, and the garbage collector has almost nothing to do.
+ * <p>
+ * When a pool is given to <code>ImageFile.setRasterPool</code>, images
+ * decoded from files and blank images take their arrays from it, and
+ * <code>ImageFile.close</code> gives them back. An image must not be used
+ * after it is closed, since its arrays may already belong to another one.
+ * Images that are never closed simply leave their arrays to the garbage
+ * collector.
+ * <p>
+ * The pool holds at most a given number of bytes of idle arrays. When an
+ * array given back would take it over that size, the arrays of the sizes
+ * used least recently are dropped until it fits; an array larger than the
+ * whole pool is dropped straight away. The pool is safe to share between
+ * threads.
+ *
+ * @author Marco A. Palomino
+ */
+public class RasterPool {
+
+    /**
+     * The size of the pool when none is given: 256 MiB, enough for a few
+     * images of 12 megapixels and their gray versions.
+     */
+    public static final long DEFAULT_MAX_BYTES = 256L << 20;
+
+    private final long maxBytes;
+
+    // The idle arrays of every kind and length, sizes used least recently
+    // first. The key is the length of the arrays, negated for byte arrays
+    private final LinkedHashMap<Long, ArrayDeque<Object>> idle =
+            new LinkedHashMap<>(16, 0.75f, true);
+    private long idleBytes;
+    private long hits;
+    private long misses;
+
+    /**
+     * Constructor: Creates an empty pool.
+     *
+     * @param maxBytes The largest number of bytes the idle arrays may take.
+     */
+    public RasterPool(long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException(
+                    "RasterPool: Size must be positive [" + maxBytes + "]");
+        }
+        this.maxBytes = maxBytes;
+    } // End of constructor
+
+
+    /**
+     * Returns the size of the pool to use when none is given, for a heap
+     * of the given size: <code>DEFAULT_MAX_BYTES</code>, but no more than a
+     * quarter of the heap, so that a small heap is not taken up by idle
+     * arrays and still has room for the images being converted.
+     *
+     * @param heapBytes The largest size of the heap, as given by
+     *                  <code>Runtime.maxMemory</code>.
+     * @return The size limit of the pool.
+     */
+    public static long defaultMaxBytes(long heapBytes) {
+        return Math.min(DEFAULT_MAX_BYTES, heapBytes / 4);
+    } // End of defaultMaxBytes(heapBytes)
+
+
+    /**
+     * Returns the largest number of bytes the idle arrays may take.
+     *
+     * @return The size limit of the pool.
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    } // End of getMaxBytes()
+
+
+    /**
+     * Returns the number of bytes the idle arrays take now.
+     *
+     * @return The size of the pool.
+     */
+    public synchronized long getIdleBytes() {
+        return idleBytes;
+    } // End of getIdleBytes()
+
+
+    /**
+     * Returns the number of arrays handed out that were taken from the
+     * pool rather than allocated.
+     *
+     * @return The number of arrays used again.
+     */
+    public synchronized long getHits() {
+        return hits;
+    } // End of getHits()
+
+
+    /**
+     * Returns the number of arrays handed out that had to be allocated.
+     *
+     * @return The number of arrays allocated.
+     */
+    public synchronized long getMisses() {
+        return misses;
+    } // End of getMisses()
+
+
+    /**
+     * Drops every idle array.
+     */
+    public synchronized void clear() {
+        idle.clear();
+        idleBytes = 0;
+    } // End of clear()
+
+
+    /**
+     * Hands out an array of packed ARGB values. An array taken from the
+     * pool still holds the pixels of the image that used it last.
+     *
+     * @param length The number of pixels.
+     * @return An array of exactly that length.
+     */
+    int[] borrowInts(int length) {
+        int[] array = (int[]) take((long) length);
+        return array != null ? array : new int[length];
+    } // End of borrowInts(length)
+
+
+    /**
+     * Hands out an array of gray levels, like <code>borrowInts</code>.
+     *
+     * @param length The number of pixels.
+     * @return An array of exactly that length.
+     */
+    byte[] borrowBytes(int length) {
+        byte[] array = (byte[]) take(-(long) length);
+        return array != null ? array : new byte[length];
+    } // End of borrowBytes(length)
+
+
+    /**
+     * Gives back an array handed out by <code>borrowInts</code> or
+     * <code>borrowBytes</code>, or any other array of those kinds.
+     *
+     * @param array The array, which the caller must no longer use.
+     */
+    void release(Object array) {
+        long key;
+        long bytes;
+        if (array instanceof int[]) {
+            key = ((int[]) array).length;
+            bytes = 4L * key;
+        } else if (array instanceof byte[]) {
+            key = -(long) ((byte[]) array).length;
+            bytes = -key;
+        } else {
+            return;
+        }
+        if (bytes == 0 || bytes > maxBytes) {
+            return;
+        }
+        synchronized (this) {
+            // Room is made before the array is added, so that it is not
+            // dropped to make room for itself
+            Iterator<Map.Entry<Long, ArrayDeque<Object>>> oldest =
+                    idle.entrySet().iterator();
+            while (idleBytes + bytes > maxBytes && oldest.hasNext()) {
+                Map.Entry<Long, ArrayDeque<Object>> entry = oldest.next();
+                long size = bytesOf(entry.getKey());
+                ArrayDeque<Object> arrays = entry.getValue();
+                while (idleBytes + bytes > maxBytes && !arrays.isEmpty()) {
+                    arrays.pop();
+                    idleBytes -= size;
+                }
+                if (arrays.isEmpty()) {
+                    oldest.remove();
+                }
+            }
+            idle.computeIfAbsent(key, k -> new ArrayDeque<>()).push(array);
+            idleBytes += bytes;
+        }
+    } // End of release(array)
+
+
+    /**
+     * Takes an idle array of the given kind and length.
+     *
+     * @param key The length, negated for byte arrays.
+     * @return The array, or null if the pool has none.
+     */
+    private synchronized Object take(long key) {
+        ArrayDeque<Object> arrays = idle.get(key);
+        if (arrays == null || arrays.isEmpty()) {
+            misses++;
+            return null;
+        }
+        hits++;
+        idleBytes -= bytesOf(key);
+        return arrays.pop();
+    } // End of take(key)
+
+
+    /**
+     * Returns the number of bytes taken by an array of the given key.
+     *
+     * @param key The length, negated for byte arrays.
+     * @return The size of the array in bytes.
+     */
+    private static long bytesOf(long key) {
+        return key < 0 ? -key : 4L * key;
+    } // End of bytesOf(key)
+} // End of class RasterPool
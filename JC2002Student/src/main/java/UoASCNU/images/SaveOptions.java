@@ -0,0 +1,160 @@
+package UoASCNU.images;
+
+/**
+ * The <code>SaveOptions</code> class describes how an
+ * <code>ImageFile</code> is encoded when it is saved: the file format and,
+ * depending on the format, the JPEG quality, whether the JPEG is
+ * progressive, and the PNG compression level.
+ * <p>
+ * A new <code>SaveOptions</code> describes a baseline JPEG with the
+ * encoder's default quality, which is what <code>ImageFile.save</code> has
+ * always written. Options that do not apply to the chosen format are
+ * ignored.
+ *
+ * @author Marco A. Palomino
+ */
+public class SaveOptions {
+
+    /**
+     * Tells the encoder to use its own default quality or level.
+     */
+    public static final int DEFAULT = -1;
+
+    private OutputFormat format = OutputFormat.JPEG;
+    private float jpegQuality = DEFAULT;
+    private boolean progressive = false;
+    private int pngCompressionLevel = DEFAULT;
+
+    /**
+     * Constructor: Creates options for a baseline JPEG of default quality.
+     */
+    public SaveOptions() {
+    } // End of constructor
+
+    /**
+     * Constructor: Creates options for the given format with the encoder's
+     * default settings.
+     *
+     * @param format The format to save in.
+     */
+    public SaveOptions(OutputFormat format) {
+        setFormat(format);
+    } // End of constructor
+
+
+    /**
+     * @return The format to save in.
+     */
+    public OutputFormat getFormat() {
+        return format;
+    } // End of getFormat()
+
+    /**
+     * @param format The format to save in.
+     */
+    public void setFormat(OutputFormat format) {
+        if (format == null) {
+            throw new IllegalArgumentException(
+                    "SaveOptions: The format must not be null");
+        }
+        this.format = format;
+    } // End of setFormat(format)
+
+
+    /**
+     * @return The JPEG quality within [0, 1], or <code>DEFAULT</code>.
+     */
+    public float getJpegQuality() {
+        return jpegQuality;
+    } // End of getJpegQuality()
+
+    /**
+     * Sets the JPEG quality, from 0 (smallest file) to 1 (best quality).
+     *
+     * @param quality The quality within [0, 1], or <code>DEFAULT</code>.
+     */
+    public void setJpegQuality(float quality) {
+        if (quality != DEFAULT && (quality < 0 || quality > 1)) {
+            throw new IllegalArgumentException(
+                    "SaveOptions: JPEG quality must be within [0, 1]: "
+                            + quality);
+        }
+        jpegQuality = quality;
+    } // End of setJpegQuality(quality)
+
+
+    /**
+     * @return Whether JPEGs are written progressively.
+     */
+    public boolean isProgressive() {
+        return progressive;
+    } // End of isProgressive()
+
+    /**
+     * @param progressive Whether JPEGs are written progressively.
+     */
+    public void setProgressive(boolean progressive) {
+        this.progressive = progressive;
+    } // End of setProgressive(progressive)
+
+
+    /**
+     * @return The PNG compression level within [0, 9], or
+     * <code>DEFAULT</code>.
+     */
+    public int getPngCompressionLevel() {
+        return pngCompressionLevel;
+    } // End of getPngCompressionLevel()
+
+    /**
+     * Sets the PNG (deflate) compression level, from 0 (no compression) to
+     * 9 (smallest file).
+     *
+     * @param level The level within [0, 9], or <code>DEFAULT</code>.
+     */
+    public void setPngCompressionLevel(int level) {
+        if (level != DEFAULT && (level < 0 || level > 9)) {
+            throw new IllegalArgumentException(
+                    "SaveOptions: PNG compression level must be within"
+                            + " [0, 9]: " + level);
+        }
+        pngCompressionLevel = level;
+    } // End of setPngCompressionLevel(level)
+
+
+    /**
+     * @return Whether the encoder can be left at its default settings.
+     */
+    boolean isEncoderDefault() {
+        switch (format) {
+            case JPEG:
+                return jpegQuality == DEFAULT && !progressive;
+            case PNG:
+                return pngCompressionLevel == DEFAULT;
+            default:
+                return true;
+        }
+    } // End of isEncoderDefault()
+
+
+    /**
+     * @return A short description such as "jpg;quality=0.9;progressive",
+     * naming only the settings that are not defaults.
+     */
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder(format.getFormatName());
+        if (format == OutputFormat.JPEG) {
+            if (jpegQuality != DEFAULT) {
+                text.append(";quality=").append(jpegQuality);
+            }
+            if (progressive) {
+                text.append(";progressive");
+            }
+        } else if (format == OutputFormat.PNG
+                && pngCompressionLevel != DEFAULT) {
+            text.append(";level=").append(pngCompressionLevel);
+        }
+        return text.toString();
+    } // End of toString()
+} // End of class SaveOptions
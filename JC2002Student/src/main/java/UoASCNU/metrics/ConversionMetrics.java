@@ -0,0 +1,183 @@
+package UoASCNU.metrics;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The <code>ConversionMetrics</code> class is a registry of how many
+ * images went through each <code>Stage</code>, how many failed, how many
+ * bytes they moved and how long they took, as a latency histogram per
+ * stage. The image and processing classes record into the shared
+ * registry returned by <code>global()</code>; its summary can be printed
+ * as text or JSON at the end of a batch.
+ *
+ * @author Marco A. Palomino
+ */
+public class ConversionMetrics {
+
+    private static final ConversionMetrics GLOBAL = new ConversionMetrics();
+
+    /**
+     * The figures kept for one stage.
+     */
+    private static final class StageMetrics {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LongAdder failures = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+    } // End of class StageMetrics
+
+    private final Map<Stage, StageMetrics> stages = new EnumMap<>(Stage.class);
+
+    /**
+     * Constructor: Creates an empty registry.
+     */
+    public ConversionMetrics() {
+        for (Stage stage : Stage.values()) {
+            stages.put(stage, new StageMetrics());
+        }
+    } // End of constructor
+
+
+    /**
+     * @return The registry shared by the whole program.
+     */
+    public static ConversionMetrics global() {
+        return GLOBAL;
+    } // End of global()
+
+
+    /**
+     * Starts timing an image going through a stage, recording into the
+     * shared registry.
+     *
+     * @param stage The stage being timed.
+     * @return A timer to stop once the stage is over.
+     */
+    public static StageTimer start(Stage stage) {
+        return new StageTimer(GLOBAL, stage);
+    } // End of start(stage)
+
+
+    /**
+     * Records an image completing a stage.
+     *
+     * @param stage The stage completed.
+     * @param nanos How long it took, in nanoseconds.
+     * @param bytes How many bytes were read, written or processed.
+     */
+    public void record(Stage stage, long nanos, long bytes) {
+        StageMetrics metrics = stages.get(stage);
+        metrics.latency.record(nanos);
+        metrics.bytes.add(bytes);
+    } // End of record(stage, nanos, bytes)
+
+    /**
+     * Records an image failing a stage.
+     *
+     * @param stage The stage that failed.
+     */
+    public void recordFailure(Stage stage) {
+        stages.get(stage).failures.increment();
+    } // End of recordFailure(stage)
+
+
+    /**
+     * Forgets everything recorded, for example after a warm-up run, so
+     * that the figures cover only what follows.
+     */
+    public void reset() {
+        for (StageMetrics metrics : stages.values()) {
+            metrics.latency.reset();
+            metrics.failures.reset();
+            metrics.bytes.reset();
+        }
+    } // End of reset()
+
+
+    /**
+     * @param stage A stage.
+     * @return The latency histogram of the stage.
+     */
+    public LatencyHistogram getLatency(Stage stage) {
+        return stages.get(stage).latency;
+    } // End of getLatency(stage)
+
+    /**
+     * @param stage A stage.
+     * @return How many images failed the stage.
+     */
+    public long getFailures(Stage stage) {
+        return stages.get(stage).failures.sum();
+    } // End of getFailures(stage)
+
+    /**
+     * @param stage A stage.
+     * @return How many bytes the stage read, wrote or processed.
+     */
+    public long getBytes(Stage stage) {
+        return stages.get(stage).bytes.sum();
+    } // End of getBytes(stage)
+
+
+    /**
+     * Returns a table with a line per stage that has been used, giving
+     * the number of images, failures, bytes, and the mean, p50, p99 and
+     * maximum latency in milliseconds.
+     *
+     * @return The summary as text.
+     */
+    public String summary() {
+        StringBuilder text = new StringBuilder(String.format(
+                "%-9s %8s %8s %12s %9s %9s %9s %9s",
+                "stage", "count", "failed", "bytes", "mean ms", "p50 ms",
+                "p99 ms", "max ms"));
+        for (Stage stage : Stage.values()) {
+            StageMetrics metrics = stages.get(stage);
+            long count = metrics.latency.getCount();
+            if (count == 0 && metrics.failures.sum() == 0) {
+                continue;
+            }
+            text.append(System.lineSeparator()).append(String.format(
+                    "%-9s %8d %8d %12d %9.2f %9.2f %9.2f %9.2f",
+                    stage.name().toLowerCase(), count, metrics.failures.sum(),
+                    metrics.bytes.sum(),
+                    millis(count == 0 ? 0 : metrics.latency.getTotalNanos() / count),
+                    millis(metrics.latency.percentileNanos(0.50)),
+                    millis(metrics.latency.percentileNanos(0.99)),
+                    millis(metrics.latency.getMaxNanos())));
+        }
+        return text.toString();
+    } // End of summary()
+
+
+    /**
+     * Returns the same figures as <code>summary</code> as a JSON object
+     * with a member per stage. Latencies are in nanoseconds.
+     *
+     * @return The summary as JSON.
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder("{");
+        String separator = "";
+        for (Stage stage : Stage.values()) {
+            StageMetrics metrics = stages.get(stage);
+            LatencyHistogram latency = metrics.latency;
+            json.append(separator).append(String.format(
+                    "\"%s\":{\"count\":%d,\"failures\":%d,\"bytes\":%d,"
+                            + "\"totalNanos\":%d,\"p50Nanos\":%d,"
+                            + "\"p99Nanos\":%d,\"maxNanos\":%d}",
+                    stage.name().toLowerCase(), latency.getCount(),
+                    metrics.failures.sum(), metrics.bytes.sum(),
+                    latency.getTotalNanos(), latency.percentileNanos(0.50),
+                    latency.percentileNanos(0.99), latency.getMaxNanos()));
+            separator = ",";
+        }
+        return json.append('}').toString();
+    } // End of toJson()
+
+
+    private static double millis(long nanos) {
+        return nanos / 1_000_000.0;
+    } // End of millis(nanos)
+} // End of class ConversionMetrics
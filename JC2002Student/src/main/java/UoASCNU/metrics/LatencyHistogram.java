@@ -0,0 +1,133 @@
+package UoASCNU.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The <code>LatencyHistogram</code> class counts durations in buckets that
+ * grow with the duration, so that percentiles can be read back at any time
+ * with a bounded error and a fixed amount of memory. Every power of two is
+ * split into eight buckets, so a percentile is never more than 12.5% above
+ * the true value. Recording is lock-free and safe from any thread.
+ *
+ * @author Marco A. Palomino
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private final AtomicLongArray counts =
+            new AtomicLongArray(64 * SUB_BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Records one duration.
+     *
+     * @param nanos The duration in nanoseconds.
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(bucketOf(value));
+        count.increment();
+        total.add(value);
+        max.accumulate(value);
+    } // End of record(nanos)
+
+
+    /**
+     * Forgets every duration recorded, for example after a warm-up run.
+     * Durations recorded meanwhile by other threads may be partly kept.
+     */
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+        count.reset();
+        total.reset();
+        max.reset();
+    } // End of reset()
+
+
+    /**
+     * @return The number of durations recorded.
+     */
+    public long getCount() {
+        return count.sum();
+    } // End of getCount()
+
+    /**
+     * @return The sum of the durations recorded, in nanoseconds.
+     */
+    public long getTotalNanos() {
+        return total.sum();
+    } // End of getTotalNanos()
+
+    /**
+     * @return The longest duration recorded, in nanoseconds.
+     */
+    public long getMaxNanos() {
+        return max.get();
+    } // End of getMaxNanos()
+
+
+    /**
+     * Returns the duration below which the given fraction of the recorded
+     * durations fall.
+     *
+     * @param fraction The fraction, for example 0.99 for the 99th
+     *                 percentile.
+     * @return The upper bound of the bucket holding that percentile, in
+     * nanoseconds, or 0 if nothing was recorded.
+     */
+    public long percentileNanos(double fraction) {
+        long recorded = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            recorded += counts.get(i);
+        }
+        if (recorded == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(fraction * recorded));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBoundOf(i), getMaxNanos());
+            }
+        }
+        return getMaxNanos();
+    } // End of percentileNanos(fraction)
+
+
+    /**
+     * Works out the bucket of a duration. Durations below eight
+     * nanoseconds get a bucket each; above that, the bucket is given by
+     * the highest set bit and the three bits after it.
+     */
+    private static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (magnitude - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    } // End of bucketOf(value)
+
+
+    /**
+     * Returns the largest duration that falls in the given bucket.
+     */
+    private static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int magnitude = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long sub = bucket % SUB_BUCKETS;
+        long lower = (SUB_BUCKETS + sub) << (magnitude - SUB_BUCKET_BITS);
+        return lower + (1L << (magnitude - SUB_BUCKET_BITS)) - 1;
+    } // End of upperBoundOf(bucket)
+} // End of class LatencyHistogram
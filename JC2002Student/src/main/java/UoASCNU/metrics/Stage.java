@@ -0,0 +1,21 @@
+package UoASCNU.metrics;
+
+/**
+ * The stages an image goes through on its way from one file to another.
+ *
+ * @author Marco A. Palomino
+ */
+public enum Stage {
+    /** Reading and decoding the image file. */
+    DECODE,
+    /** Mapping an already decoded raster from the raster cache. */
+    CACHE_LOAD,
+    /** Redrawing a decoded image into the packed raster of an ImageFile. */
+    NORMALIZE,
+    /** Converting the pixels to grayscale. */
+    CONVERT,
+    /** Encoding and writing the resulting image file. */
+    ENCODE,
+    /** Decoding, converting and encoding strip by strip, all in one. */
+    STREAM
+} // End of enum Stage
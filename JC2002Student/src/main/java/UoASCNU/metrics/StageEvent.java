@@ -0,0 +1,42 @@
+package UoASCNU.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The <code>StageEvent</code> class is the JDK Flight Recorder event
+ * committed each time an image completes a <code>Stage</code>. Start a
+ * recording with <code>-XX:StartFlightRecording</code> and look for
+ * <code>UoASCNU.Stage</code> events to see where the time of a slow batch
+ * went.
+ *
+ * @author Marco A. Palomino
+ */
+@Name("UoASCNU.Stage")
+@Label("Image Stage")
+@Category({"UoASCNU", "Image Conversion"})
+@Description("An image going through one stage of the conversion")
+public class StageEvent extends Event {
+
+    @Label("Stage")
+    String stage;
+
+    @Label("File")
+    @Description("The file being read or written, if there is one")
+    String file;
+
+    @Label("Width")
+    int width;
+
+    @Label("Height")
+    int height;
+
+    @Label("Bytes")
+    @Description("The size of the file for decode and encode stages, of the raster otherwise")
+    @DataAmount
+    long bytes;
+} // End of class StageEvent
@@ -0,0 +1,63 @@
+package UoASCNU.metrics;
+
+/**
+ * The <code>StageTimer</code> class times one image going through one
+ * stage. It is obtained from <code>ConversionMetrics.start</code> and
+ * stopped once the stage is over, which records the duration in the
+ * registry and commits a <code>StageEvent</code> if Flight Recorder is
+ * recording.
+ *
+ * @author Marco A. Palomino
+ */
+public class StageTimer {
+
+    private final ConversionMetrics metrics;
+    private final Stage stage;
+    private final StageEvent event = new StageEvent();
+    private final long startNanos;
+
+    /**
+     * Constructor: Starts timing a stage.
+     *
+     * @param metrics The registry the duration is recorded in.
+     * @param stage   The stage being timed.
+     */
+    StageTimer(ConversionMetrics metrics, Stage stage) {
+        this.metrics = metrics;
+        this.stage = stage;
+        event.begin();
+        startNanos = System.nanoTime();
+    } // End of constructor
+
+
+    /**
+     * Stops timing and records the stage as completed.
+     *
+     * @param file   The file read or written, or null if there is none.
+     * @param width  The width of the image.
+     * @param height The height of the image.
+     * @param bytes  The number of bytes read, written or processed.
+     */
+    public void stop(String file, int width, int height, long bytes) {
+        long nanos = System.nanoTime() - startNanos;
+        event.end();
+        if (event.shouldCommit()) {
+            event.stage = stage.name();
+            event.file = file;
+            event.width = width;
+            event.height = height;
+            event.bytes = bytes;
+            event.commit();
+        }
+        metrics.record(stage, nanos, bytes);
+    } // End of stop(file, width, height, bytes)
+
+
+    /**
+     * Stops timing a stage that failed. The failure is counted, but its
+     * duration is left out of the histogram.
+     */
+    public void fail() {
+        metrics.recordFailure(stage);
+    } // End of fail()
+} // End of class StageTimer
@@ -0,0 +1,242 @@
+package UoASCNU.processing;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The <code>AdmissionScheduler</code> class keeps concurrent conversions
+ * within a budget of heap memory. Before an image is decoded, the memory
+ * its conversion will need at its peak is estimated from the dimensions in
+ * its header, which are read without decoding it, and the conversion is
+ * admitted only once that much of the budget is free. It gives the memory
+ * back when its grayscale image has been saved.
+ * <p>
+ * Many small images therefore run side by side, while a huge one waits
+ * until enough of the others have finished and then has the headroom it
+ * needs. Admissions are granted in the order they are asked for, so a
+ * large image is not overtaken by a stream of small ones; an image needing
+ * more than the whole budget runs alone. <code>BatchPipeline</code> also
+ * takes the largest of the next few images first, since starting the
+ * longest conversions early shortens the end of the batch, where only
+ * they would be left running.
+ * <p>
+ * The estimate is the number of pixels times a number of bytes per pixel:
+ * by default 4 for the packed ARGB pixels, 3 for the decoded rows they are
+ * copied from, 1 for the gray result and 4 for the working buffers of the
+ * decoder and encoder. Pixel arrays idle in a <code>RasterPool</code> are
+ * not part of the budget, so the budget should leave room for the pool.
+ *
+ * @author Marco A. Palomino
+ */
+public class AdmissionScheduler {
+
+    /**
+     * The bytes a conversion is expected to need per pixel when no other
+     * estimate is given.
+     */
+    public static final int DEFAULT_BYTES_PER_PIXEL = 12;
+
+    /**
+     * The number of images whose headers are read ahead to find the
+     * largest when no other number is given.
+     */
+    public static final int DEFAULT_LOOKAHEAD = 32;
+
+    /**
+     * The <code>Admission</code> class is the share of the budget held by
+     * one conversion. Closing it gives the share back, once.
+     */
+    public final class Admission implements AutoCloseable {
+        private final int kilobytes;
+        private boolean released;
+
+        private Admission(int kilobytes) {
+            this.kilobytes = kilobytes;
+        }
+
+        /**
+         * Returns the number of bytes of the budget held.
+         *
+         * @return The size of the share.
+         */
+        public long getBytes() {
+            return (long) kilobytes << 10;
+        } // End of getBytes()
+
+        /**
+         * Gives the share back to the budget.
+         */
+        @Override
+        public synchronized void close() {
+            if (!released) {
+                released = true;
+                admittedBytes.addAndGet(-getBytes());
+                memory.release(kilobytes);
+            }
+        } // End of close()
+    } // End of class Admission
+
+    private final long budgetBytes;
+    private final int budgetKilobytes;
+    // One permit per KiB of the budget, granted in order
+    private final Semaphore memory;
+    private int bytesPerPixel = DEFAULT_BYTES_PER_PIXEL;
+    private int lookahead = DEFAULT_LOOKAHEAD;
+    private final AtomicLong admittedBytes = new AtomicLong();
+    private final AtomicLong peakBytes = new AtomicLong();
+
+    /**
+     * Constructor: Creates a scheduler with the given budget.
+     *
+     * @param budgetBytes The number of bytes of heap the conversions
+     *                    admitted may use together.
+     */
+    public AdmissionScheduler(long budgetBytes) {
+        if (budgetBytes < 1024) {
+            throw new IllegalArgumentException(
+                    "AdmissionScheduler: Budget must be at least 1 KiB ["
+                            + budgetBytes + "]");
+        }
+        this.budgetKilobytes = (int) Math.min(Integer.MAX_VALUE,
+                budgetBytes >> 10);
+        this.budgetBytes = (long) budgetKilobytes << 10;
+        this.memory = new Semaphore(budgetKilobytes, true);
+    } // End of constructor
+
+
+    /**
+     * Returns the budget to use when none is given: three quarters of the
+     * heap left beside the raster pool, but never less than a quarter of
+     * the heap, so that a pool as large as the heap, or larger, still
+     * leaves the conversions a budget to be admitted against.
+     *
+     * @param heapBytes       The largest size of the heap, as given by
+     *                        <code>Runtime.maxMemory</code>.
+     * @param rasterPoolBytes The size of the raster pool, or 0 if there
+     *                        is none.
+     * @return The budget in bytes.
+     */
+    public static long defaultBudget(long heapBytes, long rasterPoolBytes) {
+        return Math.max(heapBytes / 4,
+                (heapBytes - Math.max(0, rasterPoolBytes)) / 4 * 3);
+    } // End of defaultBudget(heapBytes, rasterPoolBytes)
+
+
+    /**
+     * Returns the number of bytes the conversions admitted may use
+     * together.
+     *
+     * @return The budget, rounded down to whole KiB.
+     */
+    public long getBudgetBytes() {
+        return budgetBytes;
+    } // End of getBudgetBytes()
+
+
+    /**
+     * Returns the bytes a conversion is expected to need per pixel.
+     *
+     * @return The bytes per pixel.
+     */
+    public int getBytesPerPixel() {
+        return bytesPerPixel;
+    } // End of getBytesPerPixel()
+
+
+    /**
+     * Sets the bytes a conversion is expected to need per pixel, for
+     * example more for images decoded by plugins that keep a copy of the
+     * whole image.
+     *
+     * @param bytesPerPixel The bytes per pixel.
+     */
+    public void setBytesPerPixel(int bytesPerPixel) {
+        if (bytesPerPixel <= 0) {
+            throw new IllegalArgumentException(
+                    "AdmissionScheduler: Bytes per pixel must be positive ["
+                            + bytesPerPixel + "]");
+        }
+        this.bytesPerPixel = bytesPerPixel;
+    } // End of setBytesPerPixel(bytesPerPixel)
+
+
+    /**
+     * Returns the number of images whose headers are read ahead to find
+     * the largest.
+     *
+     * @return The number of images looked at.
+     */
+    public int getLookahead() {
+        return lookahead;
+    } // End of getLookahead()
+
+
+    /**
+     * Sets the number of images whose headers are read ahead to find the
+     * largest. 1 converts the images in the order they are given.
+     *
+     * @param lookahead The number of images looked at.
+     */
+    public void setLookahead(int lookahead) {
+        if (lookahead <= 0) {
+            throw new IllegalArgumentException(
+                    "AdmissionScheduler: Lookahead must be positive ["
+                            + lookahead + "]");
+        }
+        this.lookahead = lookahead;
+    } // End of setLookahead(lookahead)
+
+
+    /**
+     * Returns the number of bytes held by the conversions admitted now.
+     *
+     * @return The part of the budget in use.
+     */
+    public long getAdmittedBytes() {
+        return admittedBytes.get();
+    } // End of getAdmittedBytes()
+
+
+    /**
+     * Returns the largest number of bytes held at once so far.
+     *
+     * @return The peak use of the budget.
+     */
+    public long getPeakAdmittedBytes() {
+        return peakBytes.get();
+    } // End of getPeakAdmittedBytes()
+
+
+    /**
+     * Estimates the memory the conversion of an image needs at its peak.
+     *
+     * @param width  The width of the image, from its header.
+     * @param height The height of the image, from its header.
+     * @return The estimate in bytes.
+     */
+    public long estimateBytes(int width, int height) {
+        return (long) width * height * bytesPerPixel;
+    } // End of estimateBytes(width, height)
+
+
+    /**
+     * Waits until the given number of bytes of the budget is free and
+     * takes it. A conversion needing more than the whole budget waits for
+     * all of it.
+     *
+     * @param bytes The estimate of the conversion.
+     * @return The share of the budget, to be closed when the conversion
+     * has finished.
+     * @throws InterruptedException If the thread is interrupted while
+     *                              waiting.
+     */
+    public Admission admit(long bytes) throws InterruptedException {
+        int kilobytes = (int) Math.max(1,
+                Math.min(budgetKilobytes, (bytes + 1023) >> 10));
+        memory.acquire(kilobytes);
+        Admission admission = new Admission(kilobytes);
+        peakBytes.accumulateAndGet(
+                admittedBytes.addAndGet(admission.getBytes()), Math::max);
+        return admission;
+    } // End of admit(bytes)
+} // End of class AdmissionScheduler
@@ -0,0 +1,92 @@
+package UoASCNU.processing;
+
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The <code>BandTask</code> class processes a band of rows of an image on a
+ * fork/join pool. Bands taller than the band height are split in half, and
+ * the halves are forked so that idle workers can steal them.
+ *
+ * @author Marco A. Palomino
+ */
+class BandTask extends RecursiveAction {
+
+    /**
+     * The <code>Rows</code> interface is the work done on each band.
+     */
+    interface Rows {
+
+        /**
+         * Processes the rows in [fromY, toY).
+         *
+         * @param fromY The first row to process.
+         * @param toY   The row after the last row to process.
+         */
+        void process(int fromY, int toY);
+    } // End of interface Rows
+
+    /**
+     * The smallest number of pixels worth handing to a worker of its own.
+     */
+    static final int MIN_BAND_PIXELS = 1 << 14;
+
+    /**
+     * How many bands each worker should get, so that stealing can make up
+     * for workers that fall behind.
+     */
+    static final int BANDS_PER_THREAD = 4;
+
+    private static final long serialVersionUID = 1L;
+
+    private final Rows rows;
+    private final int fromY;
+    private final int toY;
+    private final int bandHeight;
+
+    /**
+     * Constructor: Creates a task processing the rows in [fromY, toY).
+     *
+     * @param rows       The work done on each band.
+     * @param fromY      The first row to process.
+     * @param toY        The row after the last row to process.
+     * @param bandHeight The number of rows processed without splitting.
+     */
+    BandTask(Rows rows, int fromY, int toY, int bandHeight) {
+        this.rows = rows;
+        this.fromY = fromY;
+        this.toY = toY;
+        this.bandHeight = bandHeight;
+    } // End of constructor
+
+
+    /**
+     * Works out how many rows a band should have for an image of the given
+     * size processed by the given number of threads.
+     *
+     * @param width       The width of the image.
+     * @param height      The height of the image.
+     * @param parallelism The number of threads processing the image.
+     * @return The number of rows in a band, at least one.
+     */
+    static int bandHeight(int width, int height, int parallelism) {
+        int rows = height / (parallelism * BANDS_PER_THREAD);
+        int minimumRows = (MIN_BAND_PIXELS + width - 1) / width;
+        return Math.max(1, Math.max(rows, minimumRows));
+    } // End of bandHeight(width, height, parallelism)
+
+
+    /**
+     * Processes the band, splitting it first if it is too tall.
+     */
+    @Override
+    protected void compute() {
+        if (toY - fromY <= bandHeight) {
+            rows.process(fromY, toY);
+        } else {
+            int middle = (fromY + toY) >>> 1;
+            invokeAll(
+                    new BandTask(rows, fromY, middle, bandHeight),
+                    new BandTask(rows, middle, toY, bandHeight));
+        }
+    } // End of compute()
+} // End of class BandTask
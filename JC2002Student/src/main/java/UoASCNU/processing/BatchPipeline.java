@@ -0,0 +1,413 @@
+package UoASCNU.processing;
+
+import UoASCNU.images.ImageFile;
+
+import java.io.File;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The <code>BatchPipeline</code> class converts a batch of images to
+ * grayscale in three overlapping stages: reading (decoding) the images,
+ * converting them, and saving (encoding) the results. Each stage has its
+ * own workers and hands its images to the next through a bounded queue,
+ * so disk, decoder and encoder work at the same time, and a stage that
+ * falls behind makes the stages before it wait instead of piling up
+ * decoded images in memory.
+ * <p>
+ * An image that fails at any stage is recorded in the
+ * <code>BatchResult</code> and dropped; the rest of the batch carries on.
+ * This holds for errors as well as exceptions: an image too large for
+ * the heap fails with an <code>OutOfMemoryError</code>, which is recorded
+ * like any other failure, and its memory is freed for the next ones.
+ * <p>
+ * With an <code>AdmissionScheduler</code>, the readers read the headers of
+ * the next few images, take the largest first, and decode it only once
+ * the scheduler admits it. It keeps its share of the memory budget until
+ * its grayscale image has been saved.
+ *
+ * @author Marco A. Palomino
+ */
+public class BatchPipeline {
+
+    /**
+     * The <code>Job</code> class carries one image through the stages.
+     */
+    private static final class Job {
+        final File file;
+        final ImageFile image;
+        final long bytes;
+        final AdmissionScheduler.Admission admission;
+
+        Job(File file, ImageFile image, long bytes,
+            AdmissionScheduler.Admission admission) {
+            this.file = file;
+            this.image = image;
+            this.bytes = bytes;
+            this.admission = admission;
+        }
+
+        Job with(ImageFile image) {
+            return new Job(file, image, bytes, admission);
+        }
+
+        void release() {
+            if (admission != null) {
+                admission.close();
+            }
+        }
+    } // End of class Job
+
+    /**
+     * Tells a worker that the stage before it has finished.
+     */
+    private static final Job END = new Job(null, null, 0, null);
+
+    private final int readers;
+    private final int converters;
+    private final int writers;
+    private final int queueCapacity;
+    private GrayscaleMode mode = GrayscaleMode.AVERAGE;
+    private AdmissionScheduler scheduler;
+
+    /**
+     * Constructor: Creates a pipeline with the given number of reading
+     * and saving threads, a converting thread for every four of those,
+     * and queues holding two images per thread.
+     *
+     * @param threads The number of reading threads and of saving threads.
+     */
+    public BatchPipeline(int threads) {
+        this(threads, Math.max(1, threads / 4), threads, 2 * threads);
+    } // End of constructor
+
+    /**
+     * Constructor: Creates a pipeline with the given number of workers per
+     * stage.
+     *
+     * @param readers       The number of threads decoding images.
+     * @param converters    The number of threads converting images.
+     * @param writers       The number of threads encoding and saving images.
+     * @param queueCapacity The number of images each queue between two
+     *                      stages can hold before the stage feeding it
+     *                      has to wait.
+     */
+    public BatchPipeline(int readers, int converters, int writers,
+                         int queueCapacity) {
+        if (readers <= 0 || converters <= 0 || writers <= 0
+                || queueCapacity <= 0) {
+            throw new IllegalArgumentException(
+                    "BatchPipeline: Thread counts and queue capacity must"
+                            + " be positive");
+        }
+        this.readers = readers;
+        this.converters = converters;
+        this.writers = writers;
+        this.queueCapacity = queueCapacity;
+    } // End of constructor
+
+
+    /**
+     * Returns the number of workers the pipeline runs at once.
+     *
+     * @return The total number of workers of all the stages.
+     */
+    public int getWorkerCount() {
+        return readers + converters + writers;
+    } // End of getWorkerCount()
+
+
+    /**
+     * Returns how colours are turned into gray levels.
+     *
+     * @return The grayscale mode, <code>AVERAGE</code> by default.
+     */
+    public GrayscaleMode getMode() {
+        return mode;
+    } // End of getMode()
+
+
+    /**
+     * Sets how colours are turned into gray levels. In
+     * <code>GrayscaleMode.LUMA</code>, the readers read JPEGs straight to
+     * gray with <code>ImageFile.lumaOf</code>, and the converters pass them
+     * on as they are.
+     *
+     * @param mode The grayscale mode.
+     */
+    public void setMode(GrayscaleMode mode) {
+        if (mode == null) {
+            throw new IllegalArgumentException(
+                    "BatchPipeline: Grayscale mode must not be null");
+        }
+        this.mode = mode;
+    } // End of setMode(mode)
+
+
+    /**
+     * Returns the scheduler admitting images against a memory budget.
+     *
+     * @return The scheduler, or null if images are not limited by memory.
+     */
+    public AdmissionScheduler getScheduler() {
+        return scheduler;
+    } // End of getScheduler()
+
+
+    /**
+     * Sets the scheduler admitting images against a memory budget.
+     *
+     * @param scheduler The scheduler, or null to decode images as soon as
+     *                  a reader is free, in the order they are given.
+     */
+    public void setScheduler(AdmissionScheduler scheduler) {
+        this.scheduler = scheduler;
+    } // End of setScheduler(scheduler)
+
+
+    /**
+     * Converts the given images on a thread pool of its own, saving each
+     * result as "gray-" followed by the original file name.
+     *
+     * @param imageFiles The images to convert.
+     * @return A summary of the images converted and the ones that failed.
+     */
+    public BatchResult run(Iterable<File> imageFiles) {
+        ExecutorService executor =
+                Executors.newFixedThreadPool(getWorkerCount());
+        try {
+            return run(imageFiles, executor);
+        } finally {
+            executor.shutdown();
+        }
+    } // End of run(imageFiles)
+
+
+    /**
+     * Converts the given images on the given executor, saving each result
+     * as "gray-" followed by the original file name. The executor must be
+     * able to run <code>getWorkerCount()</code> tasks at the same time,
+     * since every worker runs until its stage has finished.
+     *
+     * @param imageFiles The images to convert. They are taken one at a time
+     *                   as readers become free, so the iterable may keep
+     *                   producing files while the batch runs.
+     * @param executor   The executor that runs the workers.
+     * @return A summary of the images converted and the ones that failed.
+     */
+    public BatchResult run(Iterable<File> imageFiles, Executor executor) {
+        long start = System.nanoTime();
+        BatchResult result = new BatchResult();
+        Iterator<File> files = imageFiles.iterator();
+        BlockingQueue<Job> decoded = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<Job> converted = new ArrayBlockingQueue<>(queueCapacity);
+        AtomicInteger readersLeft = new AtomicInteger(readers);
+        AtomicInteger convertersLeft = new AtomicInteger(converters);
+        CountDownLatch writersDone = new CountDownLatch(writers);
+        GrayscaleMode mode = this.mode;
+        AdmissionScheduler scheduler = this.scheduler;
+        // The images whose headers have been read, largest first
+        PriorityQueue<Job> waiting = new PriorityQueue<>(
+                Comparator.comparingLong((Job job) -> job.bytes).reversed());
+
+        for (int i = 0; i < readers; i++) {
+            executor.execute(() -> {
+                try {
+                    Job job;
+                    while ((job = next(files, waiting, scheduler, result)) != null) {
+                        AdmissionScheduler.Admission admission = null;
+                        ImageFile image = null;
+                        boolean read = false;
+                        try {
+                            if (scheduler != null) {
+                                admission = scheduler.admit(job.bytes);
+                            }
+                            // JPEGs read straight to gray, if possible
+                            image = mode == GrayscaleMode.LUMA
+                                    ? ImageFile.lumaOf(job.file) : null;
+                            if (image == null) {
+                                image = job.image != null ? job.image
+                                        : new ImageFile(job.file);
+                            }
+                            // Decoded here rather than by the converters
+                            image.load();
+                            read = true;
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new RuntimeException(
+                                    "BatchPipeline: Interrupted waiting for memory", e);
+                        } catch (Throwable e) {
+                            result.addFailure(job.file, "read", failureOf(e));
+                            continue;
+                        } finally {
+                            if (!read) {
+                                if (image != null) {
+                                    image.close();
+                                }
+                                if (admission != null) {
+                                    admission.close();
+                                }
+                            }
+                        }
+                        put(decoded, new Job(job.file, image, job.bytes, admission));
+                    }
+                } finally {
+                    if (readersLeft.decrementAndGet() == 0) {
+                        for (int j = 0; j < converters; j++) {
+                            put(decoded, END);
+                        }
+                    }
+                }
+            });
+        }
+        for (int i = 0; i < converters; i++) {
+            executor.execute(() -> {
+                try {
+                    Job job;
+                    while ((job = take(decoded)) != END) {
+                        if (mode == GrayscaleMode.LUMA && job.image.isGray()) {
+                            // Read by lumaOf, so already converted
+                            put(converted, job.with(job.image));
+                            continue;
+                        }
+                        ImageFile grayscaleImage;
+                        try {
+                            grayscaleImage =
+                                    GrayscaleConverter.makeGray(job.image, mode);
+                        } catch (Throwable e) {
+                            job.release();
+                            result.addFailure(job.file, "convert", failureOf(e));
+                            continue;
+                        } finally {
+                            // Gives its pixels back to the raster pool
+                            job.image.close();
+                        }
+                        put(converted, job.with(grayscaleImage));
+                    }
+                } finally {
+                    if (convertersLeft.decrementAndGet() == 0) {
+                        for (int j = 0; j < writers; j++) {
+                            put(converted, END);
+                        }
+                    }
+                }
+            });
+        }
+        for (int i = 0; i < writers; i++) {
+            executor.execute(() -> {
+                try {
+                    Job job;
+                    while ((job = take(converted)) != END) {
+                        try {
+                            GrayscaleConverter.saveGray(job.file, job.image);
+                            result.addSuccess(job.file);
+                        } catch (Throwable e) {
+                            result.addFailure(job.file, "save", failureOf(e));
+                        } finally {
+                            job.image.close();
+                            job.release();
+                        }
+                    }
+                } finally {
+                    writersDone.countDown();
+                }
+            });
+        }
+
+        try {
+            writersDone.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(
+                    "BatchPipeline: Interrupted waiting for the batch", e);
+        }
+        result.setElapsedNanos(System.nanoTime() - start);
+        return result;
+    } // End of run(imageFiles, executor)
+
+
+    /**
+     * Takes the next image to read, shared by all the readers. With a
+     * scheduler, the headers of images are read until it has looked at
+     * as many as it looks ahead, and the largest of them is taken.
+     *
+     * @param files     The files still to look at.
+     * @param waiting   The images looked at but not yet taken.
+     * @param scheduler The scheduler, or null.
+     * @param result    Where images whose header cannot be read are
+     *                  recorded.
+     * @return The next image, or null if there are none left.
+     */
+    private static Job next(Iterator<File> files, PriorityQueue<Job> waiting,
+                            AdmissionScheduler scheduler, BatchResult result) {
+        synchronized (files) {
+            if (scheduler == null) {
+                return files.hasNext()
+                        ? new Job(files.next(), null, 0, null) : null;
+            }
+            while (waiting.size() < scheduler.getLookahead()
+                    && files.hasNext()) {
+                File file = files.next();
+                try {
+                    ImageFile image = new ImageFile(file);
+                    waiting.add(new Job(file, image, scheduler.estimateBytes(
+                            image.getWidth(), image.getHeight()), null));
+                } catch (Throwable e) {
+                    result.addFailure(file, "read", failureOf(e));
+                }
+            }
+            return waiting.poll();
+        }
+    } // End of next(files, waiting, scheduler, result)
+
+
+    /**
+     * Returns why an image failed as an exception that can be recorded in
+     * the <code>BatchResult</code>, wrapping errors such as
+     * <code>OutOfMemoryError</code>.
+     *
+     * @param cause What the stage threw.
+     * @return The cause itself if it is an exception, or an exception
+     * wrapping it.
+     */
+    private static Exception failureOf(Throwable cause) {
+        return cause instanceof Exception ? (Exception) cause
+                : new RuntimeException("BatchPipeline: " + cause, cause);
+    } // End of failureOf(cause)
+
+
+    /**
+     * Hands a job to the next stage, waiting while its queue is full.
+     */
+    private static void put(BlockingQueue<Job> queue, Job job) {
+        try {
+            queue.put(job);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(
+                    "BatchPipeline: Interrupted handing over an image", e);
+        }
+    } // End of put(queue, job)
+
+
+    /**
+     * Takes a job from the stage before, waiting while its queue is empty.
+     */
+    private static Job take(BlockingQueue<Job> queue) {
+        try {
+            return queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(
+                    "BatchPipeline: Interrupted waiting for an image", e);
+        }
+    } // End of take(queue)
+} // End of class BatchPipeline
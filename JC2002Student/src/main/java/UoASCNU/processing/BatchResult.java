@@ -0,0 +1,164 @@
+package UoASCNU.processing;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The <code>BatchResult</code> class summarises a batch conversion: which
+ * images were converted and saved, and which failed, at what stage and
+ * why.
+ *
+ * @author Marco A. Palomino
+ */
+public class BatchResult {
+
+    /**
+     * The <code>Failure</code> class records an image that could not be
+     * converted.
+     */
+    public static class Failure {
+        private final File file;
+        private final String stage;
+        private final Exception cause;
+
+        /**
+         * Constructor: Creates a record of a failed image.
+         *
+         * @param file  The image that failed.
+         * @param stage The name of the stage that failed.
+         * @param cause The exception thrown by that stage.
+         */
+        public Failure(File file, String stage, Exception cause) {
+            this.file = file;
+            this.stage = stage;
+            this.cause = cause;
+        } // End of constructor
+
+        /**
+         * @return The image that failed.
+         */
+        public File getFile() {
+            return file;
+        } // End of getFile()
+
+        /**
+         * @return The name of the stage that failed.
+         */
+        public String getStage() {
+            return stage;
+        } // End of getStage()
+
+        /**
+         * @return The exception thrown by the stage that failed.
+         */
+        public Exception getCause() {
+            return cause;
+        } // End of getCause()
+
+        @Override
+        public String toString() {
+            return file + " failed to " + stage + ": " + cause.getMessage();
+        } // End of toString()
+    } // End of class Failure
+
+    private final List<File> succeeded =
+            Collections.synchronizedList(new ArrayList<>());
+    private final List<Failure> failed =
+            Collections.synchronizedList(new ArrayList<>());
+    private final List<File> skipped =
+            Collections.synchronizedList(new ArrayList<>());
+    private long elapsedNanos;
+
+    /**
+     * Records an image that was converted and saved.
+     *
+     * @param file The image that was converted.
+     */
+    void addSuccess(File file) {
+        succeeded.add(file);
+    } // End of addSuccess(file)
+
+    /**
+     * Records an image that was skipped because its output was up to date.
+     *
+     * @param file The image that was skipped.
+     */
+    void addSkipped(File file) {
+        skipped.add(file);
+    } // End of addSkipped(file)
+
+    /**
+     * Records an image that could not be converted.
+     *
+     * @param file  The image that failed.
+     * @param stage The name of the stage that failed.
+     * @param cause The exception thrown by that stage.
+     */
+    void addFailure(File file, String stage, Exception cause) {
+        failed.add(new Failure(file, stage, cause));
+    } // End of addFailure(file, stage, cause)
+
+    /**
+     * Records how long the whole batch took.
+     *
+     * @param nanos The wall-clock time of the batch in nanoseconds.
+     */
+    void setElapsedNanos(long nanos) {
+        elapsedNanos = nanos;
+    } // End of setElapsedNanos(nanos)
+
+    /**
+     * @return The images that were converted and saved, in completion order.
+     */
+    public List<File> getSucceeded() {
+        synchronized (succeeded) {
+            return new ArrayList<>(succeeded);
+        }
+    } // End of getSucceeded()
+
+    /**
+     * @return The images skipped because their output was up to date.
+     */
+    public List<File> getSkipped() {
+        synchronized (skipped) {
+            return new ArrayList<>(skipped);
+        }
+    } // End of getSkipped()
+
+    /**
+     * @return The images that could not be converted, in failure order.
+     */
+    public List<Failure> getFailed() {
+        synchronized (failed) {
+            return new ArrayList<>(failed);
+        }
+    } // End of getFailed()
+
+    /**
+     * @return The wall-clock time of the batch in nanoseconds.
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    } // End of getElapsedNanos()
+
+    /**
+     * @return A one-line summary followed by a line per failed image.
+     */
+    @Override
+    public String toString() {
+        StringBuilder summary = new StringBuilder(String.format(
+                "Converted %d image(s), ", succeeded.size()));
+        if (!skipped.isEmpty()) {
+            summary.append(String.format("%d up to date, ", skipped.size()));
+        }
+        summary.append(String.format("%d failed, in %d ms",
+                failed.size(), elapsedNanos / 1_000_000));
+        for (Failure failure : getFailed()) {
+            summary.append(System.lineSeparator()).append("  ")
+                    .append(failure);
+        }
+        return summary.toString();
+    } // End of toString()
+} // End of class BatchResult
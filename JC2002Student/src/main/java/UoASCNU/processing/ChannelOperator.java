@@ -0,0 +1,85 @@
+package UoASCNU.processing;
+
+import java.util.function.IntUnaryOperator;
+
+/**
+ * The <code>ChannelOperator</code> class is a pixel operator that changes
+ * the red, green and blue components of a pixel each on its own, with the
+ * same function. The function is worked out once for the 256 possible
+ * values, so a pixel costs three table lookups whatever the function was,
+ * and two operators in a row combine into one table.
+ *
+ * @author Marco A. Palomino
+ */
+final class ChannelOperator implements PixelOperator {
+
+    private final int[] table;
+
+    /**
+     * Constructor: Creates an operator from its lookup table.
+     *
+     * @param table The new value of each of the 256 component values.
+     */
+    private ChannelOperator(int[] table) {
+        this.table = table;
+    } // End of constructor
+
+
+    /**
+     * Creates an operator applying the given function to each component.
+     * Results outside [0, 255] are brought within that range.
+     *
+     * @param function The new value of a component given its old value.
+     * @return The operator.
+     */
+    static ChannelOperator of(IntUnaryOperator function) {
+        int[] table = new int[256];
+        for (int v = 0; v < 256; v++) {
+            table[v] = Math.max(0, Math.min(255, function.applyAsInt(v)));
+        }
+        return new ChannelOperator(table);
+    } // End of of(function)
+
+
+    /**
+     * Returns an operator applying this one and then the given one.
+     *
+     * @param next The operator applied second.
+     * @return The combined operator, with a single lookup table.
+     */
+    ChannelOperator andThen(ChannelOperator next) {
+        int[] combined = new int[256];
+        for (int v = 0; v < 256; v++) {
+            combined[v] = next.table[table[v]];
+        }
+        return new ChannelOperator(combined);
+    } // End of andThen(next)
+
+
+    @Override
+    public int apply(int argb) {
+        return (argb & 0xff000000)
+                | (table[(argb >> 16) & 0xff] << 16)
+                | (table[(argb >> 8) & 0xff] << 8)
+                | table[argb & 0xff];
+    } // End of apply(argb)
+
+
+    @Override
+    public void applyTo(int[] values, int from, int to) {
+        int[] table = this.table;
+        for (int i = from; i < to; i++) {
+            int argb = values[i];
+            values[i] = (argb & 0xff000000)
+                    | (table[(argb >> 16) & 0xff] << 16)
+                    | (table[(argb >> 8) & 0xff] << 8)
+                    | table[argb & 0xff];
+        }
+    } // End of applyTo(values, from, to)
+
+
+    @Override
+    public boolean keepsGray() {
+        return true;
+    } // End of keepsGray()
+} // End of class ChannelOperator
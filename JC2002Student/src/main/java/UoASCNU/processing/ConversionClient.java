@@ -0,0 +1,111 @@
+package UoASCNU.processing;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+/**
+ * The <code>ConversionClient</code> class sends requests to a
+ * <code>ConversionServer</code> over its Unix domain socket and waits for
+ * the replies. One client keeps one connection, and may send any number of
+ * requests over it, one at a time.
+ *
+ * @author Marco A. Palomino
+ */
+public class ConversionClient implements Closeable {
+
+    private final SocketChannel channel;
+    private final BufferedReader in;
+    private final Writer out;
+
+    /**
+     * Constructor: Connects to the server listening on the given socket.
+     *
+     * @param socketPath The file of the Unix domain socket.
+     * @throws IOException If no server is listening on it.
+     */
+    public ConversionClient(Path socketPath) throws IOException {
+        channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+        try {
+            channel.connect(UnixDomainSocketAddress.of(socketPath));
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        in = new BufferedReader(new InputStreamReader(
+                Channels.newInputStream(channel), StandardCharsets.UTF_8));
+        out = new BufferedWriter(new OutputStreamWriter(
+                Channels.newOutputStream(channel), StandardCharsets.UTF_8));
+    } // End of constructor
+
+
+    /**
+     * Asks the server to convert an image and save it.
+     *
+     * @param input   The image to convert.
+     * @param output  The file the grayscale image is saved to.
+     * @param options The options of the conversion, such as
+     *                "mode=bt709;format=png", or an empty string.
+     * @return The reply, starting with "OK", "BUSY" or "ERROR".
+     * @throws IOException If the connection is lost.
+     */
+    public String convert(File input, File output, String options)
+            throws IOException {
+        return send("CONVERT\t" + input.getAbsolutePath() + "\t"
+                + output.getAbsolutePath() + "\t" + options);
+    } // End of convert(input, output, options)
+
+
+    /**
+     * Checks that the server is running.
+     *
+     * @return The reply, "OK".
+     * @throws IOException If the connection is lost.
+     */
+    public String ping() throws IOException {
+        return send("PING");
+    } // End of ping()
+
+
+    /**
+     * Sends a request line and waits for its reply.
+     *
+     * @param request The request, without its newline.
+     * @return The reply, without its newline.
+     * @throws IOException If the connection is lost before the reply.
+     */
+    public synchronized String send(String request) throws IOException {
+        out.write(request);
+        out.write('\n');
+        out.flush();
+        String reply = in.readLine();
+        if (reply == null) {
+            throw new EOFException(
+                    "ConversionClient: Connection closed by the server");
+        }
+        return reply;
+    } // End of send(request)
+
+
+    /**
+     * Closes the connection.
+     *
+     * @throws IOException If it cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    } // End of close()
+} // End of class ConversionClient
@@ -0,0 +1,296 @@
+package UoASCNU.processing;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The <code>ConversionManifest</code> class remembers which images have
+ * been converted, from what content, with what parameters and to which
+ * output, so that a batch run over the same files again can skip the ones
+ * whose output is still up to date.
+ * <p>
+ * An input is up to date when the manifest has an entry for it with the
+ * same parameters, its output still has the size and modification time
+ * recorded, and the input itself has the size and modification time
+ * recorded or, failing that, the same SHA-256 hash.
+ * <p>
+ * The manifest is a text file with a tab-separated line per conversion.
+ * New entries are appended and forced to disk as each image is saved, so
+ * a batch that is interrupted resumes after the last image it saved; a
+ * line cut short by a crash is ignored. Closing the manifest rewrites it
+ * with one line per input, through a temporary file that atomically
+ * replaces the old one.
+ *
+ * @author Marco A. Palomino
+ */
+public class ConversionManifest implements Closeable {
+
+    /**
+     * What the manifest knows about one input.
+     */
+    private static final class Entry {
+        String input;
+        long size;
+        long modified;
+        String hash;
+        String params;
+        String output;
+        long outputSize;
+        long outputModified;
+
+        /**
+         * @return The entry as a line of the manifest, without the newline.
+         */
+        String toLine() {
+            return String.join("\t", escape(input), Long.toString(size),
+                    Long.toString(modified), hash, escape(params),
+                    escape(output), Long.toString(outputSize),
+                    Long.toString(outputModified));
+        }
+
+        /**
+         * @return The entry read from a line, or null if the line is
+         * incomplete.
+         */
+        static Entry fromLine(String line) {
+            String[] fields = line.split("\t", -1);
+            if (fields.length != 8) {
+                return null;
+            }
+            try {
+                Entry entry = new Entry();
+                entry.input = unescape(fields[0]);
+                entry.size = Long.parseLong(fields[1]);
+                entry.modified = Long.parseLong(fields[2]);
+                entry.hash = fields[3];
+                entry.params = unescape(fields[4]);
+                entry.output = unescape(fields[5]);
+                entry.outputSize = Long.parseLong(fields[6]);
+                entry.outputModified = Long.parseLong(fields[7]);
+                return entry;
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    } // End of class Entry
+
+    private final Path manifestFile;
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+    private FileChannel journal;
+
+    /**
+     * Constructor: Opens a manifest, reading the entries it already has.
+     * The file is created if it does not exist.
+     *
+     * @param manifestFile The file holding the manifest.
+     * @throws IOException If the file cannot be read or opened.
+     */
+    public ConversionManifest(File manifestFile) throws IOException {
+        this.manifestFile = manifestFile.toPath();
+        if (Files.exists(this.manifestFile)) {
+            try (BufferedReader reader = Files.newBufferedReader(
+                    this.manifestFile, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    Entry entry = Entry.fromLine(line);
+                    if (entry != null) {
+                        entries.put(entry.input, entry);
+                    }
+                }
+            }
+        }
+        journal = FileChannel.open(this.manifestFile, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = journal.size();
+        journal.position(size);
+        if (size > 0) {
+            // End a line cut short by a crash, so it is not merged with
+            // the first new entry
+            ByteBuffer last = ByteBuffer.allocate(1);
+            journal.read(last, size - 1);
+            if (last.get(0) != '\n') {
+                write(journal, "\n");
+            }
+        }
+    } // End of constructor
+
+
+    /**
+     * Works out whether the output of an input is up to date. If the input
+     * has been touched but its content is unchanged, its entry is updated
+     * so that the next check is a fast one.
+     *
+     * @param input  The image to convert.
+     * @param output The file its conversion is saved to.
+     * @param params A description of the conversion parameters.
+     * @return Whether the input can be skipped.
+     * @throws IOException If the input cannot be read to hash it.
+     */
+    public synchronized boolean isUpToDate(File input, File output,
+                                           String params) throws IOException {
+        Entry entry = entries.get(keyOf(input));
+        if (entry == null || !entry.params.equals(params)
+                || !entry.output.equals(keyOf(output))
+                || !output.isFile()
+                || output.length() != entry.outputSize
+                || output.lastModified() != entry.outputModified) {
+            return false;
+        }
+        if (input.length() == entry.size
+                && input.lastModified() == entry.modified) {
+            return true;
+        }
+        if (input.length() != entry.size || !hashOf(input).equals(entry.hash)) {
+            return false;
+        }
+        entry.modified = input.lastModified();
+        append(entry);
+        return true;
+    } // End of isUpToDate(input, output, params)
+
+
+    /**
+     * Records that an input has been converted and its output saved. The
+     * entry is on disk when this method returns.
+     *
+     * @param input  The image that was converted.
+     * @param output The file its conversion was saved to.
+     * @param params A description of the conversion parameters.
+     * @throws IOException If the input cannot be hashed or the manifest
+     *                     cannot be written.
+     */
+    public synchronized void record(File input, File output, String params)
+            throws IOException {
+        Entry entry = new Entry();
+        entry.input = keyOf(input);
+        entry.size = input.length();
+        entry.modified = input.lastModified();
+        entry.hash = hashOf(input);
+        entry.params = params;
+        entry.output = keyOf(output);
+        entry.outputSize = output.length();
+        entry.outputModified = output.lastModified();
+        entries.put(entry.input, entry);
+        append(entry);
+    } // End of record(input, output, params)
+
+
+    /**
+     * Rewrites the manifest with one line per input and closes it.
+     *
+     * @throws IOException If the manifest cannot be written.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (journal == null) {
+            return;
+        }
+        journal.close();
+        journal = null;
+        Path temporary = manifestFile.resolveSibling(
+                manifestFile.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            StringBuilder text = new StringBuilder();
+            for (Entry entry : entries.values()) {
+                text.append(entry.toLine()).append('\n');
+            }
+            write(channel, text.toString());
+            channel.force(true);
+        }
+        Files.move(temporary, manifestFile, StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+    } // End of close()
+
+
+    /**
+     * Appends an entry to the manifest and forces it to disk.
+     */
+    private void append(Entry entry) throws IOException {
+        if (journal == null) {
+            throw new IOException("ConversionManifest: Manifest is closed");
+        }
+        write(journal, entry.toLine() + "\n");
+        journal.force(false);
+    } // End of append(entry)
+
+
+    private static void write(FileChannel channel, String text)
+            throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+    } // End of write(channel, text)
+
+
+    /**
+     * Returns the name a file is known by in the manifest.
+     */
+    private static String keyOf(File file) throws IOException {
+        return file.getCanonicalPath();
+    } // End of keyOf(file)
+
+
+    /**
+     * Returns the SHA-256 hash of the content of a file, in hexadecimal.
+     */
+    static String hashOf(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] buffer = new byte[1 << 16];
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    } // End of hashOf(file)
+
+
+    /**
+     * Escapes the characters that separate fields and lines.
+     */
+    private static String escape(String text) {
+        return text.replace("\\", "\\\\").replace("\t", "\\t")
+                .replace("\n", "\\n");
+    } // End of escape(text)
+
+    private static String unescape(String text) {
+        StringBuilder plain = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\\' && i + 1 < text.length()) {
+                char next = text.charAt(++i);
+                plain.append(next == 't' ? '\t' : next == 'n' ? '\n' : next);
+            } else {
+                plain.append(c);
+            }
+        }
+        return plain.toString();
+    } // End of unescape(text)
+} // End of class ConversionManifest
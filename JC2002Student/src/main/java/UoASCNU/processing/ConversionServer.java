@@ -0,0 +1,554 @@
+package UoASCNU.processing;
+
+import UoASCNU.images.ImageFile;
+import UoASCNU.images.OutputFormat;
+import UoASCNU.images.SaveOptions;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The <code>ConversionServer</code> class converts images to grayscale for
+ * other programs, which send it requests over a Unix domain socket. It
+ * runs for as long as it is needed, so a request does not pay for starting
+ * a JVM, looking up the ImageIO plugins or warming up the JIT compiler, all
+ * of which cost far more than converting a typical image.
+ * <p>
+ * The protocol is made of lines of UTF-8 text ending in a newline, whose
+ * fields are separated by tabs. A client may send any number of requests
+ * over one connection, waiting for the reply to each before sending the
+ * next:
+ * <ul>
+ * <li><code>CONVERT input output [options]</code> converts the image in the
+ * file <code>input</code> and saves it to <code>output</code>. Both must be
+ * absolute paths. The options are <code>key=value</code> pairs separated by
+ * semicolons: <code>mode</code> (<code>average</code>, <code>bt601</code>,
+ * <code>bt709</code> or <code>luma</code>), <code>format</code> (<code>jpeg</code>,
+ * <code>png</code> or <code>bmp</code>, taken from the extension of the
+ * output by default), <code>quality</code> (from 0 to 1, for JPEGs) and
+ * <code>progressive</code> (<code>true</code> or <code>false</code>).</li>
+ * <li><code>PING</code> checks that the server is running.</li>
+ * </ul>
+ * Every request gets a single reply line, its fields also separated by
+ * tabs: <code>OK</code>, followed for a conversion by the milliseconds it
+ * spent queued, decoding, converting, encoding and in total, as in
+ * <code>OK\tqueue=0.1\tdecode=31.2\tconvert=2.5\tencode=18.0\ttotal=51.9</code>
+ * where <code>\t</code> stands for a tab; <code>BUSY</code> and a message
+ * when too many requests are already waiting; or <code>ERROR</code> and a
+ * message when the request cannot be carried out.
+ * <p>
+ * Conversions run on a fixed pool of threads. At most a given number of
+ * requests wait for one, and requests beyond that are refused with
+ * <code>BUSY</code> straight away rather than left to pile up; so are
+ * connections beyond the limit set with <code>setMaxConnections</code>.
+ * <code>close</code> stops accepting connections and requests, waits for
+ * the conversions already accepted to be finished and replied to, then
+ * closes every connection and removes the socket file.
+ *
+ * @author Marco A. Palomino
+ */
+public class ConversionServer implements AutoCloseable {
+
+    /**
+     * The number of clients that may be connected at a time when no other
+     * limit is given.
+     */
+    public static final int DEFAULT_MAX_CONNECTIONS = 64;
+
+    /**
+     * A parsed <code>CONVERT</code> request.
+     */
+    private static final class Request {
+        File input;
+        File output;
+        GrayscaleMode mode = GrayscaleMode.AVERAGE;
+        SaveOptions options = new SaveOptions();
+    } // End of class Request
+
+    private final Path socketPath;
+    private final int threads;
+    private final int maxQueued;
+    private int maxConnections = DEFAULT_MAX_CONNECTIONS;
+
+    private ServerSocketChannel server;
+    private ThreadPoolExecutor workers;
+    private ExecutorService connections;
+    private Semaphore connectionSlots;
+    private Thread acceptThread;
+    private final Set<SocketChannel> open = ConcurrentHashMap.newKeySet();
+
+    private final AtomicLong converted = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong refused = new AtomicLong();
+    private final CountDownLatch closed = new CountDownLatch(1);
+    private volatile boolean closing;
+    // The requests being replied to, guarded by the lock on this server
+    private int replying;
+
+    /**
+     * Constructor: Creates a server for the given socket. It does not
+     * listen until <code>start</code> is called.
+     *
+     * @param socketPath The file of the Unix domain socket.
+     * @param threads    The number of images converted at a time.
+     * @param maxQueued  The number of requests that may wait for a thread
+     *                   before further requests are refused.
+     */
+    public ConversionServer(Path socketPath, int threads, int maxQueued) {
+        if (threads <= 0 || maxQueued <= 0) {
+            throw new IllegalArgumentException(
+                    "ConversionServer: Thread count and queue size must be"
+                            + " positive");
+        }
+        this.socketPath = socketPath.toAbsolutePath();
+        this.threads = threads;
+        this.maxQueued = maxQueued;
+    } // End of constructor
+
+
+    /**
+     * Returns the number of clients that may be connected at a time.
+     *
+     * @return The connection limit.
+     */
+    public int getMaxConnections() {
+        return maxConnections;
+    } // End of getMaxConnections()
+
+
+    /**
+     * Sets the number of clients that may be connected at a time. It must
+     * be called before <code>start</code>.
+     *
+     * @param maxConnections The connection limit.
+     */
+    public void setMaxConnections(int maxConnections) {
+        if (maxConnections <= 0) {
+            throw new IllegalArgumentException(
+                    "ConversionServer: Connection limit must be positive ["
+                            + maxConnections + "]");
+        }
+        this.maxConnections = maxConnections;
+    } // End of setMaxConnections(maxConnections)
+
+
+    /**
+     * Returns the file of the socket the server listens on.
+     *
+     * @return The absolute path of the socket.
+     */
+    public Path getSocketPath() {
+        return socketPath;
+    } // End of getSocketPath()
+
+
+    /**
+     * @return A one-line count of the requests converted, failed and
+     * refused so far.
+     */
+    public String summary() {
+        return String.format("Converted %d image(s), %d failed, %d refused",
+                converted.get(), failed.get(), refused.get());
+    } // End of summary()
+
+
+    /**
+     * Starts listening on the socket, accepting connections on a thread of
+     * its own. A socket file left behind by a server that is no longer
+     * running is replaced.
+     *
+     * @throws IOException If the socket cannot be bound, for example
+     *                     because another server is listening on it.
+     */
+    public synchronized void start() throws IOException {
+        if (server != null) {
+            throw new IllegalStateException(
+                    "ConversionServer: Already started");
+        }
+        UnixDomainSocketAddress address = UnixDomainSocketAddress.of(socketPath);
+        if (Files.exists(socketPath)) {
+            SocketChannel probe;
+            try {
+                probe = SocketChannel.open(address);
+            } catch (IOException e) {
+                probe = null;
+            }
+            if (probe != null) {
+                probe.close();
+                throw new IOException(
+                        "ConversionServer: A server is already listening on "
+                                + socketPath);
+            }
+            // Nobody is listening: left behind by a server that died
+            Files.delete(socketPath);
+        }
+        server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        server.bind(address);
+
+        workers = new ThreadPoolExecutor(threads, threads, 0,
+                TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(maxQueued));
+        connections = Executors.newCachedThreadPool();
+        connectionSlots = new Semaphore(maxConnections);
+        acceptThread = new Thread(this::accept, "conversion-server");
+        acceptThread.start();
+    } // End of start()
+
+
+    /**
+     * Waits until the server has been closed.
+     *
+     * @throws InterruptedException If the thread is interrupted while
+     *                              waiting.
+     */
+    public void awaitClose() throws InterruptedException {
+        closed.await();
+    } // End of awaitClose()
+
+
+    /**
+     * Stops accepting connections and requests, waits for the conversions
+     * already accepted to be replied to, then closes every connection and
+     * removes the socket file. It may be called from a shutdown hook, and
+     * more than once.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closing || server == null) {
+                closing = true;
+                closed.countDown();
+                return;
+            }
+            closing = true;
+        }
+        try {
+            server.close();
+            acceptThread.join();
+            workers.shutdown();
+            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            synchronized (this) {
+                while (replying > 0) {
+                    wait();
+                }
+            }
+            for (SocketChannel channel : open) {
+                channel.close();
+            }
+            connections.shutdown();
+            connections.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            Files.deleteIfExists(socketPath);
+        } catch (IOException e) {
+            throw new RuntimeException(
+                    "ConversionServer: Unable to close " + socketPath, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(
+                    "ConversionServer: Interrupted waiting for conversions", e);
+        } finally {
+            closed.countDown();
+        }
+    } // End of close()
+
+
+    /**
+     * Accepts connections until the server is closed, handing each to a
+     * thread of its own, or turning it away if there are too many.
+     */
+    private void accept() {
+        while (true) {
+            SocketChannel channel;
+            try {
+                channel = server.accept();
+            } catch (AsynchronousCloseException e) {
+                return;
+            } catch (IOException e) {
+                if (closing) {
+                    return;
+                }
+                continue;
+            }
+            if (!connectionSlots.tryAcquire()) {
+                refused.incrementAndGet();
+                try (channel) {
+                    Channels.newOutputStream(channel).write(
+                            ("BUSY\tToo many connections, limit is "
+                                    + maxConnections + "\n")
+                                    .getBytes(StandardCharsets.UTF_8));
+                } catch (IOException ignored) {
+                    // The client went away first
+                }
+                continue;
+            }
+            open.add(channel);
+            connections.execute(() -> serve(channel));
+        }
+    } // End of accept()
+
+
+    /**
+     * Replies to the requests of one client until it disconnects or the
+     * server is closed.
+     *
+     * @param channel The connection to the client.
+     */
+    private void serve(SocketChannel channel) {
+        try (channel;
+             BufferedReader in = new BufferedReader(new InputStreamReader(
+                     Channels.newInputStream(channel), StandardCharsets.UTF_8));
+             Writer out = new BufferedWriter(new OutputStreamWriter(
+                     Channels.newOutputStream(channel), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                synchronized (this) {
+                    replying++;
+                }
+                try {
+                    out.write(respond(line));
+                    out.write('\n');
+                    out.flush();
+                } finally {
+                    synchronized (this) {
+                        replying--;
+                        notifyAll();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            // Disconnected by the client, or closed by close()
+        } finally {
+            open.remove(channel);
+            connectionSlots.release();
+        }
+    } // End of serve(channel)
+
+
+    /**
+     * Carries out a request.
+     *
+     * @param line The request, without its newline.
+     * @return The reply, without its newline.
+     */
+    private String respond(String line) {
+        String[] fields = line.split("\t", -1);
+        switch (fields[0]) {
+            case "PING":
+                return "OK";
+            case "CONVERT":
+                break;
+            default:
+                return "ERROR\tUnknown command " + clean(fields[0]);
+        }
+        if (closing) {
+            return "ERROR\tServer is shutting down";
+        }
+        Request request;
+        try {
+            request = parse(fields);
+        } catch (IllegalArgumentException e) {
+            failed.incrementAndGet();
+            return "ERROR\t" + clean(e.getMessage());
+        }
+
+        long queued = System.nanoTime();
+        Future<String> reply;
+        try {
+            reply = workers.submit(() -> convert(request, queued));
+        } catch (RejectedExecutionException e) {
+            refused.incrementAndGet();
+            return closing ? "ERROR\tServer is shutting down"
+                    : "BUSY\tToo many requests, " + maxQueued
+                    + " already waiting";
+        }
+        try {
+            return reply.get();
+        } catch (ExecutionException e) {
+            failed.incrementAndGet();
+            return "ERROR\t" + clean(String.valueOf(e.getCause()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return "ERROR\tInterrupted";
+        }
+    } // End of respond(line)
+
+
+    /**
+     * Reads the fields of a <code>CONVERT</code> request.
+     *
+     * @param fields The fields of the request line.
+     * @return The request.
+     * @throws IllegalArgumentException If the request is not valid.
+     */
+    private static Request parse(String[] fields) {
+        if (fields.length < 3 || fields.length > 4) {
+            throw new IllegalArgumentException(
+                    "Expected CONVERT input output [options]");
+        }
+        Request request = new Request();
+        request.input = new File(fields[1]);
+        request.output = new File(fields[2]);
+        if (!request.input.isAbsolute() || !request.output.isAbsolute()) {
+            throw new IllegalArgumentException(
+                    "Input and output must be absolute paths");
+        }
+        String name = request.output.getName().toLowerCase(Locale.ROOT);
+        if (name.endsWith(".png")) {
+            request.options.setFormat(OutputFormat.PNG);
+        } else if (name.endsWith(".bmp")) {
+            request.options.setFormat(OutputFormat.BMP);
+        }
+        if (fields.length == 4 && !fields[3].isEmpty()) {
+            for (String option : fields[3].split(";")) {
+                int equals = option.indexOf('=');
+                if (equals < 0) {
+                    throw new IllegalArgumentException(
+                            "Expected key=value in option " + option);
+                }
+                String key = option.substring(0, equals).trim();
+                String value = option.substring(equals + 1).trim();
+                switch (key) {
+                    case "mode":
+                        request.mode = GrayscaleMode.forName(value);
+                        break;
+                    case "format":
+                        request.options.setFormat(formatOf(value));
+                        break;
+                    case "quality":
+                        request.options.setJpegQuality(Float.parseFloat(value));
+                        break;
+                    case "progressive":
+                        request.options.setProgressive(
+                                Boolean.parseBoolean(value));
+                        break;
+                    default:
+                        throw new IllegalArgumentException(
+                                "Unknown option " + key);
+                }
+            }
+        }
+        return request;
+    } // End of parse(fields)
+
+
+    /**
+     * Returns the output format of the given name.
+     *
+     * @param name A format name such as "jpeg", "jpg" or "png".
+     * @return The format.
+     * @throws IllegalArgumentException If there is no such format.
+     */
+    private static OutputFormat formatOf(String name) {
+        for (OutputFormat format : OutputFormat.values()) {
+            if (format.name().equalsIgnoreCase(name)
+                    || format.getFormatName().equalsIgnoreCase(name)) {
+                return format;
+            }
+        }
+        throw new IllegalArgumentException("Unknown format " + name);
+    } // End of formatOf(name)
+
+
+    /**
+     * Reads the image of a request: straight to gray if its mode is
+     * <code>LUMA</code> and it is a JPEG whose luma can be read directly,
+     * in colour otherwise.
+     *
+     * @param request The request.
+     * @return The image, not yet decoded if read in colour.
+     */
+    private static ImageFile read(Request request) {
+        if (request.mode == GrayscaleMode.LUMA) {
+            ImageFile luma = ImageFile.lumaOf(request.input);
+            if (luma != null) {
+                return luma;
+            }
+        }
+        return new ImageFile(request.input);
+    } // End of read(request)
+
+
+    /**
+     * Converts and saves an image, on a worker thread.
+     *
+     * @param request The request.
+     * @param queued  When the request was queued, from
+     *                <code>System.nanoTime</code>.
+     * @return The reply.
+     */
+    private String convert(Request request, long queued) {
+        long start = System.nanoTime();
+        try (ImageFile originalImage = read(request)) {
+            originalImage.load();
+            long decoded = System.nanoTime();
+            try (ImageFile grayscaleImage =
+                         GrayscaleConverter.makeGray(originalImage, request.mode)) {
+                long grayed = System.nanoTime();
+                grayscaleImage.setSaveOptions(request.options);
+                grayscaleImage.setFileName(request.output.getPath());
+                grayscaleImage.save();
+                long saved = System.nanoTime();
+                converted.incrementAndGet();
+                return String.format(Locale.ROOT,
+                        "OK\tqueue=%.1f\tdecode=%.1f\tconvert=%.1f"
+                                + "\tencode=%.1f\ttotal=%.1f",
+                        millis(queued, start), millis(start, decoded),
+                        millis(decoded, grayed), millis(grayed, saved),
+                        millis(queued, saved));
+            }
+        } catch (Exception e) {
+            failed.incrementAndGet();
+            Throwable cause = e;
+            while (cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            return "ERROR\t" + clean(e.getMessage() + ": " + cause);
+        }
+    } // End of convert(request, queued)
+
+
+    /**
+     * @return The milliseconds between two readings of
+     * <code>System.nanoTime</code>.
+     */
+    private static double millis(long from, long to) {
+        return (to - from) / 1e6;
+    } // End of millis(from, to)
+
+
+    /**
+     * Makes a message fit in a field of a reply.
+     *
+     * @param message The message.
+     * @return The message with its tabs and line breaks turned to spaces.
+     */
+    private static String clean(String message) {
+        return String.valueOf(message).replaceAll("[\\t\\r\\n]+", " ");
+    } // End of clean(message)
+} // End of class ConversionServer
@@ -0,0 +1,109 @@
+package UoASCNU.processing;
+
+/**
+ * The <code>GrayKernel</code> class converts runs of packed ARGB values to
+ * gray in bulk. Every value receives the integer average of its red, green
+ * and blue components in all three colour components, exactly as
+ * <code>GrayscaleConverter.makeGray</code> does pixel by pixel, and keeps
+ * the alpha of the value it overwrites. Runs can also be converted to
+ * 8-bit gray levels, one byte per pixel, for grayscale images.
+ * <p>
+ * When the <code>jdk.incubator.vector</code> module is enabled (with
+ * <code>--add-modules jdk.incubator.vector</code>) the conversion runs on
+ * SIMD registers through <code>VectorGrayKernel</code>. Otherwise a scalar
+ * loop with the same arithmetic is used.
+ *
+ * @author Marco A. Palomino
+ */
+final class GrayKernel {
+
+    /**
+     * Whether the Vector API can be used in this JVM.
+     */
+    static final boolean VECTORIZED = ModuleLayer.boot()
+            .findModule("jdk.incubator.vector").isPresent();
+
+    /**
+     * Multiplying a sum of three components by this value and shifting it
+     * right by <code>DIVIDE_BY_3_SHIFT</code> bits divides it by three.
+     * The result is exact for every sum between 0 and 765.
+     */
+    static final int DIVIDE_BY_3_MULTIPLIER = 43691;
+    static final int DIVIDE_BY_3_SHIFT = 17;
+
+    private GrayKernel() {
+    } // End of constructor
+
+
+    /**
+     * Converts the values in [from, to) of the source to gray values
+     * stored at the same positions of the destination.
+     *
+     * @param src  The packed ARGB values to convert.
+     * @param dst  The packed ARGB values that receive the gray values.
+     * @param from The first position to convert.
+     * @param to   The position after the last one to convert.
+     */
+    static void convert(int[] src, int[] dst, int from, int to) {
+        if (VECTORIZED) {
+            VectorGrayKernel.convert(src, dst, from, to);
+        } else {
+            convertScalar(src, dst, from, to);
+        }
+    } // End of convert(src, dst, from, to)
+
+
+    /**
+     * Converts the values in [from, to) of the source to gray levels
+     * stored at the same positions of the destination.
+     *
+     * @param src  The packed ARGB values to convert.
+     * @param dst  The gray levels, one byte per pixel.
+     * @param from The first position to convert.
+     * @param to   The position after the last one to convert.
+     */
+    static void convert(int[] src, byte[] dst, int from, int to) {
+        if (VECTORIZED) {
+            VectorGrayKernel.convert(src, dst, from, to);
+        } else {
+            convertScalar(src, dst, from, to);
+        }
+    } // End of convert(src, dst, from, to)
+
+
+    /**
+     * Converts the values in [from, to) one at a time.
+     *
+     * @param src  The packed ARGB values to convert.
+     * @param dst  The packed ARGB values that receive the gray values.
+     * @param from The first position to convert.
+     * @param to   The position after the last one to convert.
+     */
+    static void convertScalar(int[] src, int[] dst, int from, int to) {
+        for (int i = from; i < to; i++) {
+            int value = src[i];
+            int sum = ((value >> 16) & 0xff) + ((value >> 8) & 0xff)
+                    + (value & 0xff);
+            int average = (sum * DIVIDE_BY_3_MULTIPLIER) >>> DIVIDE_BY_3_SHIFT;
+            dst[i] = (dst[i] & 0xff000000) | (average * 0x010101);
+        }
+    } // End of convertScalar(src, dst, from, to)
+
+
+    /**
+     * Converts the values in [from, to) to gray levels one at a time.
+     *
+     * @param src  The packed ARGB values to convert.
+     * @param dst  The gray levels, one byte per pixel.
+     * @param from The first position to convert.
+     * @param to   The position after the last one to convert.
+     */
+    static void convertScalar(int[] src, byte[] dst, int from, int to) {
+        for (int i = from; i < to; i++) {
+            int value = src[i];
+            int sum = ((value >> 16) & 0xff) + ((value >> 8) & 0xff)
+                    + (value & 0xff);
+            dst[i] = (byte) ((sum * DIVIDE_BY_3_MULTIPLIER) >>> DIVIDE_BY_3_SHIFT);
+        }
+    } // End of convertScalar(src, dst, from, to)
+} // End of class GrayKernel
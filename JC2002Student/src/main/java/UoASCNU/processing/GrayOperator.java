@@ -0,0 +1,96 @@
+package UoASCNU.processing;
+
+/**
+ * The <code>GrayOperator</code> class is the pixel operator of
+ * <code>GrayscaleConverter.makeGray</code>. It converts rows in bulk, and a
+ * pipeline made of it alone converts straight into the gray levels of the
+ * resulting image.
+ * <p>
+ * The average is worked out by <code>GrayKernel</code>, on SIMD registers
+ * when it can be; the other modes use the lookup tables of their
+ * <code>GrayscaleMode</code>.
+ *
+ * @author Marco A. Palomino
+ */
+final class GrayOperator implements PixelOperator {
+
+    /**
+     * The operator averaging the red, green and blue components.
+     */
+    static final GrayOperator AVERAGE = new GrayOperator(GrayscaleMode.AVERAGE);
+
+    private final GrayscaleMode mode;
+
+    private GrayOperator(GrayscaleMode mode) {
+        this.mode = mode;
+    } // End of constructor
+
+
+    /**
+     * Returns the operator converting colours to gray in the given mode.
+     *
+     * @param mode How colours are turned into gray levels.
+     * @return The grayscale operator.
+     */
+    static GrayOperator of(GrayscaleMode mode) {
+        if (mode == null) {
+            throw new RuntimeException(
+                    "GrayOperator: Grayscale mode must not be null");
+        }
+        return mode == GrayscaleMode.AVERAGE ? AVERAGE : new GrayOperator(mode);
+    } // End of of(mode)
+
+
+    /**
+     * Converts the values in [from, to) of the source to gray levels.
+     *
+     * @param src  The packed ARGB values to convert.
+     * @param dst  The gray levels, one byte per pixel.
+     * @param from The first position to convert.
+     * @param to   The position after the last one to convert.
+     */
+    void convert(int[] src, byte[] dst, int from, int to) {
+        if (mode == GrayscaleMode.AVERAGE) {
+            GrayKernel.convert(src, dst, from, to);
+            return;
+        }
+        int[] red = mode.red;
+        int[] green = mode.green;
+        int[] blue = mode.blue;
+        for (int i = from; i < to; i++) {
+            int argb = src[i];
+            dst[i] = (byte) ((red[(argb >> 16) & 0xff] + green[(argb >> 8) & 0xff]
+                    + blue[argb & 0xff]) >>> GrayscaleMode.SHIFT);
+        }
+    } // End of convert(src, dst, from, to)
+
+
+    @Override
+    public int apply(int argb) {
+        return (argb & 0xff000000) | (mode.grayOf(argb) * 0x010101);
+    } // End of apply(argb)
+
+
+    @Override
+    public void applyTo(int[] values, int from, int to) {
+        if (mode == GrayscaleMode.AVERAGE) {
+            GrayKernel.convert(values, values, from, to);
+            return;
+        }
+        int[] red = mode.red;
+        int[] green = mode.green;
+        int[] blue = mode.blue;
+        for (int i = from; i < to; i++) {
+            int argb = values[i];
+            int gray = (red[(argb >> 16) & 0xff] + green[(argb >> 8) & 0xff]
+                    + blue[argb & 0xff]) >>> GrayscaleMode.SHIFT;
+            values[i] = (argb & 0xff000000) | (gray * 0x010101);
+        }
+    } // End of applyTo(values, from, to)
+
+
+    @Override
+    public boolean keepsGray() {
+        return true;
+    } // End of keepsGray()
+} // End of class GrayOperator
@@ -1,9 +1,11 @@
 package UoASCNU.processing;
 
 import UoASCNU.images.ImageFile;
-import UoASCNU.images.Pixel;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Convert a number of images to their grayscale version.
@@ -13,34 +15,196 @@ import java.io.File;
 
 public class GrayscaleConverter {
 
+    /**
+     * Images with fewer pixels than this are converted on the calling
+     * thread by the parallel methods, because splitting them costs more
+     * than it saves.
+     */
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 1 << 20;
+
+    /**
+     * Describes the conversion done by <code>makeGray</code> in the given
+     * mode in a <code>ConversionManifest</code>, so that outputs made with
+     * other parameters are not taken as up to date.
+     *
+     * @param mode How colours are turned into gray levels.
+     * @return The parameters recorded in the manifest.
+     */
+    static String grayParams(GrayscaleMode mode) {
+        return "gray:" + mode.getModeName() + ";format:jpg;channels:1";
+    } // End of grayParams(mode)
+
     /**
      * Creates a new image that is a grayscale version of the original image.
+     * The result is a <code>TYPE_BYTE_GRAY</code> image, holding one byte
+     * per pixel, that is saved as a single-channel image. Its pixels read
+     * as colours with the gray level in all three components.
+     * <p>
+     * This is a <code>PixelPipeline</code> with the single operator
+     * <code>PixelOperator.gray()</code>; further operators can be chained
+     * after it with <code>new PixelPipeline(originalImage).gray()</code>.
      *
      * @param originalImage The image we want to convert to grayscale.
      * @return An image converted to grayscale.
      */
     public static ImageFile makeGray(ImageFile originalImage) {
-        // I made a blank image of the same size as the original
-        ImageFile resultingImage = new ImageFile(
-                originalImage.getWidth(), originalImage.getHeight());
-            for (Pixel pixel: originalImage.pixels()){
-                int x=pixel.getX();
-                int y=pixel.getY();
-                int red=pixel.getRed();
-                int green=pixel.getGreen();
-                int blue=pixel.getBlue();
-                int average=(red+green+blue)/3;
-                Pixel newPixel=resultingImage.getPixel(x,y);
-                newPixel.setRed(average);
-                newPixel.setGreen(average);
-                newPixel.setBlue(average);
+        return new PixelPipeline(originalImage).gray().toImage();
+    } // End of makeGray(originalImage)
+
+
+    /**
+     * Creates a new image that is a grayscale version of the original
+     * image, turning colours into gray levels in the given mode, for
+     * example <code>GrayscaleMode.BT709</code> for the perceived brightness
+     * of sRGB colours.
+     *
+     * @param originalImage The image we want to convert to grayscale.
+     * @param mode          How colours are turned into gray levels.
+     * @return An image converted to grayscale.
+     */
+    public static ImageFile makeGray(ImageFile originalImage,
+                                     GrayscaleMode mode) {
+        return new PixelPipeline(originalImage).gray(mode).toImage();
+    } // End of makeGray(originalImage, mode)
+
+
+    /**
+     * Reads an image from a file and creates a grayscale version of it in
+     * the given mode. In <code>GrayscaleMode.LUMA</code>, a JPEG whose luma
+     * can be read directly is never converted to colour: its gray image is
+     * the one read by <code>ImageFile.lumaOf</code>. Any other file is read
+     * in colour and converted.
+     *
+     * @param imageFile The file of the image we want to convert.
+     * @param mode      How colours are turned into gray levels.
+     * @return An image converted to grayscale.
+     */
+    public static ImageFile makeGray(File imageFile, GrayscaleMode mode) {
+        if (mode == GrayscaleMode.LUMA) {
+            ImageFile luma = ImageFile.lumaOf(imageFile);
+            if (luma != null) {
+                return luma;
             }
-        return resultingImage;
-    }
-        // At the end, this method must return resultingImage, 
-        // rather than null! Remember to fix this to 
-        // return resultingImage;
-        // End of makeGray(originalImage)
+        }
+        try (ImageFile originalImage = new ImageFile(imageFile)) {
+            return makeGray(originalImage, mode);
+        }
+    } // End of makeGray(imageFile, mode)
+
+
+    /**
+     * Converts an image to grayscale in place, replacing the colour of
+     * every pixel with its gray level instead of creating a new image. No
+     * pixel array is allocated, but the image stays a colour image holding
+     * the gray level in all three components, and is saved as one.
+     *
+     * @param image The image we want to convert to grayscale.
+     * @return The same image, now gray.
+     */
+    public static ImageFile makeGrayInPlace(ImageFile image) {
+        return makeGrayInPlace(image, GrayscaleMode.AVERAGE);
+    } // End of makeGrayInPlace(image)
+
+
+    /**
+     * Converts an image to grayscale in place in the given mode, like
+     * <code>makeGrayInPlace(image)</code>.
+     *
+     * @param image The image we want to convert to grayscale.
+     * @param mode  How colours are turned into gray levels.
+     * @return The same image, now gray.
+     */
+    public static ImageFile makeGrayInPlace(ImageFile image,
+                                            GrayscaleMode mode) {
+        return new PixelPipeline(image).gray(mode).applyInPlace();
+    } // End of makeGrayInPlace(image, mode)
+
+
+    /**
+     * Creates a reduced grayscale preview of an image file. The file is
+     * decoded straight at the reduced size, so previews of large images are
+     * quick and small.
+     *
+     * @param imageFile   The image we want a preview of.
+     * @param subsampling How many pixels of the original, across and down,
+     *                    make up one pixel of the preview, for example 4
+     *                    or 8.
+     * @return A grayscale image 1/subsampling the size of the original.
+     */
+    public static ImageFile makeGrayPreview(File imageFile, int subsampling) {
+        return makeGray(new ImageFile(imageFile, subsampling));
+    } // End of makeGrayPreview(imageFile, subsampling)
+
+
+    /**
+     * Creates a reduced grayscale preview of an image file that fits within
+     * the given size, decoding the file straight at the reduced size.
+     *
+     * @param imageFile The image we want a preview of.
+     * @param maxWidth  The largest width of the preview.
+     * @param maxHeight The largest height of the preview.
+     * @return A grayscale image that fits within the given size.
+     */
+    public static ImageFile makeGrayPreview(File imageFile, int maxWidth,
+                                            int maxHeight) {
+        return makeGray(ImageFile.fitWithin(imageFile, maxWidth, maxHeight));
+    } // End of makeGrayPreview(imageFile, maxWidth, maxHeight)
+
+
+    /**
+     * Creates a grayscale version of the original image using all the
+     * processors of the common fork/join pool. The result is identical to
+     * the one produced by <code>makeGray(originalImage)</code>.
+     *
+     * @param originalImage The image we want to convert to grayscale.
+     * @return An image converted to grayscale.
+     */
+    public static ImageFile makeGrayParallel(ImageFile originalImage) {
+        return makeGray(originalImage, ForkJoinPool.commonPool(),
+                DEFAULT_PARALLEL_THRESHOLD);
+    } // End of makeGrayParallel(originalImage)
+
+
+    /**
+     * Creates a grayscale version of the original image using the given
+     * number of threads. The result is identical to the one produced by
+     * <code>makeGray(originalImage)</code>.
+     *
+     * @param originalImage The image we want to convert to grayscale.
+     * @param parallelism   The number of threads to convert with.
+     * @param threshold     The number of pixels below which the image is
+     *                      converted on the calling thread.
+     * @return An image converted to grayscale.
+     */
+    public static ImageFile makeGray(ImageFile originalImage,
+                                     int parallelism, int threshold) {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            return makeGray(originalImage, pool, threshold);
+        } finally {
+            pool.shutdown();
+        }
+    } // End of makeGray(originalImage, parallelism, threshold)
+
+
+    /**
+     * Creates a grayscale version of the original image by splitting it
+     * into bands of rows that are converted on the given pool. Idle
+     * workers steal bands from busy ones, so uneven progress evens out.
+     * The result is identical to the one produced by
+     * <code>makeGray(originalImage)</code>.
+     *
+     * @param originalImage The image we want to convert to grayscale.
+     * @param pool          The pool whose workers convert the bands.
+     * @param threshold     The number of pixels below which the image is
+     *                      converted on the calling thread.
+     * @return An image converted to grayscale.
+     */
+    public static ImageFile makeGray(ImageFile originalImage,
+                                     ForkJoinPool pool, int threshold) {
+        return new PixelPipeline(originalImage).gray()
+                .toImage(pool, threshold);
+    } // End of makeGray(originalImage, pool, threshold)
 
 
     /**
@@ -48,14 +212,238 @@ public class GrayscaleConverter {
      * grayscale. Then, it saves the new images but with new names.
      */
     public static void convertAndSave(File[] imageFiles) {
+        convertAndSave(imageFiles, GrayscaleMode.AVERAGE);
+    } // End of selectAndConvert()
+
+
+    /**
+     * Converts a collection of images to grayscale in the given mode and
+     * saves the new images with new names. Each image is closed once its
+     * grayscale version is saved, so with a <code>RasterPool</code> set on
+     * <code>ImageFile</code> the next image reuses its pixel arrays.
+     *
+     * @param imageFiles The images to convert.
+     * @param mode       How colours are turned into gray levels.
+     */
+    public static void convertAndSave(File[] imageFiles, GrayscaleMode mode) {
+        convertAndSave(Arrays.asList(imageFiles), mode);
+    } // End of convertAndSave(imageFiles, mode)
+
+
+    /**
+     * Converts images to grayscale in the given mode, like
+     * <code>convertAndSave(imageFiles, mode)</code>, taking them one at a
+     * time, so the images may still be being found, for example by an
+     * <code>InputDiscovery</code>, while the first ones are converted.
+     *
+     * @param imageFiles The images to convert.
+     * @param mode       How colours are turned into gray levels.
+     */
+    public static void convertAndSave(Iterable<File> imageFiles,
+                                      GrayscaleMode mode) {
         for(File imageFile:imageFiles){
-            ImageFile originalImage=new ImageFile(imageFile);
-            ImageFile grayscaleImage=makeGray(originalImage);
-            String originalFileName=imageFile.getName();
-            String newFileName="gray-"+originalFileName;
-            grayscaleImage.setFileName(newFileName);
-            grayscaleImage.saveAs();
+            try (ImageFile grayscaleImage = makeGray(imageFile, mode)) {
+                saveGray(imageFile, grayscaleImage);
+            }
         }
-    } // End of selectAndConvert()
+    } // End of convertAndSave(Iterable imageFiles, mode)
+
+
+    /**
+     * Converts a collection of images to grayscale and saves them with new
+     * names, like <code>convertAndSave(imageFiles)</code>, but reads,
+     * converts and saves different images at the same time. An image that
+     * cannot be converted does not stop the others.
+     *
+     * @param imageFiles The images to convert.
+     * @param threads    The number of threads reading and of threads saving.
+     * @return A summary of the images converted and the ones that failed.
+     */
+    public static BatchResult convertAndSave(File[] imageFiles, int threads) {
+        return convertAndSave(imageFiles, threads, GrayscaleMode.AVERAGE);
+    } // End of convertAndSave(imageFiles, threads)
+
+
+    /**
+     * Converts a collection of images to grayscale in the given mode, like
+     * <code>convertAndSave(imageFiles, threads)</code>.
+     *
+     * @param imageFiles The images to convert.
+     * @param threads    The number of threads reading and of threads saving.
+     * @param mode       How colours are turned into gray levels.
+     * @return A summary of the images converted and the ones that failed.
+     */
+    public static BatchResult convertAndSave(File[] imageFiles, int threads,
+                                             GrayscaleMode mode) {
+        return convertAndSave(Arrays.asList(imageFiles), threads, mode);
+    } // End of convertAndSave(imageFiles, threads, mode)
+
+
+    /**
+     * Converts images to grayscale in the given mode, like
+     * <code>convertAndSave(imageFiles, threads, mode)</code>, taking them
+     * one at a time as readers become free, so the images may still be
+     * being found while the first ones are converted.
+     *
+     * @param imageFiles The images to convert.
+     * @param threads    The number of threads reading and of threads saving.
+     * @param mode       How colours are turned into gray levels.
+     * @return A summary of the images converted and the ones that failed.
+     */
+    public static BatchResult convertAndSave(Iterable<File> imageFiles,
+                                             int threads, GrayscaleMode mode) {
+        return convertAndSave(imageFiles, threads, mode, null);
+    } // End of convertAndSave(Iterable imageFiles, threads, mode)
+
+
+    /**
+     * Converts images to grayscale in the given mode, like
+     * <code>convertAndSave(imageFiles, threads, mode)</code>, decoding an
+     * image only once the scheduler admits it against its memory budget,
+     * largest images first.
+     *
+     * @param imageFiles The images to convert.
+     * @param threads    The number of threads reading and of threads saving.
+     * @param mode       How colours are turned into gray levels.
+     * @param scheduler  The scheduler, or null to decode images as soon as
+     *                   a reader is free.
+     * @return A summary of the images converted and the ones that failed.
+     */
+    public static BatchResult convertAndSave(Iterable<File> imageFiles,
+                                             int threads, GrayscaleMode mode,
+                                             AdmissionScheduler scheduler) {
+        BatchPipeline pipeline = new BatchPipeline(threads);
+        pipeline.setMode(mode);
+        pipeline.setScheduler(scheduler);
+        return pipeline.run(imageFiles);
+    } // End of convertAndSave(Iterable imageFiles, threads, mode, scheduler)
+
+
+    /**
+     * Converts a collection of images to grayscale and saves them with new
+     * names, like <code>convertAndSave(imageFiles)</code>, but decodes each
+     * image a strip of rows at a time so that images too large to fit in
+     * memory can be converted. See <code>StreamingConverter</code>.
+     *
+     * @param imageFiles  The images to convert.
+     * @param stripHeight The number of rows decoded at a time.
+     */
+    public static void convertAndSaveStreaming(File[] imageFiles,
+                                               int stripHeight) {
+        for (File imageFile : imageFiles) {
+            File outputFile = new File("gray-" + imageFile.getName());
+            StreamingConverter.convertAndSave(imageFile,
+                    outputFile.getAbsoluteFile(), stripHeight);
+        }
+    } // End of convertAndSaveStreaming(imageFiles, stripHeight)
+
+
+    /**
+     * Converts a collection of images to grayscale and saves them with new
+     * names, like <code>convertAndSave(imageFiles)</code>, skipping the
+     * images whose output the manifest shows to be up to date. Every image
+     * saved is recorded in the manifest straight away, so running the
+     * same batch again after it was interrupted carries on where it
+     * stopped. An image that cannot be converted does not stop the others.
+     *
+     * @param imageFiles   The images to convert.
+     * @param manifestFile The file holding the manifest. It is created if
+     *                     it does not exist.
+     * @return A summary of the images converted, skipped and failed.
+     */
+    public static BatchResult convertAndSaveIncremental(File[] imageFiles,
+                                                        File manifestFile) {
+        return convertAndSaveIncremental(imageFiles, manifestFile,
+                GrayscaleMode.AVERAGE);
+    } // End of convertAndSaveIncremental(imageFiles, manifestFile)
+
+
+    /**
+     * Converts a collection of images to grayscale in the given mode, like
+     * <code>convertAndSaveIncremental(imageFiles, manifestFile)</code>.
+     * Outputs made in another mode are not taken as up to date.
+     *
+     * @param imageFiles   The images to convert.
+     * @param manifestFile The file holding the manifest.
+     * @param mode         How colours are turned into gray levels.
+     * @return A summary of the images converted, skipped and failed.
+     */
+    public static BatchResult convertAndSaveIncremental(File[] imageFiles,
+                                                        File manifestFile,
+                                                        GrayscaleMode mode) {
+        return convertAndSaveIncremental(Arrays.asList(imageFiles),
+                manifestFile, mode);
+    } // End of convertAndSaveIncremental(imageFiles, manifestFile, mode)
+
+
+    /**
+     * Converts images to grayscale in the given mode, like
+     * <code>convertAndSaveIncremental(imageFiles, manifestFile, mode)</code>,
+     * taking them one at a time, so the images may still be being found
+     * while the first ones are converted.
+     *
+     * @param imageFiles   The images to convert.
+     * @param manifestFile The file holding the manifest.
+     * @param mode         How colours are turned into gray levels.
+     * @return A summary of the images converted, skipped and failed.
+     */
+    public static BatchResult convertAndSaveIncremental(
+            Iterable<File> imageFiles, File manifestFile, GrayscaleMode mode) {
+        String params = grayParams(mode);
+        long start = System.nanoTime();
+        BatchResult result = new BatchResult();
+        try (ConversionManifest manifest = new ConversionManifest(manifestFile)) {
+            for (File imageFile : imageFiles) {
+                try {
+                    File outputFile = grayFileOf(imageFile);
+                    if (manifest.isUpToDate(imageFile, outputFile, params)) {
+                        result.addSkipped(imageFile);
+                        continue;
+                    }
+                    try (ImageFile grayscaleImage = makeGray(imageFile, mode)) {
+                        saveGray(imageFile, grayscaleImage);
+                    }
+                    manifest.record(imageFile, outputFile, params);
+                    result.addSuccess(imageFile);
+                } catch (Exception e) {
+                    result.addFailure(imageFile, "convert", e);
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(
+                    "GrayscaleConverter: Unable to use manifest " + manifestFile, e);
+        }
+        result.setElapsedNanos(System.nanoTime() - start);
+        return result;
+    } // End of convertAndSaveIncremental(Iterable imageFiles, manifestFile, mode)
+
+
+    /**
+     * Returns the file a grayscale image is saved to by
+     * <code>saveGray</code>: the name of its original file with "gray-" in
+     * front of it, in the current directory.
+     *
+     * @param imageFile The file the original image was read from.
+     * @return The file the grayscale image is saved to.
+     * @throws IOException If the path cannot be resolved.
+     */
+    static File grayFileOf(File imageFile) throws IOException {
+        return new File("gray-" + imageFile.getName()).getCanonicalFile();
+    } // End of grayFileOf(imageFile)
+
+
+    /**
+     * Saves a grayscale image under the name of its original file with
+     * "gray-" in front of it.
+     *
+     * @param imageFile      The file the original image was read from.
+     * @param grayscaleImage The grayscale version of that image.
+     */
+    static void saveGray(File imageFile, ImageFile grayscaleImage) {
+        String originalFileName=imageFile.getName();
+        String newFileName="gray-"+originalFileName;
+        grayscaleImage.setFileName(newFileName);
+        grayscaleImage.saveAs();
+    } // End of saveGray(imageFile, grayscaleImage)
 
 } // End of class GrayscaleConverter
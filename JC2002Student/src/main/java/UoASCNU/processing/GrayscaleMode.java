@@ -0,0 +1,125 @@
+package UoASCNU.processing;
+
+/**
+ * The <code>GrayscaleMode</code> enum lists the ways a colour can be turned
+ * into a gray level: the plain average of its red, green and blue
+ * components, used by default, or the luma of the ITU-R BT.601 and BT.709
+ * standards, which weigh the components by how bright they look.
+ * <code>LUMA</code> takes the BT.601 luma a JPEG already stores, without
+ * decoding the file to colour at all.
+ * <p>
+ * Each mode holds its weights as integers scaled by 2^17 and works out,
+ * once, a 256-entry table per component of the weighted value of every
+ * component value. A pixel then costs three table lookups, two additions
+ * and a shift, with no division and no floating point. The tables of the
+ * luma modes include half of the last unit, so their results are rounded
+ * to the nearest gray level; the average is rounded down, as the integer
+ * division of <code>makeGray</code> always was.
+ *
+ * @author Marco A. Palomino
+ */
+public enum GrayscaleMode {
+    /**
+     * (r + g + b) / 3, rounded down.
+     */
+    AVERAGE("average", 43691, 43691, 43691, 0),
+
+    /**
+     * 0.299 r + 0.587 g + 0.114 b, the luma of standard-definition video
+     * and of JPEG.
+     */
+    BT601("bt601", 39191, 76939, 14942, 1 << 16),
+
+    /**
+     * 0.2126 r + 0.7152 g + 0.0722 b, the luma of high-definition video
+     * and of sRGB.
+     */
+    BT709("bt709", 27866, 93743, 9463, 1 << 16),
+
+    /**
+     * The Y component of a JPEG in YCbCr, or the gray of a gray JPEG, read
+     * by <code>ImageFile.lumaOf</code> without converting the file to
+     * colour; other files are converted with the weights of
+     * <code>BT601</code>. It is the fastest mode for JPEGs, since the
+     * chroma is never upsampled nor converted to RGB.
+     * <p>
+     * Its gray levels are within a few of <code>BT601</code>: on the test
+     * photos the mean difference is at most 1.6 levels and the largest 9,
+     * from the chroma upsampling and clipping of the RGB decode. They can
+     * be far from <code>AVERAGE</code>, by a mean of 2 to 16 levels and
+     * up to 47 on the test photos, and up to 65 for saturated green or
+     * blue, which is why it is not the default.
+     */
+    LUMA("luma", 39191, 76939, 14942, 1 << 16);
+
+    /**
+     * The number of bits the sum of the weighted components is shifted
+     * right by.
+     */
+    static final int SHIFT = 17;
+
+    private final String modeName;
+    final int[] red = new int[256];
+    final int[] green = new int[256];
+    final int[] blue = new int[256];
+
+    /**
+     * Constructor: Creates a mode and works out its tables.
+     *
+     * @param modeName    The name of the mode.
+     * @param redWeight   The weight of red, scaled by 2^17.
+     * @param greenWeight The weight of green, scaled by 2^17.
+     * @param blueWeight  The weight of blue, scaled by 2^17.
+     * @param rounding    The amount added to every sum before shifting.
+     */
+    GrayscaleMode(String modeName, int redWeight, int greenWeight,
+                  int blueWeight, int rounding) {
+        this.modeName = modeName;
+        for (int v = 0; v < 256; v++) {
+            red[v] = v * redWeight + rounding;
+            green[v] = v * greenWeight;
+            blue[v] = v * blueWeight;
+        }
+    } // End of constructor
+
+
+    /**
+     * Returns the name of this mode, as used on the command line.
+     *
+     * @return The name of the mode, for example "bt601".
+     */
+    public String getModeName() {
+        return modeName;
+    } // End of getModeName()
+
+
+    /**
+     * Returns the gray level of a colour.
+     *
+     * @param argb The packed ARGB value of the colour.
+     * @return The gray level, between 0 and 255.
+     */
+    public int grayOf(int argb) {
+        return (red[(argb >> 16) & 0xff] + green[(argb >> 8) & 0xff]
+                + blue[argb & 0xff]) >>> SHIFT;
+    } // End of grayOf(argb)
+
+
+    /**
+     * Returns the mode with the given name.
+     *
+     * @param modeName The name of the mode, such as "average", "bt601",
+     *                 "bt709" or "luma", in any case.
+     * @return The mode with that name.
+     * @throws IllegalArgumentException If there is no mode with that name.
+     */
+    public static GrayscaleMode forName(String modeName) {
+        for (GrayscaleMode mode : values()) {
+            if (mode.modeName.equalsIgnoreCase(modeName)) {
+                return mode;
+            }
+        }
+        throw new IllegalArgumentException(
+                "GrayscaleMode: Unknown grayscale mode " + modeName);
+    } // End of forName(modeName)
+} // End of enum GrayscaleMode
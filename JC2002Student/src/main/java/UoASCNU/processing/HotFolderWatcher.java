@@ -0,0 +1,460 @@
+package UoASCNU.processing;
+
+import UoASCNU.images.ImageFile;
+
+import javax.imageio.ImageIO;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The <code>HotFolderWatcher</code> class converts images to grayscale as
+ * they arrive in one or more input directories, for as long as it runs.
+ * The images already in the directories whose output is missing or older
+ * than them are converted when it starts; after that, a
+ * <code>WatchService</code> reports every image created or changed.
+ * <p>
+ * A file that is still being written is not read: an image is only
+ * converted once its size and modification time have not changed for a
+ * quiet period. Conversions run on a fixed pool of threads, with at most
+ * two images per thread waiting for one; images that become ready while
+ * the pool is full wait until it has room. Each grayscale image is saved
+ * in the output directory as "gray-" followed by the original file name,
+ * written to a hidden temporary file first and renamed into place, so a
+ * program watching the output directory never sees half an image.
+ * <p>
+ * Files whose names start with "gray-" or "." are ignored, so the output
+ * directory may be one of the input directories.
+ * <p>
+ * <code>close</code> stops watching and waits for the images already
+ * handed to the pool to be saved. Images still waiting for their quiet
+ * period are left for the next run, which finds them when it starts.
+ *
+ * @author Marco A. Palomino
+ */
+public class HotFolderWatcher implements AutoCloseable {
+
+    /**
+     * How long an image must stay unchanged before it is converted when no
+     * other quiet period is given: one second.
+     */
+    public static final long DEFAULT_QUIET_MILLIS = 1000;
+
+    /**
+     * What the watcher knows about an image waiting for its quiet period.
+     */
+    private static final class Pending {
+        long size;
+        long modified;
+        long stableSince;
+
+        Pending(long size, long modified, long now) {
+            this.size = size;
+            this.modified = modified;
+            this.stableSince = now;
+        }
+    } // End of class Pending
+
+    private final List<Path> inputDirectories = new ArrayList<>();
+    private final Path outputDirectory;
+    private final int threads;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> watched = new HashMap<>();
+    private final Set<String> suffixes = new HashSet<>();
+
+    // The images waiting for their quiet period and the ones being
+    // converted, both guarded by the lock on pending
+    private final Map<Path, Pending> pending = new HashMap<>();
+    private final Set<Path> inFlight = new HashSet<>();
+
+    private final BatchResult result = new BatchResult();
+    private final CountDownLatch closed = new CountDownLatch(1);
+    private ExecutorService workers;
+    private Semaphore slots;
+    private ScheduledExecutorService ticker;
+    private Thread watchThread;
+    private GrayscaleMode mode = GrayscaleMode.AVERAGE;
+    private long quietMillis = DEFAULT_QUIET_MILLIS;
+    private long start;
+    private boolean started;
+    private boolean closing;
+
+    /**
+     * Constructor: Creates a watcher for the given directories. It does not
+     * convert anything until <code>start</code> is called.
+     *
+     * @param inputDirectories The directories to watch.
+     * @param outputDirectory  The directory the grayscale images are saved
+     *                         to. It is created if it does not exist.
+     * @param threads          The number of images converted at a time.
+     * @throws IOException If a directory cannot be watched or the output
+     *                     directory cannot be created.
+     */
+    public HotFolderWatcher(List<File> inputDirectories, File outputDirectory,
+                            int threads) throws IOException {
+        if (inputDirectories.isEmpty()) {
+            throw new IllegalArgumentException(
+                    "HotFolderWatcher: No directories to watch");
+        }
+        if (threads <= 0) {
+            throw new IllegalArgumentException(
+                    "HotFolderWatcher: Thread count must be positive ["
+                            + threads + "]");
+        }
+        this.outputDirectory = outputDirectory.toPath().toAbsolutePath();
+        this.threads = threads;
+        Files.createDirectories(this.outputDirectory);
+        for (String suffix : ImageIO.getReaderFileSuffixes()) {
+            suffixes.add(suffix.toLowerCase(Locale.ROOT));
+        }
+
+        watchService = this.outputDirectory.getFileSystem().newWatchService();
+        try {
+            for (File directory : inputDirectories) {
+                Path path = directory.toPath().toAbsolutePath();
+                if (!Files.isDirectory(path)) {
+                    throw new IOException(
+                            "HotFolderWatcher: Not a directory " + path);
+                }
+                WatchKey key = path.register(watchService,
+                        StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY);
+                watched.put(key, path);
+                this.inputDirectories.add(path);
+            }
+        } catch (IOException e) {
+            watchService.close();
+            throw e;
+        }
+    } // End of constructor
+
+
+    /**
+     * Returns how colours are turned into gray levels.
+     *
+     * @return The grayscale mode, <code>AVERAGE</code> by default.
+     */
+    public GrayscaleMode getMode() {
+        return mode;
+    } // End of getMode()
+
+
+    /**
+     * Sets how colours are turned into gray levels. It must be called
+     * before <code>start</code>.
+     *
+     * @param mode The grayscale mode.
+     */
+    public void setMode(GrayscaleMode mode) {
+        if (mode == null) {
+            throw new IllegalArgumentException(
+                    "HotFolderWatcher: Grayscale mode must not be null");
+        }
+        this.mode = mode;
+    } // End of setMode(mode)
+
+
+    /**
+     * Returns how long an image must stay unchanged before it is converted.
+     *
+     * @return The quiet period in milliseconds.
+     */
+    public long getQuietMillis() {
+        return quietMillis;
+    } // End of getQuietMillis()
+
+
+    /**
+     * Sets how long an image must stay unchanged before it is converted. It
+     * must be called before <code>start</code>.
+     *
+     * @param millis The quiet period in milliseconds.
+     */
+    public void setQuietMillis(long millis) {
+        if (millis <= 0) {
+            throw new IllegalArgumentException(
+                    "HotFolderWatcher: Quiet period must be positive ["
+                            + millis + "]");
+        }
+        quietMillis = millis;
+    } // End of setQuietMillis(millis)
+
+
+    /**
+     * Returns the images converted and the ones that failed so far. Once
+     * the watcher is closed, it also holds how long it ran.
+     *
+     * @return A summary of the images handled.
+     */
+    public BatchResult getResult() {
+        return result;
+    } // End of getResult()
+
+
+    /**
+     * Starts watching: queues the images already in the directories whose
+     * output is missing or out of date, then converts images as they
+     * arrive, on threads of its own, until <code>close</code> is called.
+     */
+    public synchronized void start() {
+        if (started) {
+            throw new IllegalStateException(
+                    "HotFolderWatcher: Already started");
+        }
+        started = true;
+        start = System.nanoTime();
+        workers = Executors.newFixedThreadPool(threads);
+        slots = new Semaphore(2 * threads);
+
+        for (Path directory : inputDirectories) {
+            scan(directory, true);
+        }
+
+        ticker = Executors.newSingleThreadScheduledExecutor();
+        long period = Math.max(1, quietMillis / 4);
+        ticker.scheduleWithFixedDelay(this::dispatch, period, period,
+                TimeUnit.MILLISECONDS);
+
+        watchThread = new Thread(this::watch, "hot-folder-watcher");
+        watchThread.start();
+    } // End of start()
+
+
+    /**
+     * Waits until the watcher has been closed and its last images saved.
+     *
+     * @throws InterruptedException If the thread is interrupted while
+     *                              waiting.
+     */
+    public void awaitClose() throws InterruptedException {
+        closed.await();
+    } // End of awaitClose()
+
+
+    /**
+     * Stops watching and waits for the images handed to the pool to be
+     * converted and saved. It may be called from a shutdown hook, and
+     * more than once.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closing) {
+                return;
+            }
+            closing = true;
+        }
+        try {
+            watchService.close();
+            if (started) {
+                ticker.shutdown();
+                ticker.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+                workers.shutdown();
+                workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+                watchThread.join();
+                result.setElapsedNanos(System.nanoTime() - start);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(
+                    "HotFolderWatcher: Unable to stop watching", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(
+                    "HotFolderWatcher: Interrupted waiting for conversions", e);
+        } finally {
+            closed.countDown();
+        }
+    } // End of close()
+
+
+    /**
+     * Takes the events of the watch service until it is closed, noting
+     * every image created or changed. When events were lost, the whole
+     * directory is scanned again.
+     */
+    private void watch() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                Path directory = watched.get(key);
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        scan(directory, false);
+                    } else {
+                        notice(directory.resolve((Path) event.context()));
+                    }
+                }
+                key.reset();
+            }
+        } catch (ClosedWatchServiceException e) {
+            // Closed by close()
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    } // End of watch()
+
+
+    /**
+     * Notes every image in a directory.
+     *
+     * @param directory    The directory to scan.
+     * @param skipUpToDate Whether to leave out the images whose output is
+     *                     newer than them.
+     */
+    private void scan(Path directory, boolean skipUpToDate) {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                if (skipUpToDate && isUpToDate(file)) {
+                    continue;
+                }
+                notice(file);
+            }
+        } catch (IOException e) {
+            result.addFailure(directory.toFile(), "scan", e);
+        }
+    } // End of scan(directory, skipUpToDate)
+
+
+    /**
+     * Tells whether the output of an image is newer than the image.
+     *
+     * @param file The image.
+     * @return True if the output exists and is not older than the image.
+     */
+    private boolean isUpToDate(Path file) {
+        File output = outputOf(file).toFile();
+        return output.exists()
+                && output.lastModified() >= file.toFile().lastModified();
+    } // End of isUpToDate(file)
+
+
+    /**
+     * Starts the quiet period of an image, or starts it again if the image
+     * was already waiting. Files that are not images are ignored.
+     *
+     * @param file The image created or changed.
+     */
+    private void notice(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        if (name.startsWith("gray-") || name.startsWith(".") || dot < 0
+                || !suffixes.contains(
+                        name.substring(dot + 1).toLowerCase(Locale.ROOT))) {
+            return;
+        }
+        File attributes = file.toFile();
+        synchronized (pending) {
+            pending.put(file, new Pending(attributes.length(),
+                    attributes.lastModified(), System.currentTimeMillis()));
+        }
+    } // End of notice(file)
+
+
+    /**
+     * Hands the images that have stayed unchanged for the quiet period to
+     * the pool, as long as it has room. Runs every quarter of the quiet
+     * period.
+     */
+    private void dispatch() {
+        long now = System.currentTimeMillis();
+        synchronized (pending) {
+            Iterator<Map.Entry<Path, Pending>> waiting =
+                    pending.entrySet().iterator();
+            while (waiting.hasNext()) {
+                Map.Entry<Path, Pending> entry = waiting.next();
+                Path file = entry.getKey();
+                Pending state = entry.getValue();
+                File attributes = file.toFile();
+                if (!attributes.isFile()) {
+                    // Deleted or moved away before it settled
+                    waiting.remove();
+                    continue;
+                }
+                long size = attributes.length();
+                long modified = attributes.lastModified();
+                if (size != state.size || modified != state.modified) {
+                    state.size = size;
+                    state.modified = modified;
+                    state.stableSince = now;
+                } else if (size > 0 && now - state.stableSince >= quietMillis
+                        && !inFlight.contains(file)) {
+                    if (!slots.tryAcquire()) {
+                        // The pool is full: the rest wait for the next tick
+                        return;
+                    }
+                    waiting.remove();
+                    inFlight.add(file);
+                    workers.execute(() -> convert(file));
+                }
+            }
+        }
+    } // End of dispatch()
+
+
+    /**
+     * Converts an image and saves it in the output directory.
+     *
+     * @param file The image.
+     */
+    private void convert(Path file) {
+        Path output = outputOf(file);
+        Path temporary = output.resolveSibling(
+                "." + output.getFileName() + ".part");
+        try {
+            try (ImageFile grayscaleImage =
+                         GrayscaleConverter.makeGray(file.toFile(), mode)) {
+                grayscaleImage.setFileName(temporary.toString());
+                grayscaleImage.save();
+            }
+            Files.move(temporary, output, StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+            result.addSuccess(file.toFile());
+        } catch (Exception e) {
+            result.addFailure(file.toFile(), "convert", e);
+            try {
+                Files.deleteIfExists(temporary);
+            } catch (IOException ignored) {
+                // Overwritten by the next attempt
+            }
+        } finally {
+            synchronized (pending) {
+                inFlight.remove(file);
+            }
+            slots.release();
+        }
+    } // End of convert(file)
+
+
+    /**
+     * Returns the file the grayscale version of an image is saved to.
+     *
+     * @param file The image.
+     * @return "gray-" followed by the name of the image, in the output
+     *         directory.
+     */
+    private Path outputOf(Path file) {
+        return outputDirectory.resolve("gray-" + file.getFileName());
+    } // End of outputOf(file)
+} // End of class HotFolderWatcher
@@ -0,0 +1,517 @@
+package UoASCNU.processing;
+
+import javax.imageio.ImageIO;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The <code>InputDiscovery</code> class finds the images of a batch while
+ * the batch is being converted. Images may be given one by one, found by
+ * walking directories, or read from a list of paths, one per line, such as
+ * a file or the output of <code>find</code> piped to standard input.
+ * <p>
+ * Discovery starts when the iterator is taken and runs on threads of its
+ * own, so the first image can be converted as soon as it is found instead
+ * of after the whole batch has been listed, and a batch of millions of
+ * files never has to be held in memory or passed on the command line.
+ * Directories are walked by several threads at once, each subdirectory
+ * being listed as soon as a thread is free. At most a given number of
+ * images found are kept waiting for the converter; discovery pauses while
+ * that many are waiting.
+ * <p>
+ * Directory walks keep the files matching the include pattern, or the
+ * files with a suffix ImageIO can read if there is none, and skip hidden
+ * files and directories, the "gray-" files a previous conversion saved
+ * and symbolic links to directories. Images given one by one or in a
+ * list are taken as they are. Files are not found in any particular
+ * order. A directory or list that cannot be read is recorded in
+ * <code>getErrors</code> and the rest of the batch carries on.
+ *
+ * @author Marco A. Palomino
+ */
+public class InputDiscovery implements Iterable<File>, AutoCloseable {
+
+    /**
+     * The number of images found that may wait for the converter when no
+     * other limit is given.
+     */
+    public static final int DEFAULT_WINDOW = 1024;
+
+    /**
+     * Tells the iterator that discovery has finished.
+     */
+    private static final File END = new File("");
+
+    // Each source is a File to take as it is, a Path to walk, or a Reader
+    // of a list of paths
+    private final List<Object> sources = new ArrayList<>();
+    private final BlockingQueue<File> found;
+    private int parallelism = Math.max(1, Math.min(8,
+            Runtime.getRuntime().availableProcessors()));
+    private String include;
+    private PathMatcher matcher;
+    private final Set<String> suffixes = new HashSet<>();
+
+    private final List<String> errors =
+            Collections.synchronizedList(new ArrayList<>());
+    private final AtomicLong discovered = new AtomicLong();
+    private final AtomicInteger walking = new AtomicInteger();
+    private ExecutorService walkers;
+    private Thread coordinator;
+    private volatile boolean closed;
+
+    /**
+     * Constructor: Creates a discovery with no sources, which keeps up to
+     * <code>DEFAULT_WINDOW</code> images waiting for the converter.
+     */
+    public InputDiscovery() {
+        this(DEFAULT_WINDOW);
+    } // End of constructor
+
+
+    /**
+     * Constructor: Creates a discovery with no sources.
+     *
+     * @param window The number of images found that may wait for the
+     *               converter before discovery pauses.
+     */
+    public InputDiscovery(int window) {
+        if (window <= 0) {
+            throw new IllegalArgumentException(
+                    "InputDiscovery: Window must be positive [" + window + "]");
+        }
+        found = new ArrayBlockingQueue<>(window);
+        for (String suffix : ImageIO.getReaderFileSuffixes()) {
+            suffixes.add(suffix.toLowerCase(Locale.ROOT));
+        }
+    } // End of constructor
+
+
+    /**
+     * Adds an image, taken as it is.
+     *
+     * @param file The image.
+     */
+    public synchronized void addFile(File file) {
+        checkNotStarted();
+        sources.add(file);
+    } // End of addFile(file)
+
+
+    /**
+     * Adds the images in a directory and all its subdirectories.
+     *
+     * @param directory The directory to walk.
+     */
+    public synchronized void addDirectory(File directory) {
+        checkNotStarted();
+        sources.add(directory.toPath());
+    } // End of addDirectory(directory)
+
+
+    /**
+     * Adds the images listed in a file, one path per line. Blank lines are
+     * skipped, and relative paths are taken from the current directory.
+     *
+     * @param listFile The list, or "-" for standard input.
+     * @throws IOException If the list file cannot be opened.
+     */
+    public void addList(File listFile) throws IOException {
+        if (listFile.getPath().equals("-")) {
+            addList(new InputStreamReader(System.in,
+                    StandardCharsets.UTF_8));
+        } else {
+            addList(Files.newBufferedReader(listFile.toPath(),
+                    StandardCharsets.UTF_8));
+        }
+    } // End of addList(listFile)
+
+
+    /**
+     * Adds the images listed by a reader, one path per line, like
+     * <code>addList(listFile)</code>. The reader is read as the batch
+     * runs and closed at the end.
+     *
+     * @param list The list.
+     */
+    public synchronized void addList(Reader list) {
+        checkNotStarted();
+        sources.add(list);
+    } // End of addList(list)
+
+
+    /**
+     * Returns whether any source has been added.
+     *
+     * @return Whether there is anything to discover.
+     */
+    public synchronized boolean hasSources() {
+        return !sources.isEmpty();
+    } // End of hasSources()
+
+
+    /**
+     * Returns the pattern the files found in directories must match.
+     *
+     * @return The glob pattern, or null for the suffixes ImageIO can read.
+     */
+    public String getInclude() {
+        return include;
+    } // End of getInclude()
+
+
+    /**
+     * Sets the pattern the files found in directories must match, in the
+     * syntax of <code>FileSystem.getPathMatcher</code>, for example
+     * "*.{jpg,jpeg}". A pattern without a "/" is matched against the file
+     * name; one with a "/" against the path from the directory walked,
+     * as in "2024/**.png".
+     *
+     * @param include The glob pattern, or null for the suffixes ImageIO
+     *                can read.
+     */
+    public synchronized void setInclude(String include) {
+        checkNotStarted();
+        this.include = include;
+        this.matcher = include == null ? null
+                : FileSystems.getDefault().getPathMatcher("glob:" + include);
+    } // End of setInclude(include)
+
+
+    /**
+     * Returns the number of threads walking directories.
+     *
+     * @return The number of threads.
+     */
+    public int getParallelism() {
+        return parallelism;
+    } // End of getParallelism()
+
+
+    /**
+     * Sets the number of threads walking directories. Deep or wide trees,
+     * especially on network file systems, are listed faster by more
+     * threads.
+     *
+     * @param parallelism The number of threads.
+     */
+    public synchronized void setParallelism(int parallelism) {
+        checkNotStarted();
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException(
+                    "InputDiscovery: Parallelism must be positive ["
+                            + parallelism + "]");
+        }
+        this.parallelism = parallelism;
+    } // End of setParallelism(parallelism)
+
+
+    /**
+     * Returns the number of images found so far.
+     *
+     * @return The number of images handed to the iterator or waiting.
+     */
+    public long getDiscovered() {
+        return discovered.get();
+    } // End of getDiscovered()
+
+
+    /**
+     * Returns the directories and lists that could not be read, with the
+     * reason for each.
+     *
+     * @return A copy of the error messages.
+     */
+    public List<String> getErrors() {
+        synchronized (errors) {
+            return new ArrayList<>(errors);
+        }
+    } // End of getErrors()
+
+
+    /**
+     * Starts discovery and returns the images as they are found. The
+     * iterator waits while none is ready and discovery has not finished.
+     * It may only be taken once.
+     *
+     * @return The images of the batch.
+     */
+    @Override
+    public synchronized Iterator<File> iterator() {
+        if (coordinator != null) {
+            throw new IllegalStateException(
+                    "InputDiscovery: Discovery has already started");
+        }
+        walkers = Executors.newFixedThreadPool(parallelism, task -> {
+            Thread thread = new Thread(task, "input-discovery-walker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        coordinator = new Thread(this::discover, "input-discovery");
+        coordinator.setDaemon(true);
+        coordinator.start();
+
+        return new Iterator<>() {
+            private File next;
+            private boolean finished;
+
+            @Override
+            public boolean hasNext() {
+                if (next == null && !finished) {
+                    try {
+                        next = found.take();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new RuntimeException(
+                                "InputDiscovery: Interrupted waiting for an image", e);
+                    }
+                    if (next == END) {
+                        next = null;
+                        finished = true;
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public File next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                File file = next;
+                next = null;
+                return file;
+            }
+        };
+    } // End of iterator()
+
+
+    /**
+     * Stops discovery. The iterator returns no more images once those
+     * already waiting are taken, or at once if discovery had to be
+     * interrupted.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (coordinator != null) {
+            walkers.shutdownNow();
+            coordinator.interrupt();
+        }
+    } // End of close()
+
+
+    /**
+     * Goes through the sources in order, handing directories to the
+     * walkers, then waits for the walks to finish.
+     */
+    private void discover() {
+        try {
+            for (Object source : sources) {
+                if (closed) {
+                    break;
+                }
+                if (source instanceof File) {
+                    offer((File) source);
+                } else if (source instanceof Path) {
+                    walk((Path) source, (Path) source);
+                } else {
+                    readList((Reader) source);
+                }
+            }
+            synchronized (walking) {
+                while (walking.get() > 0 && !closed) {
+                    walking.wait();
+                }
+            }
+        } catch (InterruptedException e) {
+            // Closed while waiting for the converter or the walkers
+        } finally {
+            walkers.shutdown();
+            finish();
+        }
+    } // End of discover()
+
+
+    /**
+     * Tells the iterator that discovery has finished, once it has taken
+     * the images still waiting, or at once if discovery was closed.
+     */
+    private void finish() {
+        while (true) {
+            if (closed) {
+                found.clear();
+            }
+            try {
+                if (found.offer(END, 100, TimeUnit.MILLISECONDS)) {
+                    return;
+                }
+            } catch (InterruptedException e) {
+                // Closed while waiting for room: the queue is cleared
+            }
+        }
+    } // End of finish()
+
+
+    /**
+     * Reads a list of paths, handing each to the converter.
+     *
+     * @param list The list.
+     * @throws InterruptedException If discovery is closed meanwhile.
+     */
+    private void readList(Reader list) throws InterruptedException {
+        try (BufferedReader lines = new BufferedReader(list)) {
+            String line;
+            while (!closed && (line = lines.readLine()) != null) {
+                if (!line.isBlank()) {
+                    offer(new File(line.strip()));
+                }
+            }
+        } catch (IOException e) {
+            errors.add("Unable to read list: " + e.getMessage());
+        }
+    } // End of readList(list)
+
+
+    /**
+     * Lists a directory on a walker thread, handing its images to the
+     * converter and each subdirectory to another walker.
+     *
+     * @param root      The directory the walk started from.
+     * @param directory The directory to list.
+     */
+    private void walk(Path root, Path directory) {
+        walking.incrementAndGet();
+        try {
+            walkers.execute(() -> {
+                try {
+                    list(root, directory);
+                } catch (InterruptedException e) {
+                    // Closed while waiting for the converter
+                } finally {
+                    finishedWalking();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Closed before the directory could be listed
+            finishedWalking();
+        }
+    } // End of walk(root, directory)
+
+
+    /**
+     * Counts a directory as listed, waking the coordinator after the
+     * last.
+     */
+    private void finishedWalking() {
+        if (walking.decrementAndGet() == 0) {
+            synchronized (walking) {
+                walking.notifyAll();
+            }
+        }
+    } // End of finishedWalking()
+
+
+    /**
+     * Lists a directory.
+     *
+     * @param root      The directory the walk started from.
+     * @param directory The directory to list.
+     * @throws InterruptedException If discovery is closed meanwhile.
+     */
+    private void list(Path root, Path directory) throws InterruptedException {
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+            for (Path entry : entries) {
+                if (closed) {
+                    return;
+                }
+                String name = entry.getFileName().toString();
+                if (name.startsWith(".") || name.startsWith("gray-")) {
+                    continue;
+                }
+                BasicFileAttributes attributes = Files.readAttributes(entry,
+                        BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                if (attributes.isDirectory()) {
+                    walk(root, entry);
+                } else if ((attributes.isRegularFile()
+                        || Files.isRegularFile(entry)) && accepts(root, entry)) {
+                    offer(entry.toFile());
+                }
+            }
+        } catch (IOException | DirectoryIteratorException e) {
+            errors.add("Unable to list " + directory + ": " + e.getMessage());
+        }
+    } // End of list(root, directory)
+
+
+    /**
+     * Returns whether a file found in a directory is part of the batch.
+     *
+     * @param root The directory the walk started from.
+     * @param file The file.
+     * @return Whether it matches the include pattern or, if there is none,
+     * has a suffix ImageIO can read.
+     */
+    private boolean accepts(Path root, Path file) {
+        if (matcher != null) {
+            return include.contains("/")
+                    ? matcher.matches(root.relativize(file))
+                    : matcher.matches(file.getFileName());
+        }
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot >= 0 && suffixes.contains(
+                name.substring(dot + 1).toLowerCase(Locale.ROOT));
+    } // End of accepts(root, file)
+
+
+    /**
+     * Hands an image to the converter, waiting while the window is full.
+     *
+     * @param file The image.
+     * @throws InterruptedException If discovery is closed meanwhile.
+     */
+    private void offer(File file) throws InterruptedException {
+        found.put(file);
+        discovered.incrementAndGet();
+    } // End of offer(file)
+
+
+    /**
+     * Refuses changes to the sources once discovery has started.
+     */
+    private void checkNotStarted() {
+        if (coordinator != null) {
+            throw new IllegalStateException(
+                    "InputDiscovery: Discovery has already started");
+        }
+    } // End of checkNotStarted()
+} // End of class InputDiscovery
@@ -0,0 +1,123 @@
+package UoASCNU.processing;
+
+/**
+ * The <code>PixelOperator</code> interface is a transform applied to every
+ * pixel of an image, one packed ARGB value at a time. Operators are
+ * chained in a <code>PixelPipeline</code>, which applies all of them in a
+ * single pass over the image.
+ * <p>
+ * Any lambda taking and returning a packed ARGB <code>int</code> is an
+ * operator. The operators made by the static methods of this interface
+ * also know how to transform a whole row at once, and the ones that change
+ * each colour component on its own are merged into a single lookup table
+ * when they follow each other in a pipeline.
+ *
+ * @author Marco A. Palomino
+ */
+@FunctionalInterface
+public interface PixelOperator {
+
+    /**
+     * Transforms one pixel.
+     *
+     * @param argb The packed ARGB value of the pixel.
+     * @return The packed ARGB value of the transformed pixel.
+     */
+    int apply(int argb);
+
+    /**
+     * Transforms the values in [from, to) of a row in place.
+     *
+     * @param values The packed ARGB values of the row.
+     * @param from   The first position to transform.
+     * @param to     The position after the last one to transform.
+     */
+    default void applyTo(int[] values, int from, int to) {
+        for (int i = from; i < to; i++) {
+            values[i] = apply(values[i]);
+        }
+    } // End of applyTo(values, from, to)
+
+    /**
+     * Returns whether a gray pixel is still gray after this operator, so
+     * that a pipeline can produce a grayscale image.
+     *
+     * @return True if the operator never turns gray pixels into colours.
+     */
+    default boolean keepsGray() {
+        return false;
+    } // End of keepsGray()
+
+
+    /**
+     * Returns the operator setting every colour component to the integer
+     * average of the red, green and blue components, as
+     * <code>GrayscaleConverter.makeGray</code> does.
+     *
+     * @return The grayscale operator.
+     */
+    static PixelOperator gray() {
+        return GrayOperator.AVERAGE;
+    } // End of gray()
+
+    /**
+     * Returns the operator setting every colour component to the gray
+     * level of the pixel in the given mode.
+     *
+     * @param mode How colours are turned into gray levels.
+     * @return The grayscale operator.
+     */
+    static PixelOperator gray(GrayscaleMode mode) {
+        return GrayOperator.of(mode);
+    } // End of gray(mode)
+
+    /**
+     * Returns an operator adding the given amount to every colour
+     * component, keeping the results within [0, 255].
+     *
+     * @param delta The amount added, negative to darken.
+     * @return The brightness operator.
+     */
+    static PixelOperator brightness(int delta) {
+        return ChannelOperator.of(v -> v + delta);
+    } // End of brightness(delta)
+
+    /**
+     * Returns an operator stretching every colour component away from the
+     * middle value 128 by the given factor, keeping the results within
+     * [0, 255].
+     *
+     * @param factor How much to stretch, between 0 and 1 to reduce the
+     *               contrast.
+     * @return The contrast operator.
+     */
+    static PixelOperator contrast(double factor) {
+        if (factor < 0) {
+            throw new IllegalArgumentException(
+                    "PixelOperator: Contrast factor must not be negative ["
+                            + factor + "]");
+        }
+        return ChannelOperator.of(v -> (int) Math.round((v - 128) * factor) + 128);
+    } // End of contrast(factor)
+
+    /**
+     * Returns an operator setting every colour component to 255 if it is
+     * at least the given level, and to 0 otherwise.
+     *
+     * @param level The lowest value set to 255.
+     * @return The threshold operator.
+     */
+    static PixelOperator threshold(int level) {
+        return ChannelOperator.of(v -> v >= level ? 255 : 0);
+    } // End of threshold(level)
+
+    /**
+     * Returns an operator replacing every colour component by 255 minus
+     * its value.
+     *
+     * @return The invert operator.
+     */
+    static PixelOperator invert() {
+        return ChannelOperator.of(v -> 255 - v);
+    } // End of invert()
+} // End of interface PixelOperator
@@ -0,0 +1,306 @@
+package UoASCNU.processing;
+
+import UoASCNU.images.ImageFile;
+import UoASCNU.metrics.ConversionMetrics;
+import UoASCNU.metrics.Stage;
+import UoASCNU.metrics.StageTimer;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The <code>PixelPipeline</code> class chains pixel operators over an
+ * image, for example
+ * <pre>
+ *     new PixelPipeline(image).gray().contrast(1.5).threshold(128).toImage();
+ * </pre>
+ * Adding an operator does no work. The operators are only applied when the
+ * result is asked for by <code>toImage</code> or <code>saveAs</code>, and
+ * then all of them are applied in a single pass: each row of the image is
+ * copied once into a small buffer, put through every operator while it is
+ * in the processor's cache, and copied once into the result. No image is
+ * created in between, whatever the number of operators.
+ * <p>
+ * Operators that change each colour component on its own, such as
+ * <code>brightness</code> or <code>invert</code>, are merged into a single
+ * lookup table when they follow each other. A pipeline that ends with gray
+ * pixels produces a grayscale image, one byte per pixel.
+ * <p>
+ * The result of an off-heap source image is itself off heap, so that
+ * images larger than the heap can be processed; it must be closed like
+ * its source.
+ * <p>
+ * A pipeline may be run several times, but it must not be changed while it
+ * runs.
+ *
+ * @author Marco A. Palomino
+ */
+public final class PixelPipeline {
+
+    private final ImageFile source;
+    private final List<PixelOperator> operators = new ArrayList<>();
+
+    // Whether every pixel is gray after the operators added so far
+    private boolean grayOutput;
+
+    /**
+     * Constructor: Creates a pipeline with no operators over an image.
+     *
+     * @param source The image the operators are applied to. It is not
+     *               changed.
+     */
+    public PixelPipeline(ImageFile source) {
+        if (source == null) {
+            throw new RuntimeException(
+                    "PixelPipeline: Source image must not be null");
+        }
+        this.source = source;
+        this.grayOutput = source.isGray();
+    } // End of constructor
+
+
+    /**
+     * Adds an operator to the end of the pipeline.
+     *
+     * @param operator The operator applied after the ones already added.
+     * @return This pipeline.
+     */
+    public PixelPipeline then(PixelOperator operator) {
+        if (operator == null) {
+            throw new RuntimeException(
+                    "PixelPipeline: Operator must not be null");
+        }
+        if (operator instanceof GrayOperator) {
+            grayOutput = true;
+        } else if (!operator.keepsGray()) {
+            grayOutput = false;
+        }
+        int last = operators.size() - 1;
+        if (operator instanceof ChannelOperator && last >= 0
+                && operators.get(last) instanceof ChannelOperator) {
+            ChannelOperator previous = (ChannelOperator) operators.get(last);
+            operators.set(last, previous.andThen((ChannelOperator) operator));
+        } else {
+            operators.add(operator);
+        }
+        return this;
+    } // End of then(operator)
+
+    /**
+     * Adds <code>PixelOperator.gray()</code> to the pipeline.
+     *
+     * @return This pipeline.
+     */
+    public PixelPipeline gray() {
+        return then(PixelOperator.gray());
+    } // End of gray()
+
+    /**
+     * Adds <code>PixelOperator.gray(mode)</code> to the pipeline.
+     *
+     * @param mode How colours are turned into gray levels.
+     * @return This pipeline.
+     */
+    public PixelPipeline gray(GrayscaleMode mode) {
+        return then(PixelOperator.gray(mode));
+    } // End of gray(mode)
+
+    /**
+     * Adds <code>PixelOperator.brightness(delta)</code> to the pipeline.
+     *
+     * @param delta The amount added to every colour component.
+     * @return This pipeline.
+     */
+    public PixelPipeline brightness(int delta) {
+        return then(PixelOperator.brightness(delta));
+    } // End of brightness(delta)
+
+    /**
+     * Adds <code>PixelOperator.contrast(factor)</code> to the pipeline.
+     *
+     * @param factor How much to stretch the colour components.
+     * @return This pipeline.
+     */
+    public PixelPipeline contrast(double factor) {
+        return then(PixelOperator.contrast(factor));
+    } // End of contrast(factor)
+
+    /**
+     * Adds <code>PixelOperator.threshold(level)</code> to the pipeline.
+     *
+     * @param level The lowest value set to 255.
+     * @return This pipeline.
+     */
+    public PixelPipeline threshold(int level) {
+        return then(PixelOperator.threshold(level));
+    } // End of threshold(level)
+
+    /**
+     * Adds <code>PixelOperator.invert()</code> to the pipeline.
+     *
+     * @return This pipeline.
+     */
+    public PixelPipeline invert() {
+        return then(PixelOperator.invert());
+    } // End of invert()
+
+
+    /**
+     * Applies the operators to the source image on the calling thread.
+     *
+     * @return A new image holding the result, grayscale if every pixel of
+     * the result is gray.
+     */
+    public ImageFile toImage() {
+        StageTimer timer = ConversionMetrics.start(Stage.CONVERT);
+        ImageFile result = blankResult();
+        processRows(result, 0, source.getHeight());
+        stopTimer(timer);
+        return result;
+    } // End of toImage()
+
+
+    /**
+     * Applies the operators to the source image by splitting it into bands
+     * of rows that are processed on the given pool. The result is
+     * identical to the one produced by <code>toImage()</code>.
+     *
+     * @param pool      The pool whose workers process the bands.
+     * @param threshold The number of pixels below which the image is
+     *                  processed on the calling thread.
+     * @return A new image holding the result.
+     */
+    public ImageFile toImage(ForkJoinPool pool, int threshold) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        if ((long) width * height < threshold || pool.getParallelism() == 1) {
+            return toImage();
+        }
+        StageTimer timer = ConversionMetrics.start(Stage.CONVERT);
+        ImageFile result = blankResult();
+        pool.invoke(new BandTask((fromY, toY) -> processRows(result, fromY, toY),
+                0, height, BandTask.bandHeight(width, height,
+                pool.getParallelism())));
+        stopTimer(timer);
+        return result;
+    } // End of toImage(pool, threshold)
+
+
+    /**
+     * Applies the operators to the source image, replacing its pixels with
+     * the result instead of creating a new image. The source keeps its
+     * type, so a colour image made gray holds the gray level in each of
+     * its red, green and blue components.
+     *
+     * @return The source image, holding the result.
+     */
+    public ImageFile applyInPlace() {
+        StageTimer timer = ConversionMetrics.start(Stage.CONVERT);
+        processRows(source, 0, source.getHeight());
+        stopTimer(timer);
+        return source;
+    } // End of applyInPlace()
+
+
+    /**
+     * Applies the operators to the source image and saves the result under
+     * the given file name, in the directory of the source image.
+     *
+     * @param fileName The name of the file the result is saved to.
+     * @return The result that was saved.
+     */
+    public ImageFile saveAs(String fileName) {
+        ImageFile result = toImage();
+        result.setFileName(fileName);
+        result.saveAs();
+        return result;
+    } // End of saveAs(fileName)
+
+
+    /**
+     * Creates a black image of the size of the source image, of the type
+     * the result needs.
+     *
+     * @return A blank image for the result.
+     */
+    private ImageFile blankResult() {
+        int type = grayOutput ? BufferedImage.TYPE_BYTE_GRAY
+                : BufferedImage.TYPE_INT_RGB;
+        if (source.isOffHeap()) {
+            return ImageFile.offHeap(source.getWidth(), source.getHeight(), type);
+        }
+        return new ImageFile(source.getWidth(), source.getHeight(), type);
+    } // End of blankResult()
+
+
+    /**
+     * Records a run of the pipeline as completed.
+     *
+     * @param timer The timer started for the run.
+     */
+    private void stopTimer(StageTimer timer) {
+        timer.stop(source.getFileName(), source.getWidth(), source.getHeight(),
+                4L * source.getWidth() * source.getHeight());
+    } // End of stopTimer(timer)
+
+
+    /**
+     * Applies every operator to the rows in [fromY, toY) of the source
+     * image and stores them in the result.
+     *
+     * @param result The image receiving the result.
+     * @param fromY  The first row to process.
+     * @param toY    The row after the last row to process.
+     */
+    private void processRows(ImageFile result, int fromY, int toY) {
+        int width = source.getWidth();
+        int[] src = source.getRasterData();
+        byte[] srcGray = source.getGrayData();
+        int[] dst = result.getRasterData();
+        byte[] dstGray = result.getGrayData();
+        if (src != null && dstGray != null && operators.size() == 1
+                && operators.get(0) instanceof GrayOperator) {
+            // Plain grayscale conversion, straight into the gray levels
+            ((GrayOperator) operators.get(0)).convert(src, dstGray,
+                    fromY * width, toY * width);
+            return;
+        }
+        if (src != null && dst == src) {
+            // In place: the operators run over the pixels themselves, a
+            // row at a time so that the row stays in the cache
+            for (int y = fromY; y < toY; y++) {
+                for (PixelOperator operator : operators) {
+                    operator.applyTo(src, y * width, (y + 1) * width);
+                }
+            }
+            return;
+        }
+        int[] row = new int[width];
+        for (int y = fromY; y < toY; y++) {
+            int offset = y * width;
+            if (src != null) {
+                System.arraycopy(src, offset, row, 0, width);
+            } else if (srcGray != null) {
+                for (int x = 0; x < width; x++) {
+                    row[x] = (srcGray[offset + x] & 0xff) * 0x010101;
+                }
+            } else {
+                source.getRow(y, row);
+            }
+            for (PixelOperator operator : operators) {
+                operator.applyTo(row, 0, width);
+            }
+            if (dst != null) {
+                System.arraycopy(row, 0, dst, offset, width);
+            } else if (dstGray != null) {
+                for (int x = 0; x < width; x++) {
+                    dstGray[offset + x] = (byte) row[x];
+                }
+            } else {
+                result.setRow(y, row);
+            }
+        }
+    } // End of processRows(result, fromY, toY)
+} // End of class PixelPipeline
@@ -0,0 +1,148 @@
+package UoASCNU.processing;
+
+import UoASCNU.metrics.ConversionMetrics;
+import UoASCNU.metrics.Stage;
+import UoASCNU.metrics.StageTimer;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Point;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * The <code>StreamingConverter</code> class converts images to grayscale
+ * without ever holding a whole image in memory, for inputs too large to
+ * load as an <code>ImageFile</code>.
+ * <p>
+ * The source is decoded in horizontal strips through an
+ * <code>ImageReader</code> with a source region, and each strip is
+ * converted to gray as the <code>ImageWriter</code> asks for its rows, so
+ * the heap used grows with the strip height rather than with the image.
+ * The result is a single-channel (8-bit gray) JPEG.
+ * <p>
+ * Two costs come with this. The JDK's JPEG reader cannot resume a decode
+ * where the previous strip ended, so every strip decodes the image from
+ * the top down to its own rows; taller strips mean fewer passes. And
+ * writers that do not consume their input row by row may still gather the
+ * whole gray image, one byte per pixel, before encoding it.
+ *
+ * @author Marco A. Palomino
+ */
+public class StreamingConverter {
+
+    /**
+     * The number of rows decoded at a time when none is given.
+     */
+    public static final int DEFAULT_STRIP_HEIGHT = 512;
+
+    private StreamingConverter() {
+    } // End of constructor
+
+
+    /**
+     * Converts an image to grayscale strip by strip and saves it to the
+     * given file as a JPEG.
+     *
+     * @param imageFile   The image to convert.
+     * @param outputFile  The file the grayscale image is saved to.
+     * @param stripHeight The number of rows decoded at a time.
+     * @throws RuntimeException If the image cannot be read or saved.
+     */
+    public static void convertAndSave(File imageFile, File outputFile,
+                                      int stripHeight) {
+        if (stripHeight <= 0) {
+            throw new IllegalArgumentException(
+                    "StreamingConverter: Strip height must be positive");
+        }
+        StageTimer timer = ConversionMetrics.start(Stage.STREAM);
+        try (ImageInputStream input = ImageIO.createImageInputStream(imageFile)) {
+            if (input == null) {
+                throw new IOException("Unable to open " + imageFile);
+            }
+            ImageReader reader = firstOf(ImageIO.getImageReaders(input),
+                    "No reader for " + imageFile);
+            try {
+                reader.setInput(input, true, true);
+                StripDataBuffer buffer = new StripDataBuffer(reader, stripHeight);
+                write(grayImage(buffer), outputFile);
+                timer.stop(imageFile.getPath(), buffer.getWidth(),
+                        buffer.getHeight(), imageFile.length());
+            } finally {
+                reader.dispose();
+            }
+        } catch (Exception e) {
+            timer.fail();
+            throw new RuntimeException(
+                    "StreamingConverter: Unable to convert " + imageFile, e);
+        }
+    } // End of convertAndSave(imageFile, outputFile, stripHeight)
+
+
+    /**
+     * Wraps a strip buffer in a gray BufferedImage, which writers read like
+     * any other image.
+     *
+     * @param buffer The buffer producing the gray samples.
+     * @return An 8-bit gray image backed by the buffer.
+     */
+    private static BufferedImage grayImage(StripDataBuffer buffer) {
+        int width = buffer.getWidth();
+        int height = buffer.getHeight();
+        PixelInterleavedSampleModel sampleModel = new PixelInterleavedSampleModel(
+                DataBuffer.TYPE_BYTE, width, height, 1, width, new int[]{0});
+        WritableRaster raster = Raster.createWritableRaster(
+                sampleModel, buffer, new Point(0, 0));
+        ColorModel colorModel = new ComponentColorModel(
+                ColorSpace.getInstance(ColorSpace.CS_GRAY), false, false,
+                ColorModel.OPAQUE, DataBuffer.TYPE_BYTE);
+        return new BufferedImage(colorModel, raster, false, null);
+    } // End of grayImage(buffer)
+
+
+    /**
+     * Encodes an image as a JPEG into the given file.
+     *
+     * @param image      The image to encode.
+     * @param outputFile The file it is saved to.
+     * @throws IOException If the file cannot be written.
+     */
+    private static void write(BufferedImage image, File outputFile)
+            throws IOException {
+        ImageWriter writer = firstOf(ImageIO.getImageWritersByFormatName("jpg"),
+                "No JPEG writer");
+        outputFile.delete();
+        try (ImageOutputStream output =
+                     ImageIO.createImageOutputStream(outputFile)) {
+            writer.setOutput(output);
+            writer.write(null, new IIOImage(image, null, null), null);
+        } finally {
+            writer.dispose();
+        }
+    } // End of write(image, outputFile)
+
+
+    /**
+     * Returns the first plug-in offered by ImageIO.
+     */
+    private static <T> T firstOf(Iterator<T> plugins, String message)
+            throws IOException {
+        if (!plugins.hasNext()) {
+            throw new IOException(message);
+        }
+        return plugins.next();
+    } // End of firstOf(plugins, message)
+} // End of class StreamingConverter
@@ -0,0 +1,139 @@
+package UoASCNU.processing;
+
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import java.awt.Rectangle;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * The <code>StripDataBuffer</code> class is a read-only buffer of 8-bit
+ * gray samples, one per pixel in row-major order, that is never held in
+ * memory as a whole. Its samples are produced on demand by decoding the
+ * horizontal strip of the source image that contains them and converting
+ * it to gray; only the most recent strip is kept.
+ * <p>
+ * Image writers read a raster row by row, so wrapping this buffer in a
+ * BufferedImage lets the whole image be encoded while never more than a
+ * strip of it is decoded.
+ *
+ * @author Marco A. Palomino
+ */
+class StripDataBuffer extends DataBuffer {
+
+    private final ImageReader reader;
+    private final int width;
+    private final int height;
+    private final int stripHeight;
+    private final ImageReadParam param;
+
+    // The strip currently decoded, as gray samples and as ARGB values
+    private final byte[] strip;
+    private final int[] argb;
+    private int stripStart = 0;
+    private int stripEnd = 0;
+
+    /**
+     * Constructor: Creates a buffer over the first image of a reader.
+     *
+     * @param reader      The reader, with its input already set.
+     * @param stripHeight The number of rows decoded at a time.
+     * @throws IOException If the image header cannot be read.
+     */
+    StripDataBuffer(ImageReader reader, int stripHeight) throws IOException {
+        super(DataBuffer.TYPE_BYTE,
+                Math.multiplyExact(reader.getWidth(0), reader.getHeight(0)));
+        this.reader = reader;
+        this.width = reader.getWidth(0);
+        this.height = reader.getHeight(0);
+        this.stripHeight = Math.min(stripHeight, height);
+        this.strip = new byte[width * this.stripHeight];
+        this.argb = new int[width * this.stripHeight];
+
+        // Every strip is decoded into the same image
+        param = reader.getDefaultReadParam();
+        param.setDestination(reader.getImageTypes(0).next()
+                .createBufferedImage(width, this.stripHeight));
+    } // End of constructor
+
+
+    /**
+     * @return The width of the image in pixels.
+     */
+    int getWidth() {
+        return width;
+    } // End of getWidth()
+
+    /**
+     * @return The height of the image in pixels.
+     */
+    int getHeight() {
+        return height;
+    } // End of getHeight()
+
+
+    /**
+     * Returns the gray sample at the given position, decoding the strip
+     * that contains it first if it is not the current one.
+     *
+     * @param bank The bank, which must be 0.
+     * @param i    The position of the sample.
+     * @return The gray value of the pixel, within the range [0, 255].
+     */
+    @Override
+    public int getElem(int bank, int i) {
+        if (i < stripStart || i >= stripEnd) {
+            decodeStrip(i / width / stripHeight * stripHeight);
+        }
+        return strip[i - stripStart] & 0xff;
+    } // End of getElem(bank, i)
+
+
+    /**
+     * The buffer is read-only.
+     *
+     * @throws UnsupportedOperationException Always.
+     */
+    @Override
+    public void setElem(int bank, int i, int val) {
+        throw new UnsupportedOperationException(
+                "StripDataBuffer: The buffer is read-only");
+    } // End of setElem(bank, i, val)
+
+
+    /**
+     * Decodes the rows starting at the given one and converts them to gray
+     * with the same arithmetic as <code>GrayscaleConverter.makeGray</code>.
+     * The samples of a gray image are already its gray levels and are
+     * copied as they are.
+     *
+     * @param fromY The first row of the strip.
+     */
+    private void decodeStrip(int fromY) {
+        int rows = Math.min(stripHeight, height - fromY);
+        param.setSourceRegion(new Rectangle(0, fromY, width, rows));
+        int count = width * rows;
+        try {
+            BufferedImage decoded = reader.read(0, param);
+            if (decoded.getColorModel().getColorSpace().getType()
+                    == ColorSpace.TYPE_GRAY) {
+                // getRGB would treat the samples as linear and brighten them
+                decoded.getRaster().getSamples(0, 0, width, rows, 0, argb);
+                for (int i = 0; i < count; i++) {
+                    strip[i] = (byte) argb[i];
+                }
+            } else {
+                decoded.getRGB(0, 0, width, rows, argb, 0, width);
+                GrayKernel.convert(argb, strip, 0, count);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(
+                    "StripDataBuffer: Unable to decode rows from " + fromY, e);
+        }
+        stripStart = fromY * width;
+        stripEnd = stripStart + count;
+    } // End of decodeStrip(fromY)
+} // End of class StripDataBuffer
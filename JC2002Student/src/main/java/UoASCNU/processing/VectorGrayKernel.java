@@ -0,0 +1,107 @@
+package UoASCNU.processing;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The <code>VectorGrayKernel</code> class is the SIMD version of
+ * <code>GrayKernel</code>. It unpacks, averages and repacks as many pixels
+ * at once as the preferred vector shape of the processor holds, and
+ * finishes the tail with the scalar loop.
+ * <p>
+ * This class must only be loaded when the <code>jdk.incubator.vector</code>
+ * module is enabled, which <code>GrayKernel</code> checks for.
+ *
+ * @author Marco A. Palomino
+ */
+final class VectorGrayKernel {
+
+    private static final VectorSpecies<Integer> SPECIES =
+            IntVector.SPECIES_PREFERRED;
+
+    /**
+     * The species of bytes with as many lanes as <code>SPECIES</code>, that
+     * gray levels are narrowed to, or null if no shape is small enough,
+     * in which case gray levels are produced by the scalar loop.
+     */
+    private static final VectorSpecies<Byte> BYTE_SPECIES = byteSpecies();
+
+    private VectorGrayKernel() {
+    } // End of constructor
+
+
+    /**
+     * Converts the values in [from, to) of the source to gray values
+     * stored at the same positions of the destination.
+     *
+     * @param src  The packed ARGB values to convert.
+     * @param dst  The packed ARGB values that receive the gray values.
+     * @param from The first position to convert.
+     * @param to   The position after the last one to convert.
+     */
+    static void convert(int[] src, int[] dst, int from, int to) {
+        int i = from;
+        int upperBound = from + SPECIES.loopBound(to - from);
+        for (; i < upperBound; i += SPECIES.length()) {
+            IntVector value = IntVector.fromArray(SPECIES, src, i);
+            IntVector sum = value.lanewise(VectorOperators.LSHR, 16).and(0xff)
+                    .add(value.lanewise(VectorOperators.LSHR, 8).and(0xff))
+                    .add(value.and(0xff));
+            IntVector average = sum.mul(GrayKernel.DIVIDE_BY_3_MULTIPLIER)
+                    .lanewise(VectorOperators.LSHR,
+                            GrayKernel.DIVIDE_BY_3_SHIFT);
+            IntVector alpha = IntVector.fromArray(SPECIES, dst, i)
+                    .and(0xff000000);
+            alpha.or(average.mul(0x010101)).intoArray(dst, i);
+        }
+        GrayKernel.convertScalar(src, dst, i, to);
+    } // End of convert(src, dst, from, to)
+
+
+    /**
+     * Converts the values in [from, to) of the source to gray levels
+     * stored at the same positions of the destination.
+     *
+     * @param src  The packed ARGB values to convert.
+     * @param dst  The gray levels, one byte per pixel.
+     * @param from The first position to convert.
+     * @param to   The position after the last one to convert.
+     */
+    static void convert(int[] src, byte[] dst, int from, int to) {
+        int i = from;
+        if (BYTE_SPECIES != null) {
+            int upperBound = from + SPECIES.loopBound(to - from);
+            for (; i < upperBound; i += SPECIES.length()) {
+                IntVector value = IntVector.fromArray(SPECIES, src, i);
+                IntVector sum = value.lanewise(VectorOperators.LSHR, 16).and(0xff)
+                        .add(value.lanewise(VectorOperators.LSHR, 8).and(0xff))
+                        .add(value.and(0xff));
+                IntVector average = sum.mul(GrayKernel.DIVIDE_BY_3_MULTIPLIER)
+                        .lanewise(VectorOperators.LSHR,
+                                GrayKernel.DIVIDE_BY_3_SHIFT);
+                ((ByteVector) average.convertShape(VectorOperators.I2B,
+                        BYTE_SPECIES, 0)).intoArray(dst, i);
+            }
+        }
+        GrayKernel.convertScalar(src, dst, i, to);
+    } // End of convert(src, dst, from, to)
+
+
+    /**
+     * Finds the species of bytes with as many lanes as the preferred
+     * species of integers.
+     *
+     * @return The species, or null if there is no vector shape a quarter
+     * the size of the preferred one.
+     */
+    private static VectorSpecies<Byte> byteSpecies() {
+        int bits = SPECIES.vectorBitSize() / 4;
+        if (bits < 64) {
+            return null;
+        }
+        return VectorSpecies.of(byte.class, VectorShape.forBitSize(bits));
+    } // End of byteSpecies()
+} // End of class VectorGrayKernel
@@ -0,0 +1,90 @@
+package UoASCNU;
+
+import UoASCNU.images.ImageFile;
+import UoASCNU.images.RasterPool;
+import UoASCNU.processing.AdmissionScheduler;
+import UoASCNU.processing.BatchPipeline;
+import UoASCNU.processing.BatchResult;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AdmissionSchedulerTest {
+
+    @Test
+    public void testAdmitsWithinBudget() throws InterruptedException {
+        AdmissionScheduler scheduler = new AdmissionScheduler(10 << 10);
+        AdmissionScheduler.Admission first = scheduler.admit(6 << 10);
+        assertEquals(6 << 10, scheduler.getAdmittedBytes());
+
+        // A second share that does not fit waits for the first
+        CountDownLatch admitted = new CountDownLatch(1);
+        Thread waiter = new Thread(() -> {
+            try (AdmissionScheduler.Admission second = scheduler.admit(6 << 10)) {
+                assertEquals(6 << 10, second.getBytes());
+                admitted.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        waiter.start();
+        assertFalse(admitted.await(100, TimeUnit.MILLISECONDS));
+        first.close();
+        first.close();
+        assertTrue(admitted.await(5, TimeUnit.SECONDS));
+        waiter.join();
+        assertEquals(0, scheduler.getAdmittedBytes());
+
+        // More than the whole budget takes all of it
+        try (AdmissionScheduler.Admission huge = scheduler.admit(1L << 40)) {
+            assertEquals(scheduler.getBudgetBytes(), huge.getBytes());
+        }
+        assertEquals(10 << 10, scheduler.getPeakAdmittedBytes());
+    }
+
+    @Test
+    public void testDefaultBudgetLeavesRoomOnSmallHeaps() {
+        long heap = 256L << 20;
+        // The default pool of 256 MiB would leave nothing beside it
+        assertEquals(heap / 4, RasterPool.defaultMaxBytes(heap));
+        assertEquals(heap / 4, AdmissionScheduler.defaultBudget(heap, RasterPool.DEFAULT_MAX_BYTES));
+        assertEquals(144L << 20, AdmissionScheduler.defaultBudget(heap, RasterPool.defaultMaxBytes(heap)));
+
+        long large = 4L << 30;
+        assertEquals(RasterPool.DEFAULT_MAX_BYTES, RasterPool.defaultMaxBytes(large));
+        assertEquals((large - RasterPool.DEFAULT_MAX_BYTES) / 4 * 3,
+                AdmissionScheduler.defaultBudget(large, RasterPool.DEFAULT_MAX_BYTES));
+    }
+
+    @Test
+    public void testPipelineTakesLargestFirst() {
+        File cat = new File("src/test/resources/images/orange_tabby_cat.jpg");
+        File cacatua = new File("src/test/resources/images/cacatua_moluccensis.jpg");
+        ImageFile catHeader = new ImageFile(cat);
+        ImageFile cacatuaHeader = new ImageFile(cacatua);
+        boolean catIsLarger = (long) catHeader.getWidth() * catHeader.getHeight()
+                > (long) cacatuaHeader.getWidth() * cacatuaHeader.getHeight();
+
+        // A budget smaller than either image, so each runs alone
+        AdmissionScheduler scheduler = new AdmissionScheduler(64 << 10);
+        BatchPipeline pipeline = new BatchPipeline(1, 1, 1, 1);
+        pipeline.setScheduler(scheduler);
+        BatchResult result = pipeline.run(List.of(cacatua, cat,
+                new File("src/test/resources/images/missing.jpg")));
+
+        assertEquals(List.of(catIsLarger ? cat : cacatua, catIsLarger ? cacatua : cat),
+                result.getSucceeded());
+        assertEquals("read", result.getFailed().get(0).getStage());
+        assertEquals(scheduler.getBudgetBytes(), scheduler.getPeakAdmittedBytes());
+        assertEquals(0, scheduler.getAdmittedBytes());
+
+        new File("gray-orange_tabby_cat.jpg").delete();
+        new File("gray-cacatua_moluccensis.jpg").delete();
+    }
+}
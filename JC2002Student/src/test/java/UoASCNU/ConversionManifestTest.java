@@ -0,0 +1,89 @@
+package UoASCNU;
+
+import UoASCNU.processing.BatchResult;
+import UoASCNU.processing.GrayscaleConverter;
+import UoASCNU.processing.GrayscaleMode;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ConversionManifestTest {
+
+    private final File output = new File("gray-incremental.jpg");
+
+    @AfterEach
+    public void cleanUp() {
+        output.delete();
+    }
+
+    @Test
+    public void testUnchangedInputsAreSkipped(@TempDir Path directory)
+            throws IOException {
+        File input = directory.resolve("incremental.jpg").toFile();
+        Files.copy(Path.of("src/test/resources/images/bald_eagle.jpg"), input.toPath());
+        File manifest = directory.resolve("manifest.tsv").toFile();
+        File[] imageFiles = { input };
+
+        BatchResult first = GrayscaleConverter.convertAndSaveIncremental(imageFiles, manifest);
+        assertEquals(1, first.getSucceeded().size());
+        assertTrue(output.exists());
+
+        BatchResult second = GrayscaleConverter.convertAndSaveIncremental(imageFiles, manifest);
+        assertEquals(0, second.getSucceeded().size());
+        assertEquals(1, second.getSkipped().size());
+
+        // Touched but unchanged: the hash still matches
+        input.setLastModified(input.lastModified() - 60_000);
+        BatchResult touched = GrayscaleConverter.convertAndSaveIncremental(imageFiles, manifest);
+        assertEquals(1, touched.getSkipped().size());
+
+        // A missing output has to be made again
+        output.delete();
+        BatchResult missing = GrayscaleConverter.convertAndSaveIncremental(imageFiles, manifest);
+        assertEquals(1, missing.getSucceeded().size());
+    }
+
+    @Test
+    public void testLumaOutputsAreSkipped(@TempDir Path directory) throws IOException {
+        File input = directory.resolve("incremental.jpg").toFile();
+        Files.copy(Path.of("src/test/resources/images/bald_eagle.jpg"), input.toPath());
+        File manifest = directory.resolve("manifest.tsv").toFile();
+
+        BatchResult first = GrayscaleConverter.convertAndSaveIncremental(
+                List.of(input), manifest, GrayscaleMode.LUMA);
+        assertEquals(1, first.getSucceeded().size());
+        assertTrue(output.exists());
+
+        BatchResult second = GrayscaleConverter.convertAndSaveIncremental(
+                List.of(input), manifest, GrayscaleMode.LUMA);
+        assertEquals(1, second.getSkipped().size());
+    }
+
+    @Test
+    public void testTruncatedManifestLineIsIgnored(@TempDir Path directory)
+            throws IOException {
+        File input = directory.resolve("incremental.jpg").toFile();
+        Files.copy(Path.of("src/test/resources/images/bald_eagle.jpg"), input.toPath());
+        File manifest = directory.resolve("manifest.tsv").toFile();
+        File[] imageFiles = { input };
+
+        GrayscaleConverter.convertAndSaveIncremental(imageFiles, manifest);
+        // Simulate a crash in the middle of writing another entry
+        Files.writeString(manifest.toPath(), "/some/other.jpg\t12",
+                StandardOpenOption.APPEND);
+
+        BatchResult result = GrayscaleConverter.convertAndSaveIncremental(imageFiles, manifest);
+        assertEquals(1, result.getSkipped().size());
+        assertEquals(1, Files.readAllLines(manifest.toPath()).size());
+    }
+}
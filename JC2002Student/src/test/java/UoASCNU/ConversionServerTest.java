@@ -0,0 +1,74 @@
+package UoASCNU;
+
+import UoASCNU.images.ImageFile;
+import UoASCNU.processing.ConversionClient;
+import UoASCNU.processing.ConversionServer;
+import UoASCNU.processing.GrayscaleConverter;
+import UoASCNU.processing.GrayscaleMode;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ConversionServerTest {
+
+    private static final File EAGLE = new File("src/test/resources/images/bald_eagle.jpg");
+
+    @Test
+    public void testConvertsOverTheSocket(@TempDir Path directory) throws IOException {
+        Path socket = directory.resolve("server.sock");
+        Path output = directory.resolve("eagle.png");
+        ConversionServer server = new ConversionServer(socket, 2, 4);
+        server.start();
+        try (ConversionClient client = new ConversionClient(socket)) {
+            assertEquals("OK", client.ping());
+
+            String reply = client.convert(EAGLE, output.toFile(), "mode=bt709;format=png");
+            assertTrue(reply.startsWith("OK\tqueue="), reply);
+            assertTrue(reply.contains("\ttotal="), reply);
+
+            Path luma = directory.resolve("luma.jpg");
+            reply = client.convert(EAGLE, luma.toFile(), "mode=luma");
+            assertTrue(reply.startsWith("OK\t"), reply);
+            assertTrue(Files.exists(luma));
+
+            assertTrue(client.send("CONVERT\trelative.jpg\t" + output).startsWith("ERROR\t"));
+            assertTrue(client.send("CONVERT\t" + EAGLE.getAbsolutePath() + "\t" + output
+                    + "\tmode=sepia").startsWith("ERROR\t"));
+            assertTrue(client.send("CONVERT\t" + directory.resolve("missing.jpg") + "\t"
+                    + output).startsWith("ERROR\t"));
+            assertTrue(client.send("RESIZE").startsWith("ERROR\t"));
+            // The connection survives failed requests
+            assertEquals("OK", client.ping());
+        } finally {
+            server.close();
+        }
+        assertFalse(Files.exists(socket));
+        assertEquals("Converted 2 image(s), 3 failed, 0 refused", server.summary());
+
+        ImageFile expected = GrayscaleConverter.makeGray(new ImageFile(EAGLE), GrayscaleMode.BT709);
+        ImageFile saved = new ImageFile(output.toFile());
+        assertEquals("png", saved.getFormatName().toLowerCase());
+        assertEquals(expected.getPixel(200, 100).getRed(), saved.getPixel(200, 100).getRed());
+    }
+
+    @Test
+    public void testReplacesStaleSocketAndRefusesSecondServer(@TempDir Path directory)
+            throws IOException {
+        Path socket = directory.resolve("server.sock");
+        Files.createFile(socket);
+        try (ConversionServer server = new ConversionServer(socket, 1, 1)) {
+            server.start();
+            assertThrows(IOException.class, () -> new ConversionServer(socket, 1, 1).start());
+            try (ConversionClient client = new ConversionClient(socket)) {
+                assertEquals("OK", client.ping());
+            }
+        }
+    }
+}
@@ -1,14 +1,24 @@
 package UoASCNU;
 
+import UoASCNU.processing.BatchResult;
 import UoASCNU.processing.GrayscaleConverter;
+import UoASCNU.processing.GrayscaleMode;
 import UoASCNU.images.ImageFile;
 import UoASCNU.images.Pixel;
 
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -55,6 +65,76 @@ public class GrayscaleConverterTest {
         assertEquals(average, grayPixel.getBlue());
     }
 
+    @Test
+    public void testMakeGrayParallelMatchesSequential() {
+        ImageFile sequential = GrayscaleConverter.makeGray(imageFile);
+        // A threshold of one pixel forces the image to be split into bands
+        ImageFile parallel = GrayscaleConverter.makeGray(imageFile, 4, 1);
+
+        for (int y = 0; y < imageFile.getHeight(); y++) {
+            for (int x = 0; x < imageFile.getWidth(); x++) {
+                assertEquals(sequential.getPixel(x, y).getRed(),
+                        parallel.getPixel(x, y).getRed());
+                assertEquals(sequential.getPixel(x, y).getGreen(),
+                        parallel.getPixel(x, y).getGreen());
+                assertEquals(sequential.getPixel(x, y).getBlue(),
+                        parallel.getPixel(x, y).getBlue());
+            }
+        }
+    }
+
+    @Test
+    public void testMakeGrayMatchesIntegerAverageOnEveryValue() {
+        // An odd width leaves a tail that the SIMD kernel cannot fill
+        ImageFile image = new ImageFile(37, 29);
+        int[] raster = image.getRasterData();
+        Random random = new Random(2002);
+        for (int i = 0; i < raster.length; i++) {
+            raster[i] = random.nextInt();
+        }
+        raster[0] = 0xffffffff;
+        raster[1] = 0;
+
+        ImageFile grayImage = GrayscaleConverter.makeGray(image);
+        for (Pixel pixel : image.pixels()) {
+            int average = (pixel.getRed() + pixel.getGreen() + pixel.getBlue()) / 3;
+            Pixel grayPixel = grayImage.getPixel(pixel.getX(), pixel.getY());
+            assertEquals(average, grayPixel.getRed());
+            assertEquals(average, grayPixel.getGreen());
+            assertEquals(average, grayPixel.getBlue());
+        }
+    }
+
+    @Test
+    public void testModesMatchDoublePrecisionReference() {
+        double[][] weights = {
+                { 1 / 3.0, 1 / 3.0, 1 / 3.0 },
+                { 0.299, 0.587, 0.114 },
+                { 0.2126, 0.7152, 0.0722 } };
+        GrayscaleMode[] modes = { GrayscaleMode.AVERAGE, GrayscaleMode.BT601, GrayscaleMode.BT709 };
+
+        ImageFile image = new ImageFile(256, 64);
+        int[] raster = image.getRasterData();
+        Random random = new Random(2002);
+        for (int i = 0; i < raster.length; i++) {
+            // The first row is every gray level, the rest random colours
+            raster[i] = i < 256 ? i * 0x010101 : random.nextInt() & 0xffffff;
+        }
+        for (int m = 0; m < modes.length; m++) {
+            ImageFile grayImage = GrayscaleConverter.makeGray(image, modes[m]);
+            for (Pixel pixel : image.pixels()) {
+                double reference = weights[m][0] * pixel.getRed()
+                        + weights[m][1] * pixel.getGreen() + weights[m][2] * pixel.getBlue();
+                int gray = grayImage.getPixel(pixel.getX(), pixel.getY()).getRed();
+                assertEquals(reference, gray, 1.0, modes[m] + " at " + pixel.getX() + "," + pixel.getY());
+                if (pixel.getY() == 0) {
+                    // Gray stays the same gray in every mode
+                    assertEquals(pixel.getX(), gray);
+                }
+            }
+        }
+    }
+
     @Test
     public void testConvertAndSave() {
         // Stage 4: Test saving functionality
@@ -67,4 +147,82 @@ public class GrayscaleConverterTest {
         // Clean up test output
         savedImage.delete();
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testPipelineIsolatesBadFiles() {
+        File[] imageFiles = {
+                new File("src/test/resources/images/cacatua_moluccensis.jpg"),
+                new File("src/test/resources/images/missing.jpg") };
+        BatchResult result = GrayscaleConverter.convertAndSave(imageFiles, 2);
+
+        assertEquals(1, result.getSucceeded().size());
+        assertEquals(1, result.getFailed().size());
+        assertEquals("read", result.getFailed().get(0).getStage());
+
+        File savedImage = new File("gray-cacatua_moluccensis.jpg");
+        assertTrue(savedImage.exists());
+        savedImage.delete();
+    }
+
+    @Test
+    public void testLumaIsSavedLikeOtherModes(@TempDir Path directory) throws IOException {
+        File input = directory.resolve("luma.jpg").toFile();
+        Files.copy(Path.of("src/test/resources/images/bald_eagle.jpg"), input.toPath());
+        File savedImage = new File("gray-luma.jpg");
+
+        // In the working directory, not beside the input
+        GrayscaleConverter.convertAndSave(List.of(input), GrayscaleMode.LUMA);
+        assertTrue(savedImage.exists());
+        assertFalse(new File(directory.toFile(), "gray-luma.jpg").exists());
+        ImageFile saved = new ImageFile(savedImage);
+        // Compared with BT.601 saved the same way, as gray JPEGs read back brighter
+        ImageFile reference = GrayscaleConverter.makeGray(new ImageFile(input), GrayscaleMode.BT601);
+        reference.setFileName(directory.resolve("reference.jpg").toString());
+        reference.save();
+        ImageFile expected = new ImageFile(directory.resolve("reference.jpg").toFile());
+        assertEquals(expected.getWidth(), saved.getWidth());
+        assertEquals(expected.getPixel(200, 100).getRed(), saved.getPixel(200, 100).getRed(), 8);
+        savedImage.delete();
+
+        BatchResult result = GrayscaleConverter.convertAndSave(List.of(input), 2, GrayscaleMode.LUMA);
+        assertEquals(1, result.getSucceeded().size());
+        assertTrue(savedImage.exists());
+        assertFalse(new File(directory.toFile(), "gray-luma.jpg").exists());
+        savedImage.delete();
+    }
+
+    @Test
+    public void testStreamingMatchesInMemoryConversion(@TempDir Path directory) throws IOException {
+        File cat = new File("src/test/resources/images/orange_tabby_cat.jpg");
+        // A gray JPEG as well, whose samples must not be taken as linear
+        BufferedImage colour = ImageIO.read(cat);
+        BufferedImage gray = new BufferedImage(colour.getWidth(), colour.getHeight(),
+                BufferedImage.TYPE_BYTE_GRAY);
+        gray.createGraphics().drawImage(colour, 0, 0, null);
+        File grayCat = directory.resolve("gray_tabby_cat.jpg").toFile();
+        ImageIO.write(gray, "jpg", grayCat);
+
+        File[] imageFiles = { cat, grayCat };
+        // A strip height that does not divide the image height
+        GrayscaleConverter.convertAndSaveStreaming(imageFiles, 7);
+
+        for (File imageFile : imageFiles) {
+            File savedImage = new File("gray-" + imageFile.getName());
+            ImageFile streamed = new ImageFile(savedImage);
+            ImageFile expected = GrayscaleConverter.makeGray(new ImageFile(imageFile));
+            assertEquals(expected.getWidth(), streamed.getWidth());
+            assertEquals(expected.getHeight(), streamed.getHeight());
+
+            // The streamed image went through a lossy JPEG encoding at the
+            // default quality, so compare on average
+            long difference = 0;
+            for (Pixel pixel : streamed.pixels()) {
+                difference += Math.abs(pixel.getRed()
+                        - expected.getPixel(pixel.getX(), pixel.getY()).getRed());
+            }
+            assertTrue(difference < 4L * streamed.getWidth() * streamed.getHeight(),
+                    imageFile.getName());
+            savedImage.delete();
+        }
+    }
+}
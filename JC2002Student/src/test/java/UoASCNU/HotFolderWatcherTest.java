@@ -0,0 +1,97 @@
+package UoASCNU;
+
+import UoASCNU.images.ImageFile;
+import UoASCNU.processing.GrayscaleConverter;
+import UoASCNU.processing.GrayscaleMode;
+import UoASCNU.processing.HotFolderWatcher;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HotFolderWatcherTest {
+
+    private static final Path EAGLE = Path.of("src/test/resources/images/bald_eagle.jpg");
+    private static final Path CAT = Path.of("src/test/resources/images/orange_tabby_cat.jpg");
+
+    @Test
+    public void testConvertsImagesAlreadyThereAndArriving(@TempDir Path directory)
+            throws IOException, InterruptedException {
+        Path input = Files.createDirectory(directory.resolve("in"));
+        Path output = directory.resolve("out");
+        Files.copy(EAGLE, input.resolve("eagle.jpg"));
+        Files.writeString(input.resolve("notes.txt"), "not an image");
+
+        HotFolderWatcher watcher = new HotFolderWatcher(
+                List.of(input.toFile()), output.toFile(), 2);
+        try {
+            watcher.setQuietMillis(200);
+            watcher.start();
+            waitFor(output.resolve("gray-eagle.jpg"));
+
+            // Written slowly, so it must not be read before it is complete
+            byte[] cat = Files.readAllBytes(CAT);
+            try (OutputStream out = Files.newOutputStream(input.resolve("cat.jpg"))) {
+                for (int i = 0; i < cat.length; i += 4096) {
+                    out.write(cat, i, Math.min(4096, cat.length - i));
+                    out.flush();
+                    Thread.sleep(5);
+                }
+            }
+            waitFor(output.resolve("gray-cat.jpg"));
+        } finally {
+            watcher.close();
+        }
+        // Closed, so every conversion it started has been counted
+        assertEquals(2, watcher.getResult().getSucceeded().size());
+        assertTrue(watcher.getResult().getFailed().isEmpty());
+
+        ImageFile expected = GrayscaleConverter.makeGray(new ImageFile(CAT.toFile()));
+        ImageFile saved = new ImageFile(output.resolve("gray-cat.jpg").toFile());
+        assertEquals(expected.getWidth(), saved.getWidth());
+        assertEquals(expected.getPixel(10, 10).getRed(), saved.getPixel(10, 10).getRed(), 8);
+        File[] outputs = output.toFile().listFiles();
+        assertEquals(2, outputs.length);
+    }
+
+    @Test
+    public void testLumaImagesAreSavedInTheOutput(@TempDir Path directory)
+            throws IOException, InterruptedException {
+        Path input = Files.createDirectory(directory.resolve("in"));
+        Path output = directory.resolve("out");
+        Files.copy(EAGLE, input.resolve("eagle.jpg"));
+
+        try (HotFolderWatcher watcher = new HotFolderWatcher(
+                List.of(input.toFile()), output.toFile(), 1)) {
+            watcher.setMode(GrayscaleMode.LUMA);
+            watcher.setQuietMillis(100);
+            watcher.start();
+            waitFor(output.resolve("gray-eagle.jpg"));
+        }
+
+        // Compared with BT.601 saved the same way, as gray JPEGs read back brighter
+        ImageFile reference = GrayscaleConverter.makeGray(new ImageFile(EAGLE.toFile()), GrayscaleMode.BT601);
+        reference.setFileName(directory.resolve("reference.jpg").toString());
+        reference.save();
+        ImageFile expected = new ImageFile(directory.resolve("reference.jpg").toFile());
+        ImageFile saved = new ImageFile(output.resolve("gray-eagle.jpg").toFile());
+        assertEquals(expected.getWidth(), saved.getWidth());
+        assertEquals(expected.getPixel(200, 100).getRed(), saved.getPixel(200, 100).getRed(), 8);
+    }
+
+    private static void waitFor(Path file) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 20_000;
+        while (!Files.exists(file) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertTrue(Files.exists(file), "Timed out waiting for " + file);
+    }
+}
@@ -0,0 +1,253 @@
+package UoASCNU;
+
+import UoASCNU.images.ImageFile;
+import UoASCNU.images.OutputFormat;
+import UoASCNU.images.Pixel;
+import UoASCNU.images.SaveOptions;
+import UoASCNU.processing.GrayscaleConverter;
+import UoASCNU.processing.GrayscaleMode;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ImageFileTest {
+
+    @Test
+    public void testPixelViewsWriteThrough() {
+        ImageFile image = new ImageFile(4, 3);
+        Pixel pixel = image.getPixel(2, 1);
+        pixel.setRed(300);
+        pixel.setGreen(-5);
+        pixel.setBlue(42);
+
+        // A second view of the same position sees the clamped values
+        Pixel again = image.getPixel(2, 1);
+        assertEquals(255, again.getRed());
+        assertEquals(0, again.getGreen());
+        assertEquals(42, again.getBlue());
+        assertEquals(0, image.getPixel(1, 2).getRed());
+    }
+
+    @Test
+    public void testPixelsVisitsEveryCoordinateInRowOrder() {
+        ImageFile image = new ImageFile(5, 2);
+        int count = 0;
+        for (Pixel pixel : image.pixels()) {
+            assertEquals(count % 5, pixel.getX());
+            assertEquals(count / 5, pixel.getY());
+            pixel.setGreen(count);
+            count++;
+        }
+        assertEquals(10, count);
+        assertEquals(7, image.getPixel(2, 1).getGreen());
+    }
+
+    @Test
+    public void testBulkAccessMatchesPixelViews() {
+        ImageFile image = new ImageFile(new File("src/test/resources/images/bald_eagle.jpg"));
+        long[] sums = new long[2];
+        for (Pixel pixel : image.pixels()) {
+            sums[0] += pixel.getRed() * 31 + pixel.getGreen() * 7 + pixel.getBlue();
+        }
+        image.forEachPixel(value -> sums[1] += ((value >> 16) & 0xff) * 31
+                + ((value >> 8) & 0xff) * 7 + (value & 0xff));
+        assertEquals(sums[0], sums[1]);
+
+        int red = image.getPixel(7, 3).getRed();
+        int blue = image.getPixel(7, 3).getBlue();
+        image.mapPixels(value -> value ^ 0xffffff);
+        assertEquals(255 - red, image.getPixel(7, 3).getRed());
+        assertEquals(255 - blue, image.getPixel(7, 3).getBlue());
+
+        // A gray image stores the average of each result
+        ImageFile gray = new ImageFile(3, 1, BufferedImage.TYPE_BYTE_GRAY);
+        gray.mapPixels(value -> 0x00ff3000);
+        int[] count = new int[1];
+        gray.forEachPixel(value -> {
+            assertEquals(101 * 0x010101, value);
+            count[0]++;
+        });
+        assertEquals(3, count[0]);
+    }
+
+    @Test
+    public void testSaveAsPngIsLossless(@TempDir Path directory) throws IOException {
+        File copy = directory.resolve("eagle.jpg").toFile();
+        Files.copy(Path.of("src/test/resources/images/bald_eagle.jpg"), copy.toPath());
+        ImageFile image = new ImageFile(copy);
+
+        SaveOptions options = new SaveOptions(OutputFormat.PNG);
+        options.setPngCompressionLevel(9);
+        image.setSaveOptions(options);
+        image.setFileName("eagle.png");
+        image.save();
+
+        ImageFile reloaded = new ImageFile(directory.resolve("eagle.png").toFile());
+        for (Pixel pixel : image.pixels()) {
+            Pixel other = reloaded.getPixel(pixel.getX(), pixel.getY());
+            assertEquals(pixel.getRed(), other.getRed());
+            assertEquals(pixel.getGreen(), other.getGreen());
+            assertEquals(pixel.getBlue(), other.getBlue());
+        }
+    }
+
+    @Test
+    public void testJpegQualityAndProgressive(@TempDir Path directory) throws IOException {
+        File copy = directory.resolve("eagle.jpg").toFile();
+        Files.copy(Path.of("src/test/resources/images/bald_eagle.jpg"), copy.toPath());
+        ImageFile image = new ImageFile(copy);
+
+        SaveOptions options = new SaveOptions();
+        options.setJpegQuality(0.2f);
+        image.setSaveOptions(options);
+        image.setFileName("low.jpg");
+        image.save();
+
+        options.setJpegQuality(0.95f);
+        options.setProgressive(true);
+        image.setFileName("high.jpg");
+        image.save();
+
+        long low = directory.resolve("low.jpg").toFile().length();
+        long high = directory.resolve("high.jpg").toFile().length();
+        assertTrue(low < high);
+        assertEquals(500, new ImageFile(directory.resolve("high.jpg").toFile()).getWidth());
+    }
+
+    @Test
+    public void testSubsampledPreview() {
+        File eagle = new File("src/test/resources/images/bald_eagle.jpg");
+        ImageFile full = new ImageFile(eagle);
+        ImageFile quarter = new ImageFile(eagle, 4);
+        assertEquals(125, quarter.getWidth());
+        assertEquals(87, quarter.getHeight());
+        // Subsampling keeps the top-left pixel of every 4x4 block
+        assertEquals(full.getPixel(40, 20).getRed(), quarter.getPixel(10, 5).getRed());
+
+        ImageFile fitted = ImageFile.fitWithin(eagle, 100, 100);
+        assertTrue(fitted.getWidth() <= 100 && fitted.getHeight() <= 100);
+        assertEquals(100, fitted.getWidth());
+    }
+
+    @Test
+    public void testHeaderIsReadWithoutDecoding() {
+        File eagle = new File("src/test/resources/images/bald_eagle.jpg");
+        ImageFile image = new ImageFile(eagle);
+        assertFalse(image.isLoaded());
+        assertEquals(500, image.getWidth());
+        assertEquals(348, image.getHeight());
+        assertEquals("JPEG", image.getFormatName());
+        assertEquals("bald_eagle.jpg", image.getFileName());
+        assertFalse(image.isLoaded());
+
+        // The first access to a pixel decodes the file
+        assertEquals(new ImageFile(eagle).getRasterData()[0], image.getRasterData()[0]);
+        assertTrue(image.isLoaded());
+
+        // A file that is not an image is reported straight away
+        assertThrows(RuntimeException.class, () -> new ImageFile(new File("missing.jpg")));
+    }
+
+    @Test
+    public void testGrayImageHoldsOneBytePerPixel(@TempDir Path directory) throws IOException {
+        ImageFile image = new ImageFile(3, 2, BufferedImage.TYPE_BYTE_GRAY);
+        assertTrue(image.isGray());
+        assertNull(image.getRasterData());
+        assertEquals(6, image.getGrayData().length);
+
+        // Writing a colour stores its average as the gray level
+        Pixel pixel = image.getPixel(1, 1);
+        pixel.setValue(0x00ff3000);
+        assertEquals(101, image.getGrayData()[4] & 0xff);
+        assertEquals(101, pixel.getRed());
+        assertEquals(101, pixel.getGreen());
+        assertEquals(101, pixel.getBlue());
+
+        image.setSaveOptions(new SaveOptions(OutputFormat.PNG));
+        image.setFileName(directory.resolve("gray.png").toString());
+        image.save();
+        BufferedImage saved = ImageIO.read(directory.resolve("gray.png").toFile());
+        assertEquals(1, saved.getRaster().getNumBands());
+        assertEquals(101, saved.getRaster().getSample(1, 1, 0));
+    }
+
+    @Test
+    public void testLumaIsReadWithoutColourConversion(@TempDir Path directory) throws IOException {
+        File eagle = new File("src/test/resources/images/bald_eagle.jpg");
+        ImageFile expected = GrayscaleConverter.makeGray(new ImageFile(eagle), GrayscaleMode.BT601);
+        try (ImageFile luma = ImageFile.lumaOf(eagle)) {
+            assertNotNull(luma);
+            assertTrue(luma.isGray());
+            assertEquals("JPEG", luma.getFormatName());
+            assertEquals(expected.getWidth(), luma.getWidth());
+            assertEquals(expected.getHeight(), luma.getHeight());
+
+            // The stored Y, within a few levels of BT.601 on the decoded colours
+            byte[] gray = luma.getGrayData();
+            byte[] reference = expected.getGrayData();
+            long total = 0;
+            int largest = 0;
+            for (int i = 0; i < gray.length; i++) {
+                int difference = Math.abs((gray[i] & 0xff) - (reference[i] & 0xff));
+                total += difference;
+                largest = Math.max(largest, difference);
+            }
+            assertTrue(total < gray.length, "Mean difference " + (double) total / gray.length);
+            assertTrue(largest <= 10, "Largest difference " + largest);
+            assertSame(GrayscaleMode.LUMA, GrayscaleMode.forName("Luma"));
+        }
+
+        // Other formats are left to the usual decode
+        File png = directory.resolve("eagle.png").toFile();
+        ImageIO.write(ImageIO.read(eagle), "png", png);
+        assertNull(ImageFile.lumaOf(png));
+        try (ImageFile gray = GrayscaleConverter.makeGray(png, GrayscaleMode.LUMA)) {
+            assertArrayEquals(expected.getGrayData(), gray.getGrayData());
+        }
+    }
+
+    @Test
+    public void testOffHeapImageIsReadWrittenAndFreed(@TempDir Path directory) throws IOException {
+        File eagle = new File("src/test/resources/images/bald_eagle.jpg");
+        ImageFile heap = new ImageFile(eagle);
+        ImageFile gray;
+        try (ImageFile offHeap = ImageFile.offHeap(eagle)) {
+            assertTrue(offHeap.isOffHeap());
+            assertNull(offHeap.getRasterData());
+            for (Pixel pixel : heap.pixels()) {
+                Pixel other = offHeap.getPixel(pixel.getX(), pixel.getY());
+                assertEquals(pixel.getRed(), other.getRed());
+                assertEquals(pixel.getGreen(), other.getGreen());
+                assertEquals(pixel.getBlue(), other.getBlue());
+            }
+
+            gray = GrayscaleConverter.makeGray(offHeap, 4, 1);
+            assertTrue(gray.isOffHeap());
+            assertTrue(gray.isGray());
+            ImageFile expected = GrayscaleConverter.makeGray(heap);
+            assertEquals(expected.getPixel(123, 45).getRed(), gray.getPixel(123, 45).getRed());
+
+            gray.setSaveOptions(new SaveOptions(OutputFormat.PNG));
+            gray.setFileName(directory.resolve("gray.png").toString());
+            gray.save();
+            ImageFile saved = new ImageFile(directory.resolve("gray.png").toFile());
+            assertEquals(expected.getPixel(321, 54).getRed(), saved.getPixel(321, 54).getRed());
+        }
+        gray.close();
+        assertThrows(IllegalStateException.class, () -> gray.getPixel(0, 0).getRed());
+
+        // A gray image, which the decoder may not write into an RGB raster
+        try (ImageFile fromGray = ImageFile.offHeap(new File(directory.resolve("gray.png").toString()))) {
+            assertEquals(gray.getWidth(), fromGray.getWidth());
+        }
+    }
+}
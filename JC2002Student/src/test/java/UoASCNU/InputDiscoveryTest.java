@@ -0,0 +1,84 @@
+package UoASCNU;
+
+import UoASCNU.processing.InputDiscovery;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class InputDiscoveryTest {
+
+    @Test
+    public void testWalksDirectoriesAndReadsLists(@TempDir Path directory) throws IOException {
+        Path tree = directory.resolve("tree");
+        Files.createDirectories(tree.resolve("a/b/c"));
+        Files.createDirectories(tree.resolve(".hidden"));
+        touch(tree.resolve("top.jpg"));
+        touch(tree.resolve("a/one.PNG"));
+        touch(tree.resolve("a/b/c/deep.jpeg"));
+        touch(tree.resolve("a/b/notes.txt"));
+        touch(tree.resolve("a/gray-top.jpg"));
+        touch(tree.resolve(".hidden/secret.jpg"));
+
+        InputDiscovery discovery = new InputDiscovery(2);
+        discovery.setParallelism(3);
+        discovery.addDirectory(tree.toFile());
+        discovery.addFile(new File("given.txt"));
+        discovery.addList(new StringReader("listed.jpg\n\n  spaced.png  \n"));
+        discovery.addDirectory(directory.resolve("missing").toFile());
+
+        Set<String> names = new TreeSet<>();
+        for (File file : discovery) {
+            names.add(file.getName());
+        }
+        assertEquals(Set.of("top.jpg", "one.PNG", "deep.jpeg", "given.txt",
+                "listed.jpg", "spaced.png"), names);
+        assertEquals(6, discovery.getDiscovered());
+        assertEquals(1, discovery.getErrors().size());
+        assertThrows(IllegalStateException.class, discovery::iterator);
+
+        InputDiscovery jpegs = new InputDiscovery();
+        jpegs.setInclude("**/c/*.jpeg");
+        jpegs.addDirectory(tree.toFile());
+        Iterator<File> files = jpegs.iterator();
+        assertEquals("deep.jpeg", files.next().getName());
+        assertFalse(files.hasNext());
+    }
+
+    @Test
+    public void testWindowBoundsDiscoveryAhead(@TempDir Path directory)
+            throws IOException, InterruptedException {
+        for (int i = 0; i < 50; i++) {
+            touch(directory.resolve("image" + i + ".jpg"));
+        }
+        InputDiscovery discovery = new InputDiscovery(4);
+        discovery.addDirectory(directory.toFile());
+        Iterator<File> files = discovery.iterator();
+        assertTrue(files.hasNext());
+        Thread.sleep(200);
+        // One taken by the iterator, four waiting and one being handed over
+        assertTrue(discovery.getDiscovered() <= 6, "Discovered " + discovery.getDiscovered());
+
+        discovery.close();
+        int rest = 0;
+        while (files.hasNext()) {
+            files.next();
+            rest++;
+        }
+        assertTrue(rest <= 5);
+    }
+
+    private static void touch(Path file) throws IOException {
+        Files.write(file, new byte[0]);
+    }
+}
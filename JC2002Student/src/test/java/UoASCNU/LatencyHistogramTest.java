@@ -0,0 +1,44 @@
+package UoASCNU;
+
+import UoASCNU.metrics.LatencyHistogram;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testPercentilesAreWithinOneBucket() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long nanos = 1; nanos <= 1000; nanos++) {
+            histogram.record(nanos * 1000);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1_000_000, histogram.getMaxNanos());
+
+        long p50 = histogram.percentileNanos(0.50);
+        long p99 = histogram.percentileNanos(0.99);
+        assertTrue(p50 >= 500_000 && p50 <= 500_000 * 1.125, "p50 " + p50);
+        assertTrue(p99 >= 990_000 && p99 <= 1_000_000, "p99 " + p99);
+    }
+
+    @Test
+    public void testEmptyHistogram() {
+        assertEquals(0, new LatencyHistogram().percentileNanos(0.99));
+    }
+
+    @Test
+    public void testResetForgetsEverything() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(5_000_000);
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMaxNanos());
+        assertEquals(0, histogram.percentileNanos(0.5));
+
+        histogram.record(3000);
+        assertEquals(3000, histogram.getMaxNanos());
+        assertEquals(3000, histogram.getTotalNanos());
+    }
+}
@@ -0,0 +1,81 @@
+package UoASCNU;
+
+import UoASCNU.images.ImageFile;
+import UoASCNU.images.Pixel;
+import UoASCNU.processing.GrayscaleConverter;
+import UoASCNU.processing.PixelOperator;
+import UoASCNU.processing.PixelPipeline;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PixelPipelineTest {
+
+    private final ImageFile imageFile =
+            new ImageFile(new File("src/test/resources/images/bald_eagle.jpg"));
+
+    @Test
+    public void testFusedPassMatchesOperatorsAppliedOneByOne() {
+        PixelOperator[] steps = {
+                PixelOperator.gray(), PixelOperator.contrast(1.4),
+                PixelOperator.brightness(-20), PixelOperator.invert() };
+        PixelPipeline pipeline = new PixelPipeline(imageFile);
+        for (PixelOperator step : steps) {
+            pipeline.then(step);
+        }
+        ImageFile fused = pipeline.toImage();
+        assertTrue(fused.isGray());
+
+        for (Pixel pixel : imageFile.pixels()) {
+            int value = (pixel.getRed() << 16) | (pixel.getGreen() << 8) | pixel.getBlue();
+            for (PixelOperator step : steps) {
+                value = step.apply(value);
+            }
+            assertEquals(value & 0xff, fused.getPixel(pixel.getX(), pixel.getY()).getBlue());
+        }
+    }
+
+    @Test
+    public void testCustomOperatorKeepsColourAndRunsInParallel() {
+        PixelPipeline pipeline = new PixelPipeline(imageFile)
+                .then(argb -> argb & 0xffff0000)
+                .threshold(100);
+        ImageFile sequential = pipeline.toImage();
+        ImageFile parallel = pipeline.toImage(new ForkJoinPool(4), 1);
+        assertFalse(sequential.isGray());
+        assertArrayEquals(sequential.getRasterData(), parallel.getRasterData());
+
+        Pixel original = imageFile.getPixel(10, 10);
+        Pixel result = sequential.getPixel(10, 10);
+        assertEquals(original.getRed() >= 100 ? 255 : 0, result.getRed());
+        assertEquals(0, result.getGreen());
+        assertEquals(0, result.getBlue());
+    }
+
+    @Test
+    public void testMakeGrayIsTheGrayOperator() {
+        assertArrayEquals(GrayscaleConverter.makeGray(imageFile).getGrayData(),
+                new PixelPipeline(imageFile).then(PixelOperator.gray())
+                        .brightness(0).toImage().getGrayData());
+    }
+
+    @Test
+    public void testInPlaceGrayMatchesNewImage() {
+        ImageFile gray = GrayscaleConverter.makeGray(imageFile);
+        ImageFile copy = new ImageFile(new File("src/test/resources/images/bald_eagle.jpg"));
+        int[] pixels = copy.getRasterData();
+        assertSame(copy, GrayscaleConverter.makeGrayInPlace(copy));
+        assertSame(pixels, copy.getRasterData());
+        assertFalse(copy.isGray());
+        for (Pixel pixel : gray.pixels()) {
+            Pixel other = copy.getPixel(pixel.getX(), pixel.getY());
+            assertEquals(pixel.getRed(), other.getRed());
+            assertEquals(pixel.getRed(), other.getGreen());
+            assertEquals(pixel.getRed(), other.getBlue());
+        }
+    }
+}
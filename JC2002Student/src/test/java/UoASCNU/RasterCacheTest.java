@@ -0,0 +1,86 @@
+package UoASCNU;
+
+import UoASCNU.images.ImageFile;
+import UoASCNU.images.Pixel;
+import UoASCNU.images.RasterCache;
+import UoASCNU.processing.GrayscaleConverter;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RasterCacheTest {
+
+    private static final File EAGLE = new File("src/test/resources/images/bald_eagle.jpg");
+    private static final File CAT = new File("src/test/resources/images/orange_tabby_cat.jpg");
+
+    @AfterEach
+    public void tearDown() {
+        ImageFile.setRasterCache(null);
+    }
+
+    @Test
+    public void testSecondLoadIsMappedFromTheCache(@TempDir Path directory) throws IOException {
+        RasterCache cache = new RasterCache(directory.toFile(), RasterCache.DEFAULT_MAX_BYTES);
+        ImageFile.setRasterCache(cache);
+
+        ImageFile decoded = new ImageFile(EAGLE);
+        assertNotNull(decoded.getRasterData());
+        assertEquals(1, cache.size());
+
+        ImageFile mapped = new ImageFile(EAGLE);
+        assertNull(mapped.getRasterData());
+        assertEquals(decoded.getWidth(), mapped.getWidth());
+        for (Pixel pixel : decoded.pixels()) {
+            assertEquals(pixel.getRed(), mapped.getPixel(pixel.getX(), pixel.getY()).getRed());
+            assertEquals(pixel.getBlue(), mapped.getPixel(pixel.getX(), pixel.getY()).getBlue());
+        }
+        assertArrayEquals(GrayscaleConverter.makeGray(decoded).getGrayData(),
+                GrayscaleConverter.makeGray(mapped).getGrayData());
+
+        // Changes to a mapped image do not reach the cache
+        mapped.getPixel(0, 0).setRed(mapped.getPixel(0, 0).getRed() ^ 0xff);
+        assertEquals(decoded.getPixel(0, 0).getRed(), new ImageFile(EAGLE).getPixel(0, 0).getRed());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEntryIsEvicted(@TempDir Path directory) throws IOException {
+        // Room for the eagle or the cat, but not both
+        long eagleBytes = bytesOf(new ImageFile(EAGLE));
+        long catBytes = bytesOf(new ImageFile(CAT));
+        RasterCache cache = new RasterCache(directory.toFile(),
+                Math.max(eagleBytes, catBytes) + Math.min(eagleBytes, catBytes) / 2);
+        ImageFile.setRasterCache(cache);
+
+        new ImageFile(EAGLE).load();
+        new ImageFile(CAT).load();
+        assertEquals(1, cache.size());
+        assertTrue(cache.getTotalBytes() <= cache.getMaxBytes());
+        assertNull(new ImageFile(CAT).getRasterData());
+        assertNotNull(new ImageFile(EAGLE).getRasterData());
+    }
+
+    @Test
+    public void testDamagedEntryIsDecodedAgain(@TempDir Path directory) throws IOException {
+        RasterCache cache = new RasterCache(directory.toFile(), RasterCache.DEFAULT_MAX_BYTES);
+        ImageFile.setRasterCache(cache);
+        new ImageFile(EAGLE).load();
+        try (var entries = Files.list(directory)) {
+            Path entry = entries.findFirst().orElseThrow();
+            Files.write(entry, new byte[] {1, 2, 3});
+        }
+        assertNotNull(new ImageFile(EAGLE).getRasterData());
+        assertNull(new ImageFile(EAGLE).getRasterData());
+    }
+
+    private static long bytesOf(ImageFile image) {
+        return 20 + 4L * image.getWidth() * image.getHeight();
+    }
+}
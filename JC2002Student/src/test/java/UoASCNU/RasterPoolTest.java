@@ -0,0 +1,76 @@
+package UoASCNU;
+
+import UoASCNU.images.ImageFile;
+import UoASCNU.images.RasterPool;
+import UoASCNU.processing.GrayscaleConverter;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RasterPoolTest {
+
+    private static final File EAGLE = new File("src/test/resources/images/bald_eagle.jpg");
+    private static final File CAT = new File("src/test/resources/images/orange_tabby_cat.jpg");
+
+    @AfterEach
+    public void tearDown() {
+        ImageFile.setRasterPool(null);
+    }
+
+    @Test
+    public void testClosedImagesLendTheirArraysToTheNext() {
+        ImageFile expected = new ImageFile(EAGLE);
+        ImageFile expectedGray = GrayscaleConverter.makeGray(expected);
+
+        RasterPool pool = new RasterPool(RasterPool.DEFAULT_MAX_BYTES);
+        ImageFile.setRasterPool(pool);
+        int[] first;
+        try (ImageFile image = new ImageFile(EAGLE);
+             ImageFile gray = GrayscaleConverter.makeGray(image)) {
+            first = image.getRasterData();
+            assertArrayEquals(expected.getRasterData(), first);
+            assertArrayEquals(expectedGray.getGrayData(), gray.getGrayData());
+        }
+        assertEquals(0, pool.getHits());
+
+        // Decoded into the arrays the first image gave back
+        try (ImageFile image = new ImageFile(EAGLE);
+             ImageFile gray = GrayscaleConverter.makeGray(image)) {
+            assertSame(first, image.getRasterData());
+            assertArrayEquals(expected.getRasterData(), image.getRasterData());
+            assertArrayEquals(expectedGray.getGrayData(), gray.getGrayData());
+        }
+        // The colour, staging and gray arrays were all reused
+        assertEquals(3, pool.getHits());
+
+        // A blank image from the pool is black, whatever the array held
+        try (ImageFile blank = new ImageFile(expected.getWidth(), expected.getHeight())) {
+            assertSame(first, blank.getRasterData());
+            assertEquals(0, blank.getPixel(100, 100).getRed());
+        }
+    }
+
+    @Test
+    public void testIdleArraysStayWithinTheBudget() {
+        ImageFile eagle = new ImageFile(EAGLE);
+        long eagleBytes = 4L * eagle.getWidth() * eagle.getHeight();
+        RasterPool pool = new RasterPool(eagleBytes + eagleBytes / 2);
+        ImageFile.setRasterPool(pool);
+
+        new ImageFile(EAGLE).close();
+        new ImageFile(CAT).close();
+        assertTrue(pool.getIdleBytes() <= pool.getMaxBytes());
+
+        // Closing twice gives the array back only once
+        ImageFile blank = new ImageFile(10, 10, BufferedImage.TYPE_BYTE_GRAY);
+        blank.close();
+        long idle = pool.getIdleBytes();
+        blank.close();
+        assertEquals(idle, pool.getIdleBytes());
+    }
+}